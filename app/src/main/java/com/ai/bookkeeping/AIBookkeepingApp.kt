@@ -1,7 +1,15 @@
 package com.ai.bookkeeping
 
 import android.app.Application
+import com.ai.bookkeeping.ai.EnrichmentQueue
+import com.ai.bookkeeping.ai.ParseCache
 import com.ai.bookkeeping.data.*
+import com.ai.bookkeeping.util.CategoryClassifier
+import com.ai.bookkeeping.util.NaiveBayesClassifier
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.launch
 
 /**
  * Application类，用于初始化全局组件
@@ -10,6 +18,9 @@ class AIBookkeepingApp : Application() {
 
     val database by lazy { AppDatabase.getDatabase(this) }
 
+    // 应用级协程作用域，用于跟随进程生命周期的后台任务
+    val applicationScope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+
     // Repositories
     val repository by lazy { TransactionRepository(database.transactionDao()) }
     val categoryRepository by lazy { CategoryRepository.getInstance(database.categoryDao()) }
@@ -21,6 +32,21 @@ class AIBookkeepingApp : Application() {
     override fun onCreate() {
         super.onCreate()
         instance = this
+
+        ParseCache.init(database)
+        EnrichmentQueue.init(this, database)
+
+        // 分类变化时重建关键词分类器
+        applicationScope.launch {
+            database.categoryDao().getAllCategories().collect { categories ->
+                CategoryClassifier.updateUserCategories(categories)
+            }
+        }
+
+        // 加载（首次时训练）本地分类模型
+        applicationScope.launch(Dispatchers.IO) {
+            NaiveBayesClassifier.init(database)
+        }
     }
 
     companion object {
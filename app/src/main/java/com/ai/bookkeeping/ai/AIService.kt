@@ -1,23 +1,67 @@
 package com.ai.bookkeeping.ai
 
 import android.content.Context
+import android.os.SystemClock
+import com.ai.bookkeeping.model.ParseCacheEntry
+import com.ai.bookkeeping.model.Transaction
+import com.ai.bookkeeping.model.TransactionType
+import com.ai.bookkeeping.network.CircuitBreaker
+import com.ai.bookkeeping.network.HttpClientProvider
+import com.ai.bookkeeping.network.RequestCoordinator
+import com.ai.bookkeeping.network.await
+import com.ai.bookkeeping.network.hedged
 import com.ai.bookkeeping.util.AIParser
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.channels.awaitClose
+import kotlinx.coroutines.channels.trySendBlocking
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.callbackFlow
+import kotlinx.coroutines.flow.flow
 import kotlinx.coroutines.withContext
+import okhttp3.Call
+import okhttp3.Callback
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.Request
+import okhttp3.RequestBody.Companion.toRequestBody
+import okhttp3.Response
 import org.json.JSONArray
 import org.json.JSONObject
-import java.io.OutputStreamWriter
-import java.net.HttpURLConnection
-import java.net.URL
+import java.io.IOException
 import java.text.SimpleDateFormat
 import java.util.Calendar
 import java.util.Locale
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
 
 object AIService {
 
-    private const val DEEPSEEK_API_URL = "https://api.deepseek.com/chat/completions"
     private const val PREFS_NAME = "ai_settings"
     private const val KEY_API_KEY = "deepseek_api_key"
+    private const val KEY_LOCAL_CONFIDENCE_THRESHOLD = "local_confidence_threshold"
+    private const val DEFAULT_LOCAL_CONFIDENCE_THRESHOLD = 0.6f
+
+    // 流式响应的结束标记
+    private const val STREAM_DONE = "[DONE]"
+
+    // 普通请求的总时限；记账解析使用更短的时限，见 [PARSE_DEADLINE_MS]
+    private const val DEFAULT_DEADLINE_MS = 60_000L
+    private const val PARSE_DEADLINE_MS = 3_000L
+    private const val PARSE_MAX_ATTEMPTS = 2
+
+    private const val RETRY_BASE_DELAY_MS = 200L
+    private const val RETRY_MAX_DELAY_MS = 2_000L
+
+    // 相同的请求合并为一次，同时进行的请求最多4个
+    private const val MAX_CONCURRENT_REQUESTS = 4
+    private val requests = RequestCoordinator<Result<String>>(MAX_CONCURRENT_REQUESTS)
+
+    private val JSON_MEDIA_TYPE = "application/json; charset=utf-8".toMediaType()
 
     private var apiKey: String? = null
 
@@ -42,305 +86,600 @@ object AIService {
         return apiKey
     }
 
+    /**
+     * 是否至少配置了一个大模型服务商（见 [LlmRouter]）
+     */
     fun hasApiKey(context: Context): Boolean {
-        return !getApiKey(context).isNullOrEmpty()
+        return LlmRouter.providers(context).isNotEmpty()
     }
 
+    /**
+     * 提前建立到 API 主机的连接，打开AI相关界面时调用
+     */
+    fun prewarm(context: Context) {
+        LlmRouter.rank(context).firstOrNull()?.let { HttpClientProvider.prewarm(it.endpoint) }
+    }
+
+    /**
+     * 熔断器状态，所有服务商都熔断时为 OPEN，供界面显示（见 [LlmRouter]）
+     * 全部熔断期间记账解析直接用本地结果
+     */
+    val circuitState: StateFlow<CircuitBreaker.State> get() = LlmRouter.circuitState
+
+    fun circuitCooldownMillis(): Long = LlmRouter.circuitCooldownMillis()
+
+    /**
+     * 服务端错误（HTTP 非 2xx）
+     * 429 和 5xx 视为暂时性故障，可以重试并计入熔断
+     */
+    class ApiException(val code: Int, body: String) : Exception("API请求失败: $code - $body") {
+        val transient: Boolean get() = code == 429 || code >= 500
+    }
+
+    /**
+     * 熔断中，请求未发出
+     */
+    class CircuitOpenException : Exception("AI服务暂时不可用，请稍后再试")
+
+    /**
+     * @param deadlineMillis 单次请求的总时限（含连接、发送和读取）
+     * @param maxAttempts 最多尝试次数；只有幂等的请求才应大于1，暂时性故障之间按带抖动的指数退避等待
+     * @param usageTag token用量按此归类统计（见 [TokenStats]）
+     */
     suspend fun chat(
         message: String,
         systemPrompt: String = "你是一个专业的财务分析助手，擅长分析个人收支数据并提供理财建议。请用简洁、专业的语言回复。",
-        context: Context
+        context: Context,
+        deadlineMillis: Long = DEFAULT_DEADLINE_MS,
+        maxAttempts: Int = 1,
+        usageTag: String = "chat"
+    ): Result<String> = chat(PromptTemplates.Template(usageTag, systemPrompt), message, context, deadlineMillis, maxAttempts)
+
+    /**
+     * 按模板请求：系统提示词和生成参数取模板的固定值，token用量按模板名统计
+     *
+     * 系统提示词和消息都相同的请求正在进行时，直接等待它的结果（见 [RequestCoordinator]）
+     */
+    suspend fun chat(
+        template: PromptTemplates.Template,
+        message: String,
+        context: Context,
+        deadlineMillis: Long = DEFAULT_DEADLINE_MS,
+        maxAttempts: Int = 1
+    ): Result<String> {
+        if (!hasApiKey(context)) {
+            return Result.failure(Exception("请先设置AI API密钥"))
+        }
+
+        // 合并后的请求可能比发起它的界面活得久，不持有界面的 Context
+        val appContext = context.applicationContext
+        return requests.coalesce("${template.system}\u0000$message") {
+            send(appContext, template, message, deadlineMillis, maxAttempts)
+        }
+    }
+
+    private suspend fun send(
+        context: Context,
+        template: PromptTemplates.Template,
+        message: String,
+        deadlineMillis: Long,
+        maxAttempts: Int
     ): Result<String> = withContext(Dispatchers.IO) {
-        try {
-            val key = getApiKey(context)
-            if (key.isNullOrEmpty()) {
-                return@withContext Result.failure(Exception("请先设置AI API密钥"))
+        var result: Result<String> = Result.failure(CircuitOpenException())
+        for (attempt in 1..maxAttempts.coerceAtLeast(1)) {
+            if (attempt > 1) delay(backoffMillis(attempt - 1))
+
+            // 每次尝试都重新排序：上一次失败的服务商已被降级
+            val ranked = LlmRouter.rank(context)
+            if (ranked.isEmpty()) return@withContext Result.failure(Exception("请先设置AI API密钥"))
+            result = executeRanked(context, ranked, template, message, deadlineMillis)
+
+            // 成功、请求本身有误或全部熔断时不再重试
+            val error = result.exceptionOrNull() ?: break
+            if (!isTransient(error)) break
+        }
+        result
+    }
+
+    /**
+     * 按排序依次尝试服务商：某家熔断中则跳过，暂时性失败或密钥无效则换下一家
+     * 开启对冲时，以排在后面的第一家作为对冲请求的目标
+     */
+    private suspend fun executeRanked(
+        context: Context,
+        ranked: List<LlmProvider>,
+        template: PromptTemplates.Template,
+        message: String,
+        deadlineMillis: Long
+    ): Result<String> {
+        var result: Result<String> = Result.failure(CircuitOpenException())
+        var index = 0
+        while (index < ranked.size) {
+            val provider = ranked[index]
+            val secondary = ranked.getOrNull(index + 1)
+            val hedgeDelay = if (secondary != null) LlmRouter.hedgeDelayMillis(context, provider) else -1
+            val attempt = if (secondary != null && hedgeDelay > 0) {
+                // 对冲请求已经试过下一家
+                index += 2
+                executeHedged(context, provider, secondary, hedgeDelay, template, message, deadlineMillis)
+            } else {
+                index++
+                execute(context, provider, template, message, deadlineMillis)
             }
 
-            val url = URL(DEEPSEEK_API_URL)
-            val connection = url.openConnection() as HttpURLConnection
+            // 全部跳过时保留"熔断中"，否则返回最后一次真正请求的错误
+            val error = attempt.exceptionOrNull() ?: return attempt
+            if (error !is CircuitOpenException) result = attempt
+            if (error !is CircuitOpenException && !isProviderFailure(error)) return attempt
+        }
+        return result
+    }
 
-            connection.apply {
-                requestMethod = "POST"
-                setRequestProperty("Content-Type", "application/json")
-                setRequestProperty("Authorization", "Bearer $key")
-                doOutput = true
-                connectTimeout = 30000
-                readTimeout = 60000
-            }
+    /**
+     * 向 [primary] 发出请求，超过 [hedgeDelay] 仍未返回时再向 [secondary] 发出同样的请求（见 [hedged]）
+     */
+    private suspend fun executeHedged(
+        context: Context,
+        primary: LlmProvider,
+        secondary: LlmProvider,
+        hedgeDelay: Long,
+        template: PromptTemplates.Template,
+        message: String,
+        deadlineMillis: Long
+    ): Result<String> = hedged(
+        hedgeDelay,
+        primary = { execute(context, primary, template, message, deadlineMillis) },
+        secondary = {
+            val remaining = (deadlineMillis - hedgeDelay).coerceAtLeast(1)
+            execute(context, secondary, template, message, remaining)
+        }
+    )
 
-            val requestBody = JSONObject().apply {
-                put("model", "deepseek-chat")
-                put("messages", JSONArray().apply {
-                    put(JSONObject().apply {
-                        put("role", "system")
-                        put("content", systemPrompt)
-                    })
-                    put(JSONObject().apply {
-                        put("role", "user")
-                        put("content", message)
-                    })
-                })
-                put("temperature", 0.7)
-                put("max_tokens", 2000)
+    /**
+     * 向指定服务商发出一次请求，耗时和结果计入 [LlmRouter]
+     * 该服务商熔断中时不发出请求，返回 [CircuitOpenException]
+     */
+    private suspend fun execute(
+        context: Context,
+        provider: LlmProvider,
+        template: PromptTemplates.Template,
+        message: String,
+        deadlineMillis: Long
+    ): Result<String> = requests.withPermit {
+        // 拿到并发名额后再占用熔断器的探测名额，排队期间被取消不会占着名额
+        if (LlmRouter.tryAcquire(provider)) {
+            request(context, provider, template, message, deadlineMillis)
+        } else {
+            Result.failure(CircuitOpenException())
+        }
+    }
+
+    private suspend fun request(
+        context: Context,
+        provider: LlmProvider,
+        template: PromptTemplates.Template,
+        message: String,
+        deadlineMillis: Long
+    ): Result<String> {
+        val startedAt = SystemClock.elapsedRealtime()
+        val result = try {
+            val call = HttpClientProvider.client.newCall(buildChatRequest(provider, template, message, stream = false))
+            call.timeout().timeout(deadlineMillis, TimeUnit.MILLISECONDS)
+
+            // 共享客户端复用到 API 主机的连接，响应体读完后连接回到池中
+            call.await().use { response ->
+                val body = response.body?.string().orEmpty()
+                if (response.isSuccessful) {
+                    val json = JSONObject(body)
+                    json.optJSONObject("usage")?.let { TokenStats.record(context, template.name, it) }
+                    val content = json
+                        .getJSONArray("choices")
+                        .getJSONObject(0)
+                        .getJSONObject("message")
+                        .getString("content")
+                    Result.success(content)
+                } else {
+                    Result.failure(ApiException(response.code, body))
+                }
             }
+        } catch (e: CancellationException) {
+            // 被对冲请求抢先或调用方取消，不计入该服务商的统计
+            LlmRouter.release(provider)
+            throw e
+        } catch (e: Exception) {
+            Result.failure(e)
+        }
 
-            OutputStreamWriter(connection.outputStream).use { writer ->
-                writer.write(requestBody.toString())
-                writer.flush()
+        val failed = result.exceptionOrNull()?.let { isProviderFailure(it) } ?: false
+        val latency = if (result.isSuccess) SystemClock.elapsedRealtime() - startedAt else null
+        LlmRouter.record(provider, !failed, latency)
+        return result
+    }
+
+    private fun isTransient(error: Throwable): Boolean {
+        return error is IOException || (error is ApiException && error.transient)
+    }
+
+    /**
+     * 是否是服务商一侧的问题（网络、服务端故障、密钥无效），此时应换一家服务商
+     */
+    private fun isProviderFailure(error: Throwable): Boolean {
+        return isTransient(error) || (error is ApiException && (error.code == 401 || error.code == 403))
+    }
+
+    /**
+     * 指数退避加抖动：第n次重试前等待 [base·2^(n-1) / 2, base·2^(n-1)]，避免多个客户端同时重试
+     */
+    private fun backoffMillis(attempt: Int): Long {
+        val ceiling = (RETRY_BASE_DELAY_MS shl (attempt - 1)).coerceAtMost(RETRY_MAX_DELAY_MS)
+        return ceiling / 2 + Random.nextLong(ceiling / 2 + 1)
+    }
+
+    /**
+     * 流式对话：以 stream 方式请求，逐段发出模型生成的文本增量
+     * 取消收集即中断请求
+     */
+    fun chatStream(
+        template: PromptTemplates.Template,
+        message: String,
+        context: Context
+    ): Flow<String> = callbackFlow {
+        val ranked = LlmRouter.rank(context)
+        if (ranked.isEmpty()) {
+            close(Exception("请先设置AI API密钥"))
+            return@callbackFlow
+        }
+
+        // 整个流式响应期间占用一个并发名额
+        requests.withPermit {
+            // 流式输出开始后无法换服务商，只在发出前跳过熔断中的服务商
+            val provider = ranked.firstOrNull { LlmRouter.tryAcquire(it) }
+            if (provider == null) {
+                close(CircuitOpenException())
+                return@withPermit
             }
 
-            val responseCode = connection.responseCode
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                val response = connection.inputStream.bufferedReader().use { it.readText() }
-                val jsonResponse = JSONObject(response)
-                val content = jsonResponse
-                    .getJSONArray("choices")
-                    .getJSONObject(0)
-                    .getJSONObject("message")
-                    .getString("content")
-                Result.success(content)
-            } else {
-                val errorStream = connection.errorStream?.bufferedReader()?.use { it.readText() }
-                Result.failure(Exception("API请求失败: $responseCode - $errorStream"))
+            val call = HttpClientProvider.client.newCall(buildChatRequest(provider, template, message, stream = true))
+            call.enqueue(object : Callback {
+                override fun onResponse(call: Call, response: Response) {
+                    response.use {
+                        if (!response.isSuccessful) {
+                            val error = ApiException(response.code, response.body?.string().orEmpty())
+                            LlmRouter.record(provider, !isProviderFailure(error))
+                            close(error)
+                            return
+                        }
+                        try {
+                            val reader = SseEventReader(response.body!!.source())
+                            var sawDone = false
+                            while (true) {
+                                val data = reader.next() ?: break
+                                if (data == STREAM_DONE) {
+                                    sawDone = true
+                                    break
+                                }
+                                val json = JSONObject(data)
+
+                                // 最后一个事件只带 usage，choices 为空
+                                json.optJSONObject("usage")?.let { TokenStats.record(context, template.name, it) }
+                                val choices = json.optJSONArray("choices")
+                                if (choices == null || choices.length() == 0) continue
+                                val delta = choices.getJSONObject(0)
+                                    .optJSONObject("delta")
+                                    ?.optString("content")
+                                if (!delta.isNullOrEmpty()) trySendBlocking(delta)
+                            }
+                            // 没等到结束标记就断开的是截断的响应，不能当作完整结果（调用方会缓存）
+                            if (!sawDone) throw IOException("响应不完整")
+
+                            // 流式响应的总时长取决于生成长度，只计入错误率，不计延迟
+                            LlmRouter.record(provider, success = true)
+                            close()
+                        } catch (e: Exception) {
+                            if (call.isCanceled()) {
+                                LlmRouter.release(provider)
+                            } else {
+                                LlmRouter.record(provider, success = false)
+                            }
+                            close(e)
+                        }
+                    }
+                }
+
+                override fun onFailure(call: Call, e: IOException) {
+                    if (call.isCanceled()) {
+                        LlmRouter.release(provider)
+                    } else {
+                        LlmRouter.record(provider, success = false)
+                    }
+                    close(e)
+                }
+            })
+            awaitClose { call.cancel() }
+        }
+    }
+
+    private fun buildChatRequest(
+        provider: LlmProvider,
+        template: PromptTemplates.Template,
+        message: String,
+        stream: Boolean
+    ): Request {
+        val requestBody = JSONObject().apply {
+            put("model", provider.model)
+            put("messages", JSONArray().apply {
+                put(JSONObject().apply {
+                    put("role", "system")
+                    put("content", template.system)
+                })
+                put(JSONObject().apply {
+                    put("role", "user")
+                    put("content", message)
+                })
+            })
+            put("temperature", template.temperature)
+            put("max_tokens", template.maxTokens)
+            if (stream) {
+                put("stream", true)
+                put("stream_options", JSONObject().put("include_usage", true))
             }
-        } catch (e: Exception) {
-            Result.failure(e)
         }
+
+        return Request.Builder()
+            .url(provider.endpoint)
+            .apply { if (provider.apiKey.isNotEmpty()) addHeader("Authorization", "Bearer ${provider.apiKey}") }
+            .apply { if (stream) addHeader("Accept", "text/event-stream") }
+            .post(requestBody.toString().toRequestBody(JSON_MEDIA_TYPE))
+            .build()
     }
 
-    suspend fun analyzeFinancialData(
+    /**
+     * 分析财务数据，流式返回分析文本的增量；命中缓存时一次返回全文
+     * @param features 本地计算的特征摘要（见 [AnalysisFeatures]），附在统计数据之后
+     */
+    fun analyzeFinancialData(
         context: Context,
         totalIncome: Double,
         totalExpense: Double,
         categoryBreakdown: List<Pair<String, Double>>,
         period: String,
-        transactionCount: Int
-    ): Result<String> {
+        transactionCount: Int,
+        features: String = ""
+    ): Flow<String> {
         val prompt = buildString {
-            appendLine("请分析以下财务数据并给出专业建议：")
-            appendLine()
             appendLine("【统计周期】$period")
             appendLine("【交易笔数】${transactionCount}笔")
             appendLine("【总收入】￥${String.format("%.2f", totalIncome)}")
             appendLine("【总支出】￥${String.format("%.2f", totalExpense)}")
             appendLine("【结余】￥${String.format("%.2f", totalIncome - totalExpense)}")
-            appendLine()
             appendLine("【分类明细】")
             categoryBreakdown.forEach { (category, amount) ->
                 val percent = if (totalExpense > 0) (amount / totalExpense * 100) else 0.0
                 appendLine("- $category: ￥${String.format("%.2f", amount)} (${String.format("%.1f", percent)}%)")
             }
-            appendLine()
-            appendLine("请从以下几个方面进行分析：")
-            appendLine("1. 整体收支状况评价")
-            appendLine("2. 消费结构分析")
-            appendLine("3. 潜在的节省空间")
-            appendLine("4. 理财建议")
-            appendLine("5. 下一步行动建议")
+            if (features.isNotEmpty()) appendLine(features)
         }
 
-        return chat(
-            message = prompt,
-            systemPrompt = """你是一个专业的个人财务分析师。请根据用户提供的收支数据进行深入分析，给出具体、可操作的建议。
-                |分析要点：
-                |1. 关注收支平衡情况
-                |2. 识别可能的过度消费领域
-                |3. 提供具体的节省建议
-                |4. 考虑用户的生活质量
-                |5. 建议要实际可行
-                |请用友好、专业的语气回复，适当使用emoji让回复更生动。""".trimMargin(),
-            context = context
-        )
-    }
-
-    suspend fun parseTransaction(
-        context: Context,
-        input: String
-    ): Result<ParsedTransaction> = withContext(Dispatchers.IO) {
-        try {
-            val key = getApiKey(context)
-            if (key.isNullOrEmpty()) {
-                // 如果没有API密钥，使用本地解析
-                return@withContext parseTransactionLocally(input)
+        // 统计数据与上次分析相同时直接返回缓存，完整生成后才写入缓存
+        val template = PromptTemplates.ANALYSIS
+        val cacheKey = AnalysisCache.keyOf(template.system, prompt)
+        return flow {
+            AnalysisCache.get(context, cacheKey)?.let { cached ->
+                emit(cached)
+                return@flow
             }
 
-            // 获取当前日期用于参考
-            val today = SimpleDateFormat("yyyy-MM-dd", Locale.CHINA).format(Calendar.getInstance().time)
-
-            val prompt = """请解析以下记账文本，提取金额、分类、描述、类型和日期时间。
-
-文本：$input
-
-今天日期：$today
+            val analysis = StringBuilder()
+            chatStream(template, prompt, context).collect { delta ->
+                analysis.append(delta)
+                emit(delta)
+            }
+            if (analysis.isNotEmpty()) AnalysisCache.put(context, cacheKey, analysis.toString())
+        }
+    }
 
-请以JSON格式返回，格式如下：
-{
-  "amount": 数字,
-  "category": "分类名",
-  "description": "简短描述",
-  "type": "expense"或"income",
-  "date_offset": 天数偏移(今天=0,昨天=-1,前天=-2),
-  "hour": 小时(0-23，无法确定则为-1),
-  "minute": 分钟(0-59，无法确定则为0),
-  "time_desc": "时间描述如'昨天中午'"
-}
+    /**
+     * 解析可能包含多笔记录的记账文本，记账入口（首页、语音、悬浮窗）都经由这里
+     * 先按 [AIParser.parseAllScored] 本地切分解析，只有置信度不足的那几笔才请求大模型（见 [resolveAll]）
+     *
+     * @return 按输入顺序排列的交易，无法识别时为空列表
+     */
+    suspend fun parseAll(context: Context, input: String): List<Transaction> {
+        return resolveAll(context, input, AIParser.parseAllScored(input))
+    }
 
-日期解析规则：
-- "今天"/"今日" -> date_offset: 0
-- "昨天"/"昨日" -> date_offset: -1
-- "前天" -> date_offset: -2
-- "大前天" -> date_offset: -3
-- "上周" -> date_offset: -7
-- 无日期词 -> date_offset: 0
-
-时间解析规则：
-- "早上"/"早餐" -> hour: 7
-- "上午" -> hour: 10
-- "中午"/"午餐"/"午饭" -> hour: 12
-- "下午" -> hour: 15
-- "傍晚" -> hour: 18
-- "晚上"/"晚餐"/"晚饭" -> hour: 19
-- "宵夜"/"夜宵" -> hour: 22
-- 无时间词 -> hour: -1
-
-分类参考：餐饮、交通、购物、娱乐、医疗、教育、居住、通讯、服饰、工资、奖金、投资、兼职、红包、其他
-
-只返回JSON，不要其他内容。""".trimMargin()
-
-            val result = chat(prompt, "你是一个智能记账助手，专门解析自然语言记账文本。只返回JSON格式数据，不要任何解释。", context)
-
-            result.fold(
-                onSuccess = { response ->
-                    try {
-                        val cleanJson = response.trim()
-                            .removePrefix("```json")
-                            .removePrefix("```")
-                            .removeSuffix("```")
-                            .trim()
-                        val json = JSONObject(cleanJson)
-
-                        // 计算实际日期时间
-                        val calendar = Calendar.getInstance()
-                        val dateOffset = json.optInt("date_offset", 0)
-                        val hour = json.optInt("hour", -1)
-                        val minute = json.optInt("minute", 0)
-
-                        calendar.add(Calendar.DAY_OF_YEAR, dateOffset)
-                        if (hour >= 0) {
-                            calendar.set(Calendar.HOUR_OF_DAY, hour)
-                            calendar.set(Calendar.MINUTE, minute)
-                            calendar.set(Calendar.SECOND, 0)
-                            calendar.set(Calendar.MILLISECOND, 0)
-                        }
+    /**
+     * 在已有的本地解析结果（如输入时的实时预览）上决定每一笔由哪一层给出，不重新做本地解析
+     * 置信度足够的直接采用；其余依次查解析缓存、请求大模型，请求失败时退回本地结果。
+     * 本地一笔都没识别出时，整句交给大模型。
+     */
+    suspend fun resolveAll(
+        context: Context,
+        input: String,
+        local: List<AIParser.ScoredTransaction>
+    ): List<Transaction> = withContext(Dispatchers.IO) {
+        if (local.isEmpty()) {
+            return@withContext if (hasApiKey(context)) {
+                listOfNotNull(resolve(context, input, null).getOrNull()?.toTransaction())
+            } else {
+                emptyList()
+            }
+        }
 
-                        Result.success(ParsedTransaction(
-                            amount = json.getDouble("amount"),
-                            category = json.getString("category"),
-                            description = json.optString("description", ""),
-                            isExpense = json.getString("type") == "expense",
-                            date = calendar.timeInMillis,
-                            timeDescription = json.optString("time_desc", "")
-                        ))
-                    } catch (e: Exception) {
-                        parseTransactionLocally(input)
-                    }
-                },
-                onFailure = { parseTransactionLocally(input) }
-            )
-        } catch (e: Exception) {
-            parseTransactionLocally(input)
+        // 各笔互不依赖，需要请求的几笔并行发出（并发数由 [RequestCoordinator] 限制）
+        coroutineScope {
+            local.map { scored ->
+                async { resolve(context, scored.text, scored).getOrNull()?.toTransaction() }
+            }.awaitAll().filterNotNull()
         }
     }
 
-    private fun parseTransactionLocally(input: String): Result<ParsedTransaction> {
-        // 使用增强的AIParser进行本地解析
-        val amountPattern = Regex("(\\d+\\.?\\d*)")
-        val amountMatch = amountPattern.find(input)
-        val amount = amountMatch?.value?.toDoubleOrNull() ?: return Result.failure(Exception("无法识别金额"))
+    /**
+     * 解析单笔记账文本：先本地解析，置信度低于阈值时才请求大模型
+     */
+    suspend fun parseTransaction(
+        context: Context,
+        input: String
+    ): Result<ParsedTransaction> = withContext(Dispatchers.IO) {
+        resolve(context, input, AIParser.parseScored(input))
+    }
 
-        // 判断收入/支出
-        val incomeKeywords = listOf("收入", "工资", "薪水", "奖金", "红包", "转入", "收到", "赚")
-        val isExpense = incomeKeywords.none { input.contains(it) }
+    /**
+     * 为一笔记录选择解析层，每次记录由哪一层给出结果（见 [ParseStats]）
+     * @param local 这一笔的本地解析结果，本地无法识别时为null
+     */
+    private suspend fun resolve(
+        context: Context,
+        input: String,
+        local: AIParser.ScoredTransaction?
+    ): Result<ParsedTransaction> {
+        val startedAt = SystemClock.elapsedRealtime()
+        val hasKey = hasApiKey(context)
+
+        // 本地结果足够确信，或没有API密钥时直接采用本地结果
+        if (local != null && (!hasKey || local.confidence >= getLocalConfidenceThreshold(context))) {
+            return finish(context, startedAt, toParsedTransaction(local, input, ParseStats.Tier.LOCAL))
+        }
+        if (!hasKey) {
+            return Result.failure(Exception("无法识别金额"))
+        }
 
-        // 使用AIParser进行智能分类
-        val category = determineCategory(input, isExpense)
+        // 同样的记账文字（金额、日期可以不同）之前已由大模型解析过，沿用其分类和描述
+        val cacheKey = AIParser.cacheKey(input)
+        if (local != null && cacheKey != null) {
+            ParseCache.get(cacheKey)?.let { cached ->
+                return finish(context, startedAt, fromCache(local, cached, input))
+            }
+        }
 
-        // 使用AIParser解析日期时间
-        val date = AIParser.parseDateTime(input)
+        return parseWithLlm(context, input, local?.transaction?.date).fold(
+            onSuccess = { parsed ->
+                if (cacheKey != null) {
+                    ParseCache.put(
+                        cacheKey,
+                        ParseCacheEntry(
+                            inputKey = cacheKey,
+                            type = if (parsed.isExpense) TransactionType.EXPENSE else TransactionType.INCOME,
+                            category = parsed.category,
+                            description = parsed.description
+                        )
+                    )
+                }
+                finish(context, startedAt, parsed)
+            },
+            onFailure = { e ->
+                if (local != null) {
+                    finish(context, startedAt, toParsedTransaction(local, input, ParseStats.Tier.LOCAL_FALLBACK))
+                } else {
+                    Result.failure(e)
+                }
+            }
+        )
+    }
 
-        // 生成时间描述
-        val timeDesc = buildTimeDescription(input)
+    /**
+     * 本地解析置信度阈值（0~1），低于此值才请求大模型
+     */
+    fun getLocalConfidenceThreshold(context: Context): Double {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+            .getFloat(KEY_LOCAL_CONFIDENCE_THRESHOLD, DEFAULT_LOCAL_CONFIDENCE_THRESHOLD)
+            .toDouble()
+    }
 
-        // 生成描述
-        val description = generateDescription(input, category)
+    fun setLocalConfidenceThreshold(context: Context, threshold: Double) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+            .edit()
+            .putFloat(KEY_LOCAL_CONFIDENCE_THRESHOLD, threshold.coerceIn(0.0, 1.0).toFloat())
+            .apply()
+    }
 
-        return Result.success(ParsedTransaction(
-            amount = amount,
-            category = category,
-            description = description,
-            isExpense = isExpense,
-            date = date,
-            timeDescription = timeDesc
-        ))
+    private fun finish(context: Context, startedAt: Long, parsed: ParsedTransaction): Result<ParsedTransaction> {
+        ParseStats.record(context, parsed.tier, SystemClock.elapsedRealtime() - startedAt)
+        return Result.success(parsed)
     }
 
     /**
-     * 智能分类识别 - 使用评分机制
+     * @param fallbackDate 文本中没有日期时间时使用的时间，如多笔记录中沿用前一笔的日期
      */
-    private fun determineCategory(input: String, isExpense: Boolean): String {
-        // 支出分类关键词
-        val expenseCategoryKeywords = mapOf(
-            "餐饮" to listOf("早餐", "午餐", "晚餐", "早饭", "午饭", "晚饭", "吃饭", "外卖",
-                "奶茶", "咖啡", "饮料", "零食", "水果", "买菜", "超市", "食品",
-                "餐厅", "火锅", "烧烤", "小吃", "面包", "蛋糕", "宵夜", "夜宵", "聚餐",
-                "食堂", "盒饭", "快餐", "汉堡", "炸鸡", "饭", "菜", "吃", "餐"),
-            "交通" to listOf("打车", "出租", "滴滴", "公交", "地铁", "高铁", "火车", "飞机",
-                "机票", "车票", "加油", "油费", "停车", "过路费", "共享单车", "骑车",
-                "出行", "uber", "曹操", "首汽", "嘀嗒", "车", "票"),
-            "购物" to listOf("淘宝", "京东", "拼多多", "网购", "购物", "买东西", "天猫",
-                "唯品会", "买", "购"),
-            "娱乐" to listOf("电影", "游戏", "KTV", "唱歌", "旅游", "门票", "演出", "酒吧",
-                "健身", "运动", "球", "游泳", "瑜伽", "景点", "玩"),
-            "医疗" to listOf("医院", "药", "看病", "体检", "挂号", "医药", "诊所", "牙科",
-                "眼科", "医", "病"),
-            "教育" to listOf("课程", "培训", "学费", "书", "教材", "考试", "补习", "网课",
-                "学习", "学", "课"),
-            "居住" to listOf("房租", "租金", "物业", "水电", "电费", "水费", "燃气", "网费",
-                "宽带", "暖气", "维修", "装修", "房", "租"),
-            "通讯" to listOf("话费", "手机费", "流量", "充值", "套餐"),
-            "服饰" to listOf("衣服", "裤子", "鞋", "帽子", "包", "配饰", "化妆品", "护肤",
-                "洗护", "内衣", "袜子", "外套", "衣", "服")
-        )
+    private suspend fun parseWithLlm(context: Context, input: String, fallbackDate: Long?): Result<ParsedTransaction> {
+        // 获取当前日期用于参考
+        val today = SimpleDateFormat("yyyy-MM-dd", Locale.CHINA).format(Calendar.getInstance().time)
 
-        // 收入分类关键词
-        val incomeCategoryKeywords = mapOf(
-            "工资" to listOf("工资", "薪水", "薪资", "月薪", "底薪", "发工资", "薪"),
-            "奖金" to listOf("奖金", "年终奖", "绩效", "提成", "分红", "奖励", "奖"),
-            "投资" to listOf("利息", "股票", "基金", "理财", "分红", "收益", "回报", "投资"),
-            "兼职" to listOf("兼职", "副业", "外快", "私活", "零工"),
-            "红包" to listOf("红包", "转账", "礼金", "随份子", "压岁钱")
+        // 规则在模板的固定系统提示词中，日期和文本放在最后
+        return chat(
+            PromptTemplates.PARSE,
+            PromptTemplates.parseInput(today, input),
+            context,
+            deadlineMillis = PARSE_DEADLINE_MS,
+            maxAttempts = PARSE_MAX_ATTEMPTS
         )
-
-        val categoryKeywords = if (isExpense) expenseCategoryKeywords else incomeCategoryKeywords
-        val defaultCategory = if (isExpense) "其他" else "其他"
-
-        // 使用评分机制找到最匹配的分类
-        val scores = mutableMapOf<String, Int>()
-        for ((category, keywords) in categoryKeywords) {
-            var score = 0
-            for (keyword in keywords) {
-                if (input.contains(keyword)) {
-                    // 更长的关键词给更高的分数
-                    score += keyword.length
+            .mapCatching { response ->
+                val cleanJson = response.trim()
+                    .removePrefix("```json")
+                    .removePrefix("```")
+                    .removeSuffix("```")
+                    .trim()
+                val json = JSONObject(cleanJson)
+
+                // 计算实际日期时间
+                val calendar = Calendar.getInstance()
+                val dateOffset = json.optInt("date_offset", 0)
+                val hour = json.optInt("hour", -1)
+                val minute = json.optInt("minute", 0)
+
+                if (fallbackDate != null && dateOffset == 0 && hour < 0) calendar.timeInMillis = fallbackDate
+                calendar.add(Calendar.DAY_OF_YEAR, dateOffset)
+                if (hour >= 0) {
+                    calendar.set(Calendar.HOUR_OF_DAY, hour)
+                    calendar.set(Calendar.MINUTE, minute)
+                    calendar.set(Calendar.SECOND, 0)
+                    calendar.set(Calendar.MILLISECOND, 0)
                 }
+
+                ParsedTransaction(
+                    amount = json.getDouble("amount"),
+                    category = json.getString("category"),
+                    description = json.optString("description", ""),
+                    isExpense = json.getString("type") == "expense",
+                    date = calendar.timeInMillis,
+                    timeDescription = json.optString("time_desc", ""),
+                    tier = ParseStats.Tier.LLM
+                )
             }
-            if (score > 0) {
-                scores[category] = score
-            }
-        }
+    }
+
+    private fun toParsedTransaction(
+        local: AIParser.ScoredTransaction,
+        input: String,
+        tier: ParseStats.Tier
+    ): ParsedTransaction {
+        val transaction = local.transaction
+        return ParsedTransaction(
+            amount = transaction.amount,
+            category = transaction.category,
+            description = transaction.description,
+            isExpense = transaction.type == TransactionType.EXPENSE,
+            date = transaction.date,
+            timeDescription = buildTimeDescription(input),
+            tier = tier,
+            confidence = local.confidence
+        )
+    }
 
-        return scores.maxByOrNull { it.value }?.key ?: defaultCategory
+    /**
+     * 金额和日期取本次输入的本地解析结果，分类、描述和收支类型取缓存
+     */
+    private fun fromCache(
+        local: AIParser.ScoredTransaction,
+        cached: ParseCacheEntry,
+        input: String
+    ): ParsedTransaction {
+        return toParsedTransaction(local, input, ParseStats.Tier.CACHE).copy(
+            category = cached.category,
+            description = cached.description,
+            isExpense = cached.type == TransactionType.EXPENSE,
+            confidence = 1.0
+        )
     }
 
     /**
@@ -371,30 +710,23 @@ object AIService {
         return parts.joinToString("")
     }
 
-    /**
-     * 生成描述
-     */
-    private fun generateDescription(input: String, category: String): String {
-        var desc = input
-            .replace(Regex("\\d+\\.?\\d*\\s*(元|块|￥|\\$)?"), "")
-            .replace(Regex("(花了|花费|消费|支出|收入|收到|赚了|得到)"), "")
-            .replace(Regex("(今天|今日|昨天|昨日|前天|大前天|上周|上星期)"), "")
-            .replace(Regex("(凌晨|早上|早晨|上午|中午|下午|傍晚|晚上|夜里|深夜)"), "")
-            .trim()
-
-        if (desc.isEmpty()) {
-            desc = category
-        }
-
-        return if (desc.length > 30) desc.substring(0, 30) else desc
-    }
-
     data class ParsedTransaction(
         val amount: Double,
         val category: String,
         val description: String,
         val isExpense: Boolean,
         val date: Long = System.currentTimeMillis(),
-        val timeDescription: String = ""  // 时间描述，如"昨天中午"
-    )
+        val timeDescription: String = "",  // 时间描述，如"昨天中午"
+        val tier: ParseStats.Tier = ParseStats.Tier.LOCAL,  // 给出结果的解析层
+        val confidence: Double = 1.0       // 本地解析的置信度，大模型结果为1
+    ) {
+        fun toTransaction(): Transaction = Transaction(
+            amount = amount,
+            type = if (isExpense) TransactionType.EXPENSE else TransactionType.INCOME,
+            category = category,
+            description = description,
+            date = date,
+            aiParsed = true
+        )
+    }
 }
@@ -5,6 +5,8 @@ import android.media.AudioFormat
 import android.media.AudioRecord
 import android.media.MediaRecorder
 import android.util.Log
+import com.ai.bookkeeping.network.HttpClientProvider
+import com.ai.bookkeeping.util.WavWriter
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
 import okhttp3.*
@@ -13,9 +15,7 @@ import okhttp3.RequestBody.Companion.asRequestBody
 import okio.ByteString.Companion.toByteString
 import org.json.JSONObject
 import java.io.File
-import java.io.FileOutputStream
 import java.io.IOException
-import java.util.concurrent.TimeUnit
 
 /**
  * ASR 语音识别服务
@@ -41,11 +41,7 @@ object ASRService {
     private var isRecording = false
     private var recordingThread: Thread? = null
 
-    private val client = OkHttpClient.Builder()
-        .connectTimeout(30, TimeUnit.SECONDS)
-        .readTimeout(60, TimeUnit.SECONDS)
-        .writeTimeout(60, TimeUnit.SECONDS)
-        .build()
+    private val client = HttpClientProvider.client
 
     // 回调接口
     var onResult: ((text: String, isFinal: Boolean) -> Unit)? = null
@@ -119,32 +115,24 @@ object ASRService {
             }
 
             val audioFile = File(context.cacheDir, "voice_${System.currentTimeMillis()}.wav")
-            val outputStream = FileOutputStream(audioFile)
-            val buffer = ByteArray(bufferSize)
-            val audioData = mutableListOf<Byte>()
 
-            isRecording = true
-            audioRecord?.startRecording()
-            onStateChange?.invoke(RecordingState.RECORDING)
-
-            val startTime = System.currentTimeMillis()
-            while (isRecording && (System.currentTimeMillis() - startTime) < durationMs) {
-                val read = audioRecord?.read(buffer, 0, bufferSize) ?: 0
-                if (read > 0) {
-                    for (i in 0 until read) {
-                        audioData.add(buffer[i])
-                    }
-                }
-            }
+            // 边录边写入文件，不在内存中累积整段录音
+            WavWriter(audioFile, SAMPLE_RATE, 1, bufferSize).use { writer ->
+                isRecording = true
+                audioRecord?.startRecording()
+                onStateChange?.invoke(RecordingState.RECORDING)
 
-            audioRecord?.stop()
-            audioRecord?.release()
-            audioRecord = null
-            isRecording = false
+                val startTime = System.currentTimeMillis()
+                while (isRecording && (System.currentTimeMillis() - startTime) < durationMs) {
+                    val record = audioRecord ?: break
+                    writer.record(record)
+                }
 
-            // 写入 WAV 文件
-            writeWavFile(outputStream, audioData.toByteArray())
-            outputStream.close()
+                audioRecord?.stop()
+                audioRecord?.release()
+                audioRecord = null
+                isRecording = false
+            }
 
             onStateChange?.invoke(RecordingState.PROCESSING)
             Result.success(audioFile)
@@ -181,6 +169,7 @@ object ASRService {
                 onStateChange?.invoke(RecordingState.COMPLETED)
                 Result.success(text)
             } else {
+                response.close()
                 onStateChange?.invoke(RecordingState.ERROR)
                 Result.failure(Exception("转录失败: ${response.code}"))
             }
@@ -222,7 +211,7 @@ object ASRService {
             .url("ws://$serverUrl/asr/stream")
             .build()
 
-        webSocket = client.newWebSocket(request, object : WebSocketListener() {
+        webSocket = HttpClientProvider.streamingClient.newWebSocket(request, object : WebSocketListener() {
             override fun onOpen(ws: WebSocket, response: Response) {
                 Log.d(TAG, "WebSocket 连接成功")
                 // 发送配置
@@ -351,63 +340,6 @@ object ASRService {
         webSocket?.send(endSignal.toString())
     }
 
-    /**
-     * 写入 WAV 文件头
-     */
-    private fun writeWavFile(outputStream: FileOutputStream, audioData: ByteArray) {
-        val totalDataLen = audioData.size + 36
-        val byteRate = SAMPLE_RATE * 1 * 16 / 8
-
-        val header = ByteArray(44)
-        header[0] = 'R'.code.toByte()
-        header[1] = 'I'.code.toByte()
-        header[2] = 'F'.code.toByte()
-        header[3] = 'F'.code.toByte()
-        header[4] = (totalDataLen and 0xff).toByte()
-        header[5] = (totalDataLen shr 8 and 0xff).toByte()
-        header[6] = (totalDataLen shr 16 and 0xff).toByte()
-        header[7] = (totalDataLen shr 24 and 0xff).toByte()
-        header[8] = 'W'.code.toByte()
-        header[9] = 'A'.code.toByte()
-        header[10] = 'V'.code.toByte()
-        header[11] = 'E'.code.toByte()
-        header[12] = 'f'.code.toByte()
-        header[13] = 'm'.code.toByte()
-        header[14] = 't'.code.toByte()
-        header[15] = ' '.code.toByte()
-        header[16] = 16
-        header[17] = 0
-        header[18] = 0
-        header[19] = 0
-        header[20] = 1 // PCM
-        header[21] = 0
-        header[22] = 1 // 单声道
-        header[23] = 0
-        header[24] = (SAMPLE_RATE and 0xff).toByte()
-        header[25] = (SAMPLE_RATE shr 8 and 0xff).toByte()
-        header[26] = (SAMPLE_RATE shr 16 and 0xff).toByte()
-        header[27] = (SAMPLE_RATE shr 24 and 0xff).toByte()
-        header[28] = (byteRate and 0xff).toByte()
-        header[29] = (byteRate shr 8 and 0xff).toByte()
-        header[30] = (byteRate shr 16 and 0xff).toByte()
-        header[31] = (byteRate shr 24 and 0xff).toByte()
-        header[32] = 2 // BlockAlign
-        header[33] = 0
-        header[34] = 16 // BitsPerSample
-        header[35] = 0
-        header[36] = 'd'.code.toByte()
-        header[37] = 'a'.code.toByte()
-        header[38] = 't'.code.toByte()
-        header[39] = 'a'.code.toByte()
-        header[40] = (audioData.size and 0xff).toByte()
-        header[41] = (audioData.size shr 8 and 0xff).toByte()
-        header[42] = (audioData.size shr 16 and 0xff).toByte()
-        header[43] = (audioData.size shr 24 and 0xff).toByte()
-
-        outputStream.write(header)
-        outputStream.write(audioData)
-    }
-
     /**
      * 释放资源
      */
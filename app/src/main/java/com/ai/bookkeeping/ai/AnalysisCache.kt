@@ -0,0 +1,83 @@
+package com.ai.bookkeeping.ai
+
+import android.content.Context
+import android.util.Log
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.security.MessageDigest
+
+/**
+ * AI财务分析结果的磁盘缓存
+ *
+ * 键为完整提示词（含收支合计、分类明细、周期和笔数）的 SHA-256，统计数据不变时直接返回上次的分析，
+ * 数据一变键就不同，自然重新请求。每条一个文件，以文件修改时间判断过期，超过条数上限时删除最旧的。
+ */
+object AnalysisCache {
+
+    private const val TAG = "AnalysisCache"
+    private const val DIR_NAME = "ai_analysis"
+    private const val TTL_MILLIS = 24 * 60 * 60 * 1000L
+    private const val MAX_ENTRIES = 32
+
+    fun keyOf(vararg parts: String): String {
+        val digest = MessageDigest.getInstance("SHA-256")
+        for (part in parts) {
+            digest.update(part.toByteArray(Charsets.UTF_8))
+            digest.update(0)  // 分隔，避免不同切分得到相同输入
+        }
+        return digest.digest().joinToString("") { "%02x".format(it) }
+    }
+
+    /**
+     * @return 未缓存或已过期时返回null
+     */
+    suspend fun get(context: Context, key: String): String? = withContext(Dispatchers.IO) {
+        val file = File(directory(context), key)
+        if (!file.exists()) return@withContext null
+        if (System.currentTimeMillis() - file.lastModified() > TTL_MILLIS) {
+            file.delete()
+            return@withContext null
+        }
+        try {
+            file.readText()
+        } catch (e: Exception) {
+            Log.e(TAG, "读取分析缓存失败", e)
+            null
+        }
+    }
+
+    suspend fun put(context: Context, key: String, analysis: String) = withContext(Dispatchers.IO) {
+        val dir = directory(context)
+        try {
+            // 先写临时文件再改名，中途被杀不会留下半截内容
+            val temp = File(dir, "$key.tmp")
+            temp.writeText(analysis)
+            temp.renameTo(File(dir, key))
+            evict(dir)
+        } catch (e: Exception) {
+            Log.e(TAG, "写入分析缓存失败", e)
+        }
+    }
+
+    fun clear(context: Context) {
+        directory(context).listFiles()?.forEach { it.delete() }
+    }
+
+    /**
+     * 删除过期条目，超过上限时从最旧的开始删除
+     */
+    private fun evict(dir: File) {
+        val now = System.currentTimeMillis()
+        val files = dir.listFiles()?.filter { !it.name.endsWith(".tmp") } ?: return
+        val alive = files.filter { now - it.lastModified() <= TTL_MILLIS || !it.delete() }
+        if (alive.size <= MAX_ENTRIES) return
+        alive.sortedBy { it.lastModified() }
+            .take(alive.size - MAX_ENTRIES)
+            .forEach { it.delete() }
+    }
+
+    private fun directory(context: Context): File {
+        return File(context.cacheDir, DIR_NAME).apply { mkdirs() }
+    }
+}
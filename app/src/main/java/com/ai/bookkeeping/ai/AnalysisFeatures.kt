@@ -0,0 +1,287 @@
+package com.ai.bookkeeping.ai
+
+import com.ai.bookkeeping.data.AppDatabase
+import com.ai.bookkeeping.data.BudgetCategoryInfo
+import com.ai.bookkeeping.model.Transaction
+import com.ai.bookkeeping.model.TransactionType
+import com.ai.bookkeeping.util.AIParser
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import java.util.Calendar
+import kotlin.math.abs
+import kotlin.math.roundToLong
+
+/**
+ * AI财务分析用的本地特征摘要
+ *
+ * 对统计周期及其之前的交易分页扫描一遍，同时累计：与上一个等长周期的对比、分类变化、常见商户、
+ * 星期和时段分布、周期性支出、本月预算执行情况。结果压缩为几行文字附在分析提示词后，
+ * 每一项都只取前几名，提示词长度与交易笔数无关；模型一次拿到足够的信息，用户不必反复追问。
+ */
+object AnalysisFeatures {
+
+    private const val PAGE_SIZE = 500
+
+    private const val TOP_CATEGORY_CHANGES = 5
+    private const val TOP_MERCHANTS = 5
+    private const val MAX_RECURRING = 5
+    private const val MAX_BUDGETS = 5
+
+    // 周期性支出：最近3个自然月中至少2个月出现同一描述、同一金额的支出
+    private const val RECURRING_LOOKBACK_MONTHS = 3
+    private const val RECURRING_MIN_MONTHS = 2
+
+    // 预算使用达到80%或按当前进度月底会超支时列出
+    private const val BUDGET_WARN_RATIO = 0.8
+
+    private const val DAY_MILLIS = 24 * 60 * 60 * 1000L
+    private val WEEKDAY_NAMES = arrayOf("日", "一", "二", "三", "四", "五", "六")
+
+    private class Merchant {
+        var total = 0.0
+        var count = 0
+    }
+
+    /**
+     * 扫描过程中的累计值
+     */
+    private class Accumulator(
+        val start: Long,
+        val previousStart: Long,
+        val recurringStart: Long,
+        val monthStart: Long
+    ) {
+        var previousIncome = 0.0
+        var previousExpense = 0.0
+        var currentExpense = 0.0
+        val currentByCategory = HashMap<String, Double>()
+        val previousByCategory = HashMap<String, Double>()
+        val merchants = HashMap<String, Merchant>()
+        val byWeekday = DoubleArray(7)
+        val byHour = DoubleArray(24)
+        val recurringMonths = HashMap<String, MutableSet<Int>>()
+        var monthExpense = 0.0
+        val monthByCategory = HashMap<String, Double>()
+    }
+
+    /**
+     * @return 特征摘要，每项一行；没有可用数据时为空串
+     */
+    suspend fun summarize(database: AppDatabase, start: Long, end: Long): String = withContext(Dispatchers.Default) {
+        val calendar = Calendar.getInstance()
+        calendar.timeInMillis = end
+        calendar.set(Calendar.DAY_OF_MONTH, 1)
+        calendar.set(Calendar.HOUR_OF_DAY, 0)
+        calendar.set(Calendar.MINUTE, 0)
+        calendar.set(Calendar.SECOND, 0)
+        calendar.set(Calendar.MILLISECOND, 0)
+        val monthStart = calendar.timeInMillis
+        val year = calendar.get(Calendar.YEAR)
+        val month = calendar.get(Calendar.MONTH) + 1
+        calendar.add(Calendar.MONTH, 1)
+        val monthEnd = calendar.timeInMillis
+        calendar.add(Calendar.MONTH, -RECURRING_LOOKBACK_MONTHS)
+        val recurringStart = calendar.timeInMillis
+
+        // 预算进度按周期结束那天的日末计算，不取当前时间：同一天内摘要不变，提示词缓存才能命中
+        calendar.timeInMillis = end
+        calendar.set(Calendar.HOUR_OF_DAY, 0)
+        calendar.set(Calendar.MINUTE, 0)
+        calendar.set(Calendar.SECOND, 0)
+        calendar.set(Calendar.MILLISECOND, 0)
+        calendar.add(Calendar.DAY_OF_MONTH, 1)
+        val budgetAsOf = minOf(calendar.timeInMillis, monthEnd)
+
+        val acc = Accumulator(start, start - (end - start), recurringStart, monthStart)
+
+        // 一次键集分页扫描覆盖所有特征需要的时间范围
+        val dao = database.transactionDao()
+        var afterDate = minOf(acc.previousStart, recurringStart, monthStart) - 1
+        var afterId = Long.MAX_VALUE
+        while (true) {
+            val page = dao.getTransactionsPage(afterDate, afterId, end, PAGE_SIZE)
+            if (page.isEmpty()) break
+            for (transaction in page) {
+                accumulate(acc, transaction, calendar)
+            }
+            afterDate = page.last().date
+            afterId = page.last().id
+        }
+
+        val notebookId = database.notebookDao().getDefaultNotebook()?.id ?: 1
+        val budgets = database.budgetDao().getBudgetsWithCategory(notebookId, year, month)
+
+        buildString {
+            appendComparison(acc)
+            appendCategoryChanges(acc)
+            appendMerchants(acc)
+            if (end - start >= 7 * DAY_MILLIS) appendWeekdays(acc)
+            appendHours(acc)
+            appendRecurring(acc)
+            appendBudgets(acc, budgets, month, budgetAsOf, monthEnd)
+        }.trimEnd()
+    }
+
+    private fun accumulate(acc: Accumulator, transaction: Transaction, calendar: Calendar) {
+        val date = transaction.date
+        val amount = transaction.amount
+        val expense = transaction.type == TransactionType.EXPENSE
+
+        // 没写描述时描述就是分类名，不算商户，也不参与周期性支出的判断
+        val merchant = transaction.description.trim().takeIf { it.isNotEmpty() && it != transaction.category }
+
+        if (date >= acc.start) {
+            if (expense) {
+                acc.currentExpense += amount
+                acc.currentByCategory.merge(transaction.category, amount, Double::plus)
+                if (merchant != null) {
+                    val stats = acc.merchants.getOrPut(merchant) { Merchant() }
+                    stats.total += amount
+                    stats.count++
+                }
+
+                calendar.timeInMillis = date
+                acc.byWeekday[calendar.get(Calendar.DAY_OF_WEEK) - 1] += amount
+                acc.byHour[calendar.get(Calendar.HOUR_OF_DAY)] += amount
+            }
+        } else if (date >= acc.previousStart) {
+            if (expense) {
+                acc.previousExpense += amount
+                acc.previousByCategory.merge(transaction.category, amount, Double::plus)
+            } else {
+                acc.previousIncome += amount
+            }
+        }
+
+        if (!expense) return
+
+        if (merchant != null && date >= acc.recurringStart) {
+            calendar.timeInMillis = date
+            val monthIndex = calendar.get(Calendar.YEAR) * 12 + calendar.get(Calendar.MONTH)
+            val key = "$merchant|${amount.roundToLong()}"
+            acc.recurringMonths.getOrPut(key) { HashSet(4) }.add(monthIndex)
+        }
+
+        if (date >= acc.monthStart) {
+            acc.monthExpense += amount
+            acc.monthByCategory.merge(transaction.category, amount, Double::plus)
+        }
+    }
+
+    private fun StringBuilder.appendComparison(acc: Accumulator) {
+        if (acc.previousExpense <= 0 && acc.previousIncome <= 0) return
+        append("【与上一等长周期相比】上期收入${money(acc.previousIncome)}，支出${money(acc.previousExpense)}")
+        if (acc.previousExpense > 0) append("；本期支出${percentChange(acc.currentExpense, acc.previousExpense)}")
+        appendLine()
+    }
+
+    private fun StringBuilder.appendCategoryChanges(acc: Accumulator) {
+        if (acc.previousByCategory.isEmpty()) return
+        val changes = (acc.currentByCategory.keys + acc.previousByCategory.keys)
+            .map { category ->
+                val current = acc.currentByCategory[category] ?: 0.0
+                val previous = acc.previousByCategory[category] ?: 0.0
+                Triple(category, current - previous, previous)
+            }
+            .filter { abs(it.second) >= 1 }
+            .sortedByDescending { abs(it.second) }
+            .take(TOP_CATEGORY_CHANGES)
+        if (changes.isEmpty()) return
+
+        append("【分类变化】")
+        appendLine(changes.joinToString("；") { (category, delta, previous) ->
+            val sign = if (delta >= 0) "+" else "-"
+            val percent = if (previous > 0) "(${percentChange(previous + delta, previous)})" else "(新增)"
+            "$category $sign${money(abs(delta))}$percent"
+        })
+    }
+
+    private fun StringBuilder.appendMerchants(acc: Accumulator) {
+        val top = acc.merchants.entries
+            .sortedByDescending { it.value.total }
+            .take(TOP_MERCHANTS)
+        if (top.isEmpty()) return
+        append("【常见商户】")
+        appendLine(top.joinToString("；") { (name, stats) -> "$name ${money(stats.total)}/${stats.count}笔" })
+    }
+
+    private fun StringBuilder.appendWeekdays(acc: Accumulator) {
+        if (acc.currentExpense <= 0) return
+        append("【星期支出占比】")
+        // 从周一开始
+        appendLine((1..7).joinToString(" ") { i ->
+            val day = i % 7
+            "${WEEKDAY_NAMES[day]}${share(acc.byWeekday[day], acc.currentExpense)}"
+        })
+    }
+
+    private fun StringBuilder.appendHours(acc: Accumulator) {
+        if (acc.currentExpense <= 0) return
+        val byPeriod = LinkedHashMap<String, Double>()
+        for (hour in 0 until 24) {
+            if (acc.byHour[hour] > 0) byPeriod.merge(AIParser.getTimeOfDayName(hour), acc.byHour[hour], Double::plus)
+        }
+        append("【时段支出占比】")
+        appendLine(byPeriod.entries.joinToString(" ") { (name, amount) -> "$name${share(amount, acc.currentExpense)}" })
+    }
+
+    private fun StringBuilder.appendRecurring(acc: Accumulator) {
+        val recurring = acc.recurringMonths.entries
+            .filter { it.value.size >= RECURRING_MIN_MONTHS }
+            .map { (key, months) ->
+                val separator = key.lastIndexOf('|')
+                Triple(key.substring(0, separator), key.substring(separator + 1).toLong(), months.size)
+            }
+            .sortedByDescending { it.second }
+            .take(MAX_RECURRING)
+        if (recurring.isEmpty()) return
+        append("【疑似周期性支出】")
+        appendLine(recurring.joinToString("；") { (name, amount, months) ->
+            "$name ￥$amount（近${RECURRING_LOOKBACK_MONTHS}个月中${months}个月）"
+        })
+    }
+
+    private fun StringBuilder.appendBudgets(
+        acc: Accumulator,
+        budgets: List<BudgetCategoryInfo>,
+        month: Int,
+        asOf: Long,
+        monthEnd: Long
+    ) {
+        // 到 asOf 为止月内已过去的比例，用于估算月底支出
+        val elapsed = ((asOf - acc.monthStart).toDouble() / (monthEnd - acc.monthStart)).coerceIn(0.01, 1.0)
+
+        val lines = budgets
+            .filter { it.amount > 0 }
+            .mapNotNull { budget ->
+                val used = if (budget.categoryId == null) {
+                    acc.monthExpense
+                } else {
+                    acc.monthByCategory[budget.categoryName] ?: 0.0
+                }
+                val projected = used / elapsed
+                if (used < budget.amount * BUDGET_WARN_RATIO && projected <= budget.amount) return@mapNotNull null
+
+                val name = budget.categoryName ?: "总预算"
+                val status = when {
+                    used > budget.amount -> "已超支"
+                    projected > budget.amount -> "按当前进度月底约${money(projected)}，将超支"
+                    else -> "接近上限"
+                }
+                "$name ${money(budget.amount)} 已用${share(used, budget.amount)}，$status"
+            }
+            .take(MAX_BUDGETS)
+        if (lines.isEmpty()) return
+        append("【${month}月预算】")
+        appendLine(lines.joinToString("；"))
+    }
+
+    private fun money(amount: Double): String = "￥${amount.roundToLong()}"
+
+    private fun share(part: Double, total: Double): String = "${(part / total * 100).roundToLong()}%"
+
+    private fun percentChange(current: Double, previous: Double): String {
+        val change = (current - previous) / previous * 100
+        return (if (change >= 0) "+" else "") + "${change.roundToLong()}%"
+    }
+}
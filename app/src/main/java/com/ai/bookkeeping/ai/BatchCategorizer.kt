@@ -0,0 +1,122 @@
+package com.ai.bookkeeping.ai
+
+import android.content.Context
+import android.util.Log
+import androidx.room.withTransaction
+import com.ai.bookkeeping.data.AppDatabase
+import com.ai.bookkeeping.model.Category
+import com.ai.bookkeeping.model.Transaction
+import com.ai.bookkeeping.model.TransactionType
+import com.ai.bookkeeping.util.CategoryClassifier
+import com.ai.bookkeeping.util.NaiveBayesClassifier
+import org.json.JSONArray
+
+/**
+ * 批量分类
+ *
+ * 把一批交易合成一个请求交给大模型，要求返回JSON数组；校验后在同一个数据库事务中写回，
+ * 并同步更新本地分类模型。供批量重新分类和离线补全任务共用。
+ */
+object BatchCategorizer {
+
+    private const val TAG = "BatchCategorizer"
+
+    // 每个请求包含的交易条数
+    const val BATCH_SIZE = 50
+
+    /**
+     * @return 实际更新的条数；请求失败时返回失败
+     */
+    suspend fun categorize(
+        context: Context,
+        database: AppDatabase,
+        batch: List<Transaction>,
+        maxAttempts: Int
+    ): Result<Int> {
+        if (batch.isEmpty()) return Result.success(0)
+
+        val categoryDao = database.categoryDao()
+        val categories = TransactionType.values().associateWith { type ->
+            categoryDao.getParentCategoriesSync(type)
+                .filter { it.name != CategoryClassifier.DEFAULT_CATEGORY }
+                .associateBy { it.name }
+        }
+
+        return AIService.chat(
+            template = PromptTemplates.CATEGORIZE,
+            message = buildPrompt(batch, categories),
+            context = context,
+            maxAttempts = maxAttempts
+        ).map { answer ->
+            apply(database, batch, parseAnswer(answer, batch, categories))
+        }
+    }
+
+    private fun buildPrompt(batch: List<Transaction>, categories: Map<TransactionType, Map<String, Category>>): String {
+        val records = buildString {
+            batch.forEachIndexed { index, transaction ->
+                val type = if (transaction.type == TransactionType.EXPENSE) "支出" else "收入"
+                appendLine("$index|$type|${transaction.amount}|${transaction.description}|${transaction.note}")
+            }
+        }
+        return PromptTemplates.categorizeInput(
+            categories.getValue(TransactionType.EXPENSE).keys,
+            categories.getValue(TransactionType.INCOME).keys,
+            records
+        )
+    }
+
+    /**
+     * 解析并校验模型的回答：序号必须在本批范围内，分类必须是该记录类型下已有的分类
+     * @return 序号 -> 分类
+     */
+    private fun parseAnswer(
+        answer: String,
+        batch: List<Transaction>,
+        categories: Map<TransactionType, Map<String, Category>>
+    ): Map<Int, Category> {
+        val json = answer.trim()
+            .removePrefix("```json")
+            .removePrefix("```")
+            .removeSuffix("```")
+            .trim()
+        val items = try {
+            JSONArray(json)
+        } catch (e: Exception) {
+            Log.w(TAG, "无法解析批量分类结果: $answer")
+            return emptyMap()
+        }
+
+        val result = HashMap<Int, Category>()
+        for (i in 0 until items.length()) {
+            val item = items.optJSONObject(i) ?: continue
+            val index = item.optInt("i", -1)
+            if (index !in batch.indices) continue
+            val category = categories.getValue(batch[index].type)[item.optString("category")] ?: continue
+            result[index] = category
+        }
+        return result
+    }
+
+    /**
+     * 在一个事务中写回分类，返回实际更新的条数
+     * 只更新分类仍与读取时相同的记录，不覆盖用户期间的修改
+     */
+    private suspend fun apply(database: AppDatabase, batch: List<Transaction>, answers: Map<Int, Category>): Int {
+        val changed = ArrayList<Pair<Transaction, Transaction>>(answers.size)
+        database.withTransaction {
+            val dao = database.transactionDao()
+            for ((index, category) in answers) {
+                val old = batch[index]
+                if (old.category == category.name) continue
+                if (dao.updateCategory(old.id, old.category, category.name, category.id) > 0) {
+                    changed.add(old to old.copy(category = category.name, categoryId = category.id))
+                }
+            }
+        }
+        for ((old, new) in changed) {
+            NaiveBayesClassifier.relearn(old, new)
+        }
+        return changed.size
+    }
+}
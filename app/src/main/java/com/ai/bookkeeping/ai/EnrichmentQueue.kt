@@ -0,0 +1,53 @@
+package com.ai.bookkeeping.ai
+
+import android.content.Context
+import android.util.Log
+import com.ai.bookkeeping.data.AppDatabase
+import com.ai.bookkeeping.model.EnrichmentTask
+import com.ai.bookkeeping.model.Transaction
+import com.ai.bookkeeping.util.CategoryClassifier
+import com.ai.bookkeeping.worker.EnrichmentWorker
+
+/**
+ * 离线补全队列
+ *
+ * 记账时只做本地解析，不等网络。本地未能确定分类（"其他"）的AI记账记录写入 enrichment_queue 表，
+ * 由 [EnrichmentWorker] 在联网且电量充足时批量交给大模型重新分类，原地更新交易。
+ */
+object EnrichmentQueue {
+
+    private const val TAG = "EnrichmentQueue"
+
+    private lateinit var appContext: Context
+
+    @Volatile
+    private var database: AppDatabase? = null
+
+    fun init(context: Context, database: AppDatabase) {
+        appContext = context.applicationContext
+        this.database = database
+    }
+
+    /**
+     * 新记录入库后调用，[ids] 与 [transactions] 一一对应
+     */
+    suspend fun add(ids: List<Long>, transactions: List<Transaction>) {
+        val db = database ?: return
+        if (!AIService.hasApiKey(appContext)) return
+
+        val tasks = ArrayList<EnrichmentTask>()
+        transactions.forEachIndexed { index, transaction ->
+            if (transaction.aiParsed && transaction.category == CategoryClassifier.DEFAULT_CATEGORY) {
+                tasks.add(EnrichmentTask(transactionId = ids[index]))
+            }
+        }
+        if (tasks.isEmpty()) return
+
+        try {
+            db.enrichmentTaskDao().insertAll(tasks)
+            EnrichmentWorker.enqueue(appContext)
+        } catch (e: Exception) {
+            Log.e(TAG, "加入补全队列失败", e)
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.ai.bookkeeping.ai
+
+/**
+ * 大模型服务商
+ * 只要求兼容 OpenAI 的 chat/completions 接口，请求格式相同，只有地址、模型和密钥不同
+ */
+interface LlmProvider {
+    val id: String
+    val name: String
+
+    /** chat/completions 接口的完整地址 */
+    val endpoint: String
+    val model: String
+
+    /** 自建服务可以不需要密钥，此时为空串 */
+    val apiKey: String
+}
+
+/**
+ * 兼容 OpenAI 接口的服务商
+ */
+data class OpenAiCompatibleProvider(
+    override val id: String,
+    override val name: String,
+    override val endpoint: String,
+    override val model: String,
+    override val apiKey: String
+) : LlmProvider
@@ -0,0 +1,261 @@
+package com.ai.bookkeeping.ai
+
+import android.content.Context
+import android.os.SystemClock
+import com.ai.bookkeeping.network.CircuitBreaker
+import com.ai.bookkeeping.network.LatencyTracker
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * 大模型服务商路由
+ *
+ * 按设置得到已配置的服务商（DeepSeek、硅基流动、自建服务），记录每家最近请求的延迟和错误率，
+ * 每家有各自的熔断器。每次请求按以下顺序选择服务商：
+ * 1. 已有足够样本且健康的服务商，按延迟中位数从低到高
+ * 2. 样本不足的服务商，按设置中的顺序
+ * 3. 最近一次请求失败或错误率过高的服务商，第一次失败就降级，成功一次后恢复
+ * 4. 熔断中的服务商，冷却结束后由熔断器放行探测请求
+ * 调用方在某家暂时性失败后，同一次尝试内换下一家；某家熔断不影响其他服务商。
+ * 开启对冲时，主请求超过其95分位延迟仍未返回，向次优服务商再发一次，取先成功的结果。
+ */
+object LlmRouter {
+
+    private const val PREFS_NAME = "ai_settings"
+    private const val KEY_SILICONFLOW_API_KEY = "siliconflow_api_key"
+    private const val KEY_CUSTOM_URL = "custom_llm_url"
+    private const val KEY_CUSTOM_MODEL = "custom_llm_model"
+    private const val KEY_CUSTOM_API_KEY = "custom_llm_api_key"
+    private const val KEY_HEDGING = "llm_hedging"
+
+    private const val DEEPSEEK_URL = "https://api.deepseek.com/chat/completions"
+    private const val DEEPSEEK_MODEL = "deepseek-chat"
+    private const val SILICONFLOW_URL = "https://api.siliconflow.cn/v1/chat/completions"
+    private const val SILICONFLOW_MODEL = "deepseek-ai/DeepSeek-V3"
+    private const val CHAT_COMPLETIONS_PATH = "/chat/completions"
+
+    // 样本数达到此值后才按延迟排序和判断错误率
+    private const val MIN_SAMPLES = 3
+    private const val MAX_ERROR_RATE = 0.5
+
+    // 每家服务商连续3次失败后熔断30秒
+    private const val FAILURE_THRESHOLD = 3
+    private const val COOLDOWN_MILLIS = 30_000L
+
+    // 排序的层级，见类注释
+    private const val TIER_MEASURED = 0
+    private const val TIER_UNKNOWN = 1
+    private const val TIER_DEGRADED = 2
+    private const val TIER_OPEN = 3
+
+    /**
+     * 除 DeepSeek 密钥（见 [AIService.setApiKey]）之外的服务商设置
+     */
+    data class Settings(
+        val siliconFlowApiKey: String = "",
+        val customUrl: String = "",
+        val customModel: String = "",
+        val customApiKey: String = "",
+        val hedging: Boolean = false
+    )
+
+    /**
+     * 一家服务商的健康状况
+     */
+    private class Health(clock: () -> Long) {
+        val tracker = LatencyTracker(clock = clock)
+        val breaker = CircuitBreaker(FAILURE_THRESHOLD, COOLDOWN_MILLIS, clock)
+
+        @Volatile
+        var consecutiveFailures = 0
+    }
+
+    private val health = ConcurrentHashMap<String, Health>()
+
+    // 单元测试中替换为可控的时钟
+    @Volatile
+    internal var clock: () -> Long = { SystemClock.elapsedRealtime() }
+
+    // 最近一次排序时已配置的服务商，用于汇总熔断状态
+    @Volatile
+    private var configuredIds: List<String> = emptyList()
+
+    private val _circuitState = MutableStateFlow(CircuitBreaker.State.CLOSED)
+
+    /**
+     * 所有服务商汇总的熔断状态：全部熔断时为 OPEN，供界面显示
+     */
+    val circuitState: StateFlow<CircuitBreaker.State> = _circuitState.asStateFlow()
+
+    fun getSettings(context: Context): Settings {
+        val prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+        return Settings(
+            siliconFlowApiKey = prefs.getString(KEY_SILICONFLOW_API_KEY, "") ?: "",
+            customUrl = prefs.getString(KEY_CUSTOM_URL, "") ?: "",
+            customModel = prefs.getString(KEY_CUSTOM_MODEL, "") ?: "",
+            customApiKey = prefs.getString(KEY_CUSTOM_API_KEY, "") ?: "",
+            hedging = prefs.getBoolean(KEY_HEDGING, false)
+        )
+    }
+
+    fun saveSettings(context: Context, settings: Settings) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+            .edit()
+            .putString(KEY_SILICONFLOW_API_KEY, settings.siliconFlowApiKey)
+            .putString(KEY_CUSTOM_URL, settings.customUrl)
+            .putString(KEY_CUSTOM_MODEL, settings.customModel)
+            .putString(KEY_CUSTOM_API_KEY, settings.customApiKey)
+            .putBoolean(KEY_HEDGING, settings.hedging)
+            .apply()
+    }
+
+    /**
+     * 已配置的服务商，按设置中的顺序
+     */
+    fun providers(context: Context): List<LlmProvider> {
+        val settings = getSettings(context)
+        val providers = ArrayList<LlmProvider>(3)
+
+        val deepSeekKey = AIService.getApiKey(context)
+        if (!deepSeekKey.isNullOrEmpty()) {
+            providers.add(OpenAiCompatibleProvider("deepseek", "DeepSeek", DEEPSEEK_URL, DEEPSEEK_MODEL, deepSeekKey))
+        }
+        if (settings.siliconFlowApiKey.isNotEmpty()) {
+            providers.add(
+                OpenAiCompatibleProvider("siliconflow", "硅基流动", SILICONFLOW_URL, SILICONFLOW_MODEL, settings.siliconFlowApiKey)
+            )
+        }
+        if (settings.customUrl.isNotEmpty() && settings.customModel.isNotEmpty()) {
+            providers.add(
+                OpenAiCompatibleProvider("custom", "自建服务", endpointOf(settings.customUrl), settings.customModel, settings.customApiKey)
+            )
+        }
+        return providers
+    }
+
+    /**
+     * 按当前延迟和健康状况排序的服务商，第一个为首选
+     */
+    fun rank(context: Context): List<LlmProvider> = rank(providers(context))
+
+    internal fun rank(providers: List<LlmProvider>): List<LlmProvider> {
+        configuredIds = providers.map { it.id }
+        if (providers.size <= 1) return providers
+
+        // 只有样本足够的健康服务商按延迟排序，其余层级内保持设置中的顺序（排序是稳定的）
+        val tiers = providers.associate { it.id to tier(it, health(it).tracker.snapshot()) }
+        return providers.sortedWith(
+            compareBy<LlmProvider> { tiers.getValue(it.id).first }
+                .thenBy { tiers.getValue(it.id).second }
+        )
+    }
+
+    /**
+     * 请求前调用：该服务商熔断中时返回false，不应发出请求
+     * 返回true后必须以 [record] 或 [release] 结束
+     */
+    fun tryAcquire(provider: LlmProvider): Boolean {
+        val acquired = health(provider).breaker.tryAcquire()
+        updateCircuitState()
+        return acquired
+    }
+
+    /**
+     * 记录一次请求的结果
+     * @param latencyMillis 成功请求的耗时，为null时只计入错误率
+     */
+    fun record(provider: LlmProvider, success: Boolean, latencyMillis: Long? = null) {
+        val health = health(provider)
+        health.tracker.record(success, latencyMillis)
+        if (success) {
+            health.consecutiveFailures = 0
+            health.breaker.onSuccess()
+        } else {
+            health.consecutiveFailures++
+            health.breaker.onFailure()
+        }
+        updateCircuitState()
+    }
+
+    /**
+     * 请求未得出结论（如被取消）时归还熔断器的探测名额
+     */
+    fun release(provider: LlmProvider) {
+        health(provider).breaker.release()
+        updateCircuitState()
+    }
+
+    /**
+     * 所有服务商都熔断时，最早恢复的剩余冷却时间；否则为0
+     */
+    fun circuitCooldownMillis(): Long {
+        if (_circuitState.value != CircuitBreaker.State.OPEN) return 0
+        return configuredIds.mapNotNull { health[it]?.breaker?.remainingCooldownMillis() }.minOrNull() ?: 0
+    }
+
+    /**
+     * 发出对冲请求前等待的时间（主请求服务商的95分位延迟），未开启对冲或样本不足时为-1
+     */
+    fun hedgeDelayMillis(context: Context, provider: LlmProvider): Long {
+        if (!getSettings(context).hedging) return -1
+        val snapshot = health(provider).tracker.snapshot()
+        return if (snapshot.samples >= MIN_SAMPLES) snapshot.p95 else -1
+    }
+
+    /**
+     * 各服务商当前的统计，供设置界面显示
+     */
+    fun stats(context: Context): Map<LlmProvider, LatencyTracker.Snapshot> {
+        return providers(context).associateWith { health(it).tracker.snapshot() }
+    }
+
+    /**
+     * 清空所有统计和熔断状态，供单元测试使用
+     */
+    internal fun reset() {
+        health.clear()
+        configuredIds = emptyList()
+        _circuitState.value = CircuitBreaker.State.CLOSED
+    }
+
+    private fun health(provider: LlmProvider): Health {
+        return health.getOrPut(provider.id) { Health(clock) }
+    }
+
+    /**
+     * @return 层级和层级内的排序依据
+     */
+    private fun tier(provider: LlmProvider, snapshot: LatencyTracker.Snapshot): Pair<Int, Long> {
+        val health = health(provider)
+        return when {
+            health.breaker.state.value != CircuitBreaker.State.CLOSED -> TIER_OPEN to 0L
+            health.consecutiveFailures > 0 -> TIER_DEGRADED to 0L
+            snapshot.samples < MIN_SAMPLES || snapshot.p50 < 0 -> TIER_UNKNOWN to 0L
+            snapshot.errorRate > MAX_ERROR_RATE -> TIER_DEGRADED to 0L
+            else -> TIER_MEASURED to snapshot.p50
+        }
+    }
+
+    private fun updateCircuitState() {
+        val states = configuredIds.mapNotNull { health[it]?.breaker?.state?.value }
+        _circuitState.value = when {
+            states.isEmpty() || states.size < configuredIds.size -> CircuitBreaker.State.CLOSED
+            states.any { it == CircuitBreaker.State.CLOSED } -> CircuitBreaker.State.CLOSED
+            states.all { it == CircuitBreaker.State.OPEN } -> CircuitBreaker.State.OPEN
+            else -> CircuitBreaker.State.HALF_OPEN
+        }
+    }
+
+    /**
+     * 自建服务可以只填主机或 /v1 前缀，补全为 chat/completions 接口地址
+     */
+    private fun endpointOf(url: String): String {
+        var endpoint = url.trim().trimEnd('/')
+        if (!endpoint.startsWith("http://") && !endpoint.startsWith("https://")) {
+            endpoint = "http://$endpoint"
+        }
+        return if (endpoint.endsWith(CHAT_COMPLETIONS_PATH)) endpoint else endpoint + CHAT_COMPLETIONS_PATH
+    }
+}
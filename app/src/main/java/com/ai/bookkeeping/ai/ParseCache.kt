@@ -0,0 +1,98 @@
+package com.ai.bookkeeping.ai
+
+import android.util.Log
+import android.util.LruCache
+import com.ai.bookkeeping.data.AppDatabase
+import com.ai.bookkeeping.data.ParseCacheDao
+import com.ai.bookkeeping.model.ParseCacheEntry
+import com.ai.bookkeeping.model.Transaction
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * 记账解析结果缓存
+ *
+ * 两级缓存：内存LRU在前，parse_cache 表在后。键为去掉金额和日期时间的归一化输入
+ * （见 [com.ai.bookkeeping.util.AIParser.cacheKey]），"早餐15"和"昨天早餐20"共用一条。
+ * 值只保存分类、描述和收支类型，金额和日期每次从本次输入中解析。
+ * 用户修改了由缓存结果生成的交易时，对应条目失效。
+ * 命中时更新表中的命中次数和时间（淘汰按时间进行），内存命中时同一条目每小时最多写一次。
+ */
+object ParseCache {
+
+    private const val TAG = "ParseCache"
+    private const val MEMORY_ENTRIES = 128
+    private const val MAX_STORED_ENTRIES = 1000
+    private const val TOUCH_INTERVAL_MS = 60 * 60 * 1000L
+
+    private val memory = LruCache<String, ParseCacheEntry>(MEMORY_ENTRIES)
+
+    // 各条目最近一次写回表的时间，用于限制内存命中时的写入
+    private val touchedAt = ConcurrentHashMap<String, Long>()
+
+    @Volatile
+    private var dao: ParseCacheDao? = null
+
+    fun init(database: AppDatabase) {
+        dao = database.parseCacheDao()
+    }
+
+    suspend fun get(key: String): ParseCacheEntry? {
+        memory.get(key)?.let { entry ->
+            val last = touchedAt[key] ?: 0L
+            if (System.currentTimeMillis() - last >= TOUCH_INTERVAL_MS) touch(key)
+            return entry
+        }
+
+        val stored = try {
+            dao?.get(key)
+        } catch (e: Exception) {
+            Log.e(TAG, "读取解析缓存失败", e)
+            null
+        } ?: return null
+
+        memory.put(key, stored)
+        touch(key)
+        return stored
+    }
+
+    suspend fun put(key: String, entry: ParseCacheEntry) {
+        memory.put(key, entry)
+        try {
+            dao?.let {
+                it.upsert(entry)
+                it.trim(MAX_STORED_ENTRIES)
+            }
+        } catch (e: Exception) {
+            Log.e(TAG, "写入解析缓存失败", e)
+        }
+    }
+
+    /**
+     * 交易被用户修改（分类、描述或收支类型变化）时，使给出原结果的缓存失效
+     */
+    suspend fun invalidate(old: Transaction, new: Transaction) {
+        if (old.category == new.category && old.description == new.description && old.type == new.type) return
+
+        for ((key, entry) in memory.snapshot()) {
+            if (entry.type == old.type && entry.category == old.category && entry.description == old.description) {
+                memory.remove(key)
+                touchedAt.remove(key)
+            }
+        }
+        try {
+            dao?.deleteByResult(old.type, old.category, old.description)
+        } catch (e: Exception) {
+            Log.e(TAG, "清除解析缓存失败", e)
+        }
+    }
+
+    private suspend fun touch(key: String) {
+        val now = System.currentTimeMillis()
+        touchedAt[key] = now
+        try {
+            dao?.touch(key, now)
+        } catch (e: Exception) {
+            Log.e(TAG, "更新解析缓存失败", e)
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.ai.bookkeeping.ai
+
+import android.content.Context
+
+/**
+ * 记账解析的分层统计
+ * 记录每次解析由哪一层给出结果及耗时，用于衡量本地优先节省的请求次数和延迟
+ */
+object ParseStats {
+
+    private const val PREFS_NAME = "parse_stats"
+
+    /**
+     * 给出解析结果的层
+     */
+    enum class Tier {
+        CACHE,          // 命中解析缓存
+        LOCAL,          // 本地解析置信度足够，未请求大模型
+        LLM,            // 本地置信度不足，由大模型解析
+        LOCAL_FALLBACK  // 大模型请求失败，退回本地结果
+    }
+
+    data class TierStats(
+        val count: Long,
+        val totalMillis: Long
+    ) {
+        val averageMillis: Long get() = if (count > 0) totalMillis / count else 0
+    }
+
+    @Synchronized
+    fun record(context: Context, tier: Tier, elapsedMillis: Long) {
+        val prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+        prefs.edit()
+            .putLong(countKey(tier), prefs.getLong(countKey(tier), 0) + 1)
+            .putLong(millisKey(tier), prefs.getLong(millisKey(tier), 0) + elapsedMillis)
+            .apply()
+    }
+
+    fun snapshot(context: Context): Map<Tier, TierStats> {
+        val prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+        return Tier.values().associateWith { tier ->
+            TierStats(prefs.getLong(countKey(tier), 0), prefs.getLong(millisKey(tier), 0))
+        }
+    }
+
+    fun reset(context: Context) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit().clear().apply()
+    }
+
+    private fun countKey(tier: Tier) = "count_${tier.name.lowercase()}"
+
+    private fun millisKey(tier: Tier) = "millis_${tier.name.lowercase()}"
+}
@@ -0,0 +1,74 @@
+package com.ai.bookkeeping.ai
+
+/**
+ * 提示词模板
+ *
+ * 每个模板的系统提示词完全固定（角色、规则、输出格式），日期、用户文本、统计数据等可变内容
+ * 只出现在最后的用户消息中。同一模板的请求前缀逐字相同，可以命中服务端的前缀缓存；
+ * 规则尽量写得紧凑，减少每次请求重复发送的内容。
+ */
+object PromptTemplates {
+
+    /**
+     * @param name 用于按模板统计token用量（见 [TokenStats]）
+     * @param system 固定的系统提示词
+     * @param temperature 只输出JSON的模板取低值，结果稳定、便于缓存
+     * @param maxTokens 生成长度上限，按该模板输出的最大长度留余量；限制跑偏的输出拖长延迟和费用
+     */
+    class Template(
+        val name: String,
+        val system: String,
+        val temperature: Double = 0.7,
+        val maxTokens: Int = 2000
+    )
+
+    /**
+     * 记账文本解析
+     */
+    val PARSE = Template(
+        name = "parse",
+        system = """你是记账解析器，把用户的记账文本解析为JSON，只输出JSON。
+格式：{"amount":数字,"category":"分类","description":"简短描述","type":"expense或income","date_offset":整数,"hour":整数,"minute":整数,"time_desc":"如昨天中午"}
+date_offset：今天/今日0，昨天/昨日-1，前天-2，大前天-3，上周-7，未提及0。
+hour：早上/早餐7，上午10，中午/午餐/午饭12，下午15，傍晚18，晚上/晚餐/晚饭19，宵夜/夜宵22，未提及-1；minute未提及0。
+分类：餐饮、交通、购物、娱乐、医疗、教育、居住、通讯、服饰、工资、奖金、投资、兼职、红包、其他""",
+        temperature = 0.1,
+        maxTokens = 200
+    )
+
+    fun parseInput(today: String, input: String): String = "今天：$today\n文本：$input"
+
+    /**
+     * 批量分类
+     */
+    val CATEGORIZE = Template(
+        name = "categorize",
+        system = """你是记账分类助手，根据描述和备注为每条记录选择最合适的分类，只输出JSON数组。
+格式：[{"i":序号,"category":"分类"}]，每条记录一项。
+分类必须取自该记录类型（支出/收入）的分类列表，无法判断时填"其他"。""",
+        temperature = 0.1,
+        // 每条约15个token，按一批 [BatchCategorizer.BATCH_SIZE] 条留余量
+        maxTokens = 1200
+    )
+
+    /**
+     * @param records 每行一条，"序号|类型|金额|描述|备注"
+     */
+    fun categorizeInput(expenseCategories: Collection<String>, incomeCategories: Collection<String>, records: String): String {
+        return "支出分类：${expenseCategories.joinToString("、")}\n" +
+                "收入分类：${incomeCategories.joinToString("、")}\n" +
+                "记录（序号|类型|金额|描述|备注）：\n$records"
+    }
+
+    /**
+     * 财务分析
+     */
+    val ANALYSIS = Template(
+        name = "analysis",
+        system = """你是专业的个人财务分析师，根据用户的收支数据给出具体、可操作的建议。
+依次分析：1.整体收支状况 2.消费结构 3.潜在的节省空间 4.理财建议 5.下一步行动。
+数据中可能附有本地统计的环比变化、常见商户、消费的星期和时段分布、周期性支出和预算执行情况，请结合这些信息给出具体判断。
+关注收支平衡，识别可能的过度消费，建议要实际可行并兼顾生活质量。
+语气友好专业，可适当使用emoji。"""
+    )
+}
@@ -0,0 +1,43 @@
+package com.ai.bookkeeping.ai
+
+import okio.BufferedSource
+
+/**
+ * 服务器推送事件（SSE）的增量读取器
+ *
+ * 按行读取响应体，把同一事件的多行 data 拼接后返回；注释行和 event、id 等字段忽略。
+ * 每读到一个完整事件就返回，不等待整个响应结束。
+ */
+class SseEventReader(private val source: BufferedSource) {
+
+    private val data = StringBuilder()
+
+    /**
+     * 读取下一个事件的数据，阻塞直到事件完整到达
+     * @return 响应结束时返回null
+     */
+    fun next(): String? {
+        data.setLength(0)
+        var hasData = false
+        while (true) {
+            val line = source.readUtf8Line() ?: return if (hasData) data.toString() else null
+
+            // 空行表示一个事件结束
+            if (line.isEmpty()) {
+                if (hasData) return data.toString()
+                continue
+            }
+            if (line.startsWith(":")) continue
+
+            val colon = line.indexOf(':')
+            val field = if (colon < 0) line else line.substring(0, colon)
+            if (field != "data") continue
+
+            var value = if (colon < 0) "" else line.substring(colon + 1)
+            if (value.startsWith(" ")) value = value.substring(1)
+            if (hasData) data.append('\n')
+            data.append(value)
+            hasData = true
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.ai.bookkeeping.ai
+
+import android.content.Context
+import org.json.JSONObject
+
+/**
+ * 大模型token用量统计
+ * 按提示词模板累计请求数、提示词token（其中命中前缀缓存的部分）和生成token，
+ * 用于衡量提示词改动对成本和延迟的影响
+ */
+object TokenStats {
+
+    private const val PREFS_NAME = "token_stats"
+    private const val KEY_TAGS = "tags"
+
+    data class Usage(
+        val requests: Long,
+        val promptTokens: Long,
+        val cachedPromptTokens: Long,
+        val completionTokens: Long
+    ) {
+        val averagePromptTokens: Long get() = if (requests > 0) promptTokens / requests else 0
+        val averageCompletionTokens: Long get() = if (requests > 0) completionTokens / requests else 0
+    }
+
+    /**
+     * 记录一次响应中的 usage 字段
+     */
+    @Synchronized
+    fun record(context: Context, tag: String, usage: JSONObject) {
+        // DeepSeek 返回 prompt_cache_hit_tokens，OpenAI 兼容接口返回 prompt_tokens_details.cached_tokens
+        val cached = if (usage.has("prompt_cache_hit_tokens")) {
+            usage.optLong("prompt_cache_hit_tokens")
+        } else {
+            usage.optJSONObject("prompt_tokens_details")?.optLong("cached_tokens") ?: 0
+        }
+
+        val prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+        val tags = prefs.getStringSet(KEY_TAGS, emptySet())!!
+        prefs.edit()
+            .putStringSet(KEY_TAGS, tags + tag)
+            .putLong(key(tag, "requests"), prefs.getLong(key(tag, "requests"), 0) + 1)
+            .putLong(key(tag, "prompt"), prefs.getLong(key(tag, "prompt"), 0) + usage.optLong("prompt_tokens"))
+            .putLong(key(tag, "cached"), prefs.getLong(key(tag, "cached"), 0) + cached)
+            .putLong(key(tag, "completion"), prefs.getLong(key(tag, "completion"), 0) + usage.optLong("completion_tokens"))
+            .apply()
+    }
+
+    fun snapshot(context: Context): Map<String, Usage> {
+        val prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+        return prefs.getStringSet(KEY_TAGS, emptySet())!!.associateWith { tag ->
+            Usage(
+                requests = prefs.getLong(key(tag, "requests"), 0),
+                promptTokens = prefs.getLong(key(tag, "prompt"), 0),
+                cachedPromptTokens = prefs.getLong(key(tag, "cached"), 0),
+                completionTokens = prefs.getLong(key(tag, "completion"), 0)
+            )
+        }
+    }
+
+    fun reset(context: Context) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit().clear().apply()
+    }
+
+    private fun key(tag: String, field: String) = "${field}_$tag"
+}
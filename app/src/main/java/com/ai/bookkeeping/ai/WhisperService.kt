@@ -5,6 +5,8 @@ import android.media.AudioFormat
 import android.media.AudioRecord
 import android.media.MediaRecorder
 import android.util.Log
+import com.ai.bookkeeping.network.HttpClientProvider
+import com.ai.bookkeeping.util.WavWriter
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
 import okhttp3.*
@@ -12,8 +14,6 @@ import okhttp3.MediaType.Companion.toMediaType
 import okhttp3.RequestBody.Companion.asRequestBody
 import org.json.JSONObject
 import java.io.File
-import java.io.FileOutputStream
-import java.util.concurrent.TimeUnit
 
 /**
  * Whisper 语音识别服务
@@ -38,11 +38,7 @@ object WhisperService {
     private var audioRecord: AudioRecord? = null
     private var isRecording = false
 
-    private val client = OkHttpClient.Builder()
-        .connectTimeout(30, TimeUnit.SECONDS)
-        .readTimeout(60, TimeUnit.SECONDS)
-        .writeTimeout(60, TimeUnit.SECONDS)
-        .build()
+    private val client = HttpClientProvider.client
 
     // 回调
     var onStateChange: ((RecordingState) -> Unit)? = null
@@ -88,6 +84,13 @@ object WhisperService {
         return !getApiKey(context).isNullOrEmpty()
     }
 
+    /**
+     * 提前建立到识别服务的连接，录音结束上传时免去握手
+     */
+    fun prewarm(context: Context) {
+        if (hasApiKey(context)) HttpClientProvider.prewarm(API_URL)
+    }
+
     /**
      * 录音并转录 - 主要入口方法
      * @param context 上下文
@@ -148,43 +151,25 @@ object WhisperService {
             }
 
             val audioFile = File(context.cacheDir, "whisper_${System.currentTimeMillis()}.wav")
-            val buffer = ByteArray(bufferSize)
-            val audioData = mutableListOf<Byte>()
-
-            isRecording = true
-            audioRecord?.startRecording()
-            onStateChange?.invoke(RecordingState.RECORDING)
-
-            val startTime = System.currentTimeMillis()
-            while (isRecording && (System.currentTimeMillis() - startTime) < maxDurationMs) {
-                val read = audioRecord?.read(buffer, 0, bufferSize) ?: 0
-                if (read > 0) {
-                    // 计算音量
-                    var sum = 0L
-                    for (i in 0 until read step 2) {
-                        if (i + 1 < read) {
-                            val sample = (buffer[i].toInt() and 0xFF) or (buffer[i + 1].toInt() shl 8)
-                            sum += sample * sample
-                        }
-                    }
-                    val amplitude = kotlin.math.sqrt(sum.toDouble() / (read / 2)).toInt()
-                    onAmplitude?.invoke(amplitude)
 
-                    for (i in 0 until read) {
-                        audioData.add(buffer[i])
+            // 边录边写入文件，音量在同一块缓冲区上计算
+            WavWriter(audioFile, SAMPLE_RATE, 1, bufferSize).use { writer ->
+                isRecording = true
+                audioRecord?.startRecording()
+                onStateChange?.invoke(RecordingState.RECORDING)
+
+                val startTime = System.currentTimeMillis()
+                while (isRecording && (System.currentTimeMillis() - startTime) < maxDurationMs) {
+                    val record = audioRecord ?: break
+                    if (writer.record(record) > 0) {
+                        onAmplitude?.invoke(writer.amplitude())
                     }
                 }
-            }
 
-            audioRecord?.stop()
-            audioRecord?.release()
-            audioRecord = null
-            isRecording = false
-
-            // 写入 WAV 文件
-            FileOutputStream(audioFile).use { outputStream ->
-                writeWavHeader(outputStream, audioData.size)
-                outputStream.write(audioData.toByteArray())
+                audioRecord?.stop()
+                audioRecord?.release()
+                audioRecord = null
+                isRecording = false
             }
 
             onStateChange?.invoke(RecordingState.PROCESSING)
@@ -266,75 +251,6 @@ object WhisperService {
      */
     fun isCurrentlyRecording(): Boolean = isRecording
 
-    /**
-     * 写入 WAV 文件头
-     */
-    private fun writeWavHeader(outputStream: FileOutputStream, audioDataLength: Int) {
-        val totalDataLen = audioDataLength + 36
-        val byteRate = SAMPLE_RATE * 1 * 16 / 8
-
-        val header = ByteArray(44)
-        // RIFF header
-        header[0] = 'R'.code.toByte()
-        header[1] = 'I'.code.toByte()
-        header[2] = 'F'.code.toByte()
-        header[3] = 'F'.code.toByte()
-        // File size - 8
-        header[4] = (totalDataLen and 0xff).toByte()
-        header[5] = (totalDataLen shr 8 and 0xff).toByte()
-        header[6] = (totalDataLen shr 16 and 0xff).toByte()
-        header[7] = (totalDataLen shr 24 and 0xff).toByte()
-        // WAVE
-        header[8] = 'W'.code.toByte()
-        header[9] = 'A'.code.toByte()
-        header[10] = 'V'.code.toByte()
-        header[11] = 'E'.code.toByte()
-        // fmt chunk
-        header[12] = 'f'.code.toByte()
-        header[13] = 'm'.code.toByte()
-        header[14] = 't'.code.toByte()
-        header[15] = ' '.code.toByte()
-        // Subchunk1Size (16 for PCM)
-        header[16] = 16
-        header[17] = 0
-        header[18] = 0
-        header[19] = 0
-        // AudioFormat (1 = PCM)
-        header[20] = 1
-        header[21] = 0
-        // NumChannels (1 = Mono)
-        header[22] = 1
-        header[23] = 0
-        // SampleRate
-        header[24] = (SAMPLE_RATE and 0xff).toByte()
-        header[25] = (SAMPLE_RATE shr 8 and 0xff).toByte()
-        header[26] = (SAMPLE_RATE shr 16 and 0xff).toByte()
-        header[27] = (SAMPLE_RATE shr 24 and 0xff).toByte()
-        // ByteRate
-        header[28] = (byteRate and 0xff).toByte()
-        header[29] = (byteRate shr 8 and 0xff).toByte()
-        header[30] = (byteRate shr 16 and 0xff).toByte()
-        header[31] = (byteRate shr 24 and 0xff).toByte()
-        // BlockAlign
-        header[32] = 2
-        header[33] = 0
-        // BitsPerSample
-        header[34] = 16
-        header[35] = 0
-        // data chunk
-        header[36] = 'd'.code.toByte()
-        header[37] = 'a'.code.toByte()
-        header[38] = 't'.code.toByte()
-        header[39] = 'a'.code.toByte()
-        // Data size
-        header[40] = (audioDataLength and 0xff).toByte()
-        header[41] = (audioDataLength shr 8 and 0xff).toByte()
-        header[42] = (audioDataLength shr 16 and 0xff).toByte()
-        header[43] = (audioDataLength shr 24 and 0xff).toByte()
-
-        outputStream.write(header)
-    }
-
     /**
      * 释放资源
      */
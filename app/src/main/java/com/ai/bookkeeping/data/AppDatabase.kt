@@ -5,7 +5,10 @@ import androidx.room.Database
 import androidx.room.Room
 import androidx.room.RoomDatabase
 import androidx.room.TypeConverters
+import androidx.room.migration.Migration
 import androidx.sqlite.db.SupportSQLiteDatabase
+import androidx.sqlite.db.SupportSQLiteOpenHelper
+import androidx.sqlite.db.framework.FrameworkSQLiteOpenHelperFactory
 import com.ai.bookkeeping.model.*
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
@@ -21,9 +24,14 @@ import kotlinx.coroutines.launch
         Account::class,
         Budget::class,
         Notebook::class,
-        Transfer::class
+        Transfer::class,
+        ImportCheckpoint::class,
+        ChangeLog::class,
+        CategoryNgramCount::class,
+        ParseCacheEntry::class,
+        EnrichmentTask::class
     ],
-    version = 4,
+    version = AppDatabase.DATABASE_VERSION,
     exportSchema = false
 )
 @TypeConverters(Converters::class)
@@ -35,30 +43,204 @@ abstract class AppDatabase : RoomDatabase() {
     abstract fun budgetDao(): BudgetDao
     abstract fun notebookDao(): NotebookDao
     abstract fun transferDao(): TransferDao
+    abstract fun importCheckpointDao(): ImportCheckpointDao
+    abstract fun changeLogDao(): ChangeLogDao
+    abstract fun categoryModelDao(): CategoryModelDao
+    abstract fun parseCacheDao(): ParseCacheDao
+    abstract fun enrichmentTaskDao(): EnrichmentTaskDao
 
     companion object {
+        const val DATABASE_NAME = "ai_bookkeeping_database"
+        const val DATABASE_VERSION = 10
+
+        // 不低于此版本的数据库都有完整的迁移路径，可以从备份恢复
+        const val MIN_RESTORABLE_VERSION = 4
+
         @Volatile
         private var INSTANCE: AppDatabase? = null
 
+        // 正在替换数据库文件，期间不允许打开数据库
+        @Volatile
+        private var replacing = false
+
+        /**
+         * 4 -> 5: 新增账单导入断点表
+         */
+        private val MIGRATION_4_5 = object : Migration(4, 5) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    "CREATE TABLE IF NOT EXISTS `import_checkpoints` (" +
+                        "`uriHash` TEXT NOT NULL, `uri` TEXT NOT NULL, `source` TEXT NOT NULL, " +
+                        "`lastRow` INTEGER NOT NULL, `importedCount` INTEGER NOT NULL, " +
+                        "`failedCount` INTEGER NOT NULL, `completed` INTEGER NOT NULL, " +
+                        "`updatedAt` INTEGER NOT NULL, PRIMARY KEY(`uriHash`))"
+                )
+            }
+        }
+
+        /**
+         * 5 -> 6: 交易日期索引（按日期统计和分页导出）
+         */
+        private val MIGRATION_5_6 = object : Migration(5, 6) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_transactions_date` ON `transactions` (`date`)")
+            }
+        }
+
+        /**
+         * 6 -> 7: 变更日志表及触发器（增量备份）
+         */
+        private val MIGRATION_6_7 = object : Migration(6, 7) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    "CREATE TABLE IF NOT EXISTS `change_log` (" +
+                        "`seq` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `table` TEXT NOT NULL, " +
+                        "`rowId` INTEGER NOT NULL, `op` TEXT NOT NULL, `ts` INTEGER NOT NULL)"
+                )
+                createChangeLogTriggers(db)
+            }
+        }
+
+        /**
+         * 7 -> 8: 分类模型计数表（本地朴素贝叶斯分类器）
+         */
+        private val MIGRATION_7_8 = object : Migration(7, 8) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    "CREATE TABLE IF NOT EXISTS `category_ngram_counts` (" +
+                        "`type` TEXT NOT NULL, `category` TEXT NOT NULL, `ngram` TEXT NOT NULL, " +
+                        "`count` INTEGER NOT NULL, PRIMARY KEY(`type`, `category`, `ngram`))"
+                )
+            }
+        }
+
+        /**
+         * 8 -> 9: 解析结果缓存表
+         */
+        private val MIGRATION_8_9 = object : Migration(8, 9) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    "CREATE TABLE IF NOT EXISTS `parse_cache` (" +
+                        "`inputKey` TEXT NOT NULL, `type` TEXT NOT NULL, `category` TEXT NOT NULL, " +
+                        "`description` TEXT NOT NULL, `hitCount` INTEGER NOT NULL, `updatedAt` INTEGER NOT NULL, " +
+                        "PRIMARY KEY(`inputKey`))"
+                )
+            }
+        }
+
+        /**
+         * 9 -> 10: 离线补全队列
+         */
+        private val MIGRATION_9_10 = object : Migration(9, 10) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    "CREATE TABLE IF NOT EXISTS `enrichment_queue` (" +
+                        "`transactionId` INTEGER NOT NULL, `createdAt` INTEGER NOT NULL, `attempts` INTEGER NOT NULL, " +
+                        "PRIMARY KEY(`transactionId`), " +
+                        "FOREIGN KEY(`transactionId`) REFERENCES `transactions`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )"
+                )
+            }
+        }
+
+        // 记录变更日志的表，主键列均为 id
+        val CHANGE_LOG_TABLES = listOf(
+            "transactions", "accounts", "transfers", "budgets", "categories", "notebooks"
+        )
+
+        /**
+         * 为每张业务表创建插入/更新/删除触发器，写入 change_log
+         * 外键级联产生的修改同样会触发
+         */
+        fun createChangeLogTriggers(db: SupportSQLiteDatabase) {
+            val now = "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)"
+            for (table in CHANGE_LOG_TABLES) {
+                db.execSQL(
+                    "CREATE TRIGGER IF NOT EXISTS `${table}_log_insert` AFTER INSERT ON `$table` BEGIN " +
+                        "INSERT INTO change_log(`table`, rowId, op, ts) VALUES ('$table', NEW.id, 'I', $now); END"
+                )
+                db.execSQL(
+                    "CREATE TRIGGER IF NOT EXISTS `${table}_log_update` AFTER UPDATE ON `$table` BEGIN " +
+                        "INSERT INTO change_log(`table`, rowId, op, ts) VALUES ('$table', NEW.id, 'U', $now); END"
+                )
+                db.execSQL(
+                    "CREATE TRIGGER IF NOT EXISTS `${table}_log_delete` AFTER DELETE ON `$table` BEGIN " +
+                        "INSERT INTO change_log(`table`, rowId, op, ts) VALUES ('$table', OLD.id, 'D', $now); END"
+                )
+            }
+        }
+
         fun getDatabase(context: Context): AppDatabase {
             return INSTANCE ?: synchronized(this) {
+                checkNotReplacing()
                 val instance = Room.databaseBuilder(
                     context.applicationContext,
                     AppDatabase::class.java,
-                    "ai_bookkeeping_database"
+                    DATABASE_NAME
                 )
+                .addMigrations(MIGRATION_4_5, MIGRATION_5_6, MIGRATION_6_7, MIGRATION_7_8, MIGRATION_8_9, MIGRATION_9_10)
                 .fallbackToDestructiveMigration()
                 .addCallback(DatabaseCallback())
+                .openHelperFactory(GuardedOpenHelperFactory(FrameworkSQLiteOpenHelperFactory()))
                 .build()
                 INSTANCE = instance
                 instance
             }
         }
+
+        /**
+         * 关闭数据库并丢弃单例，在 [block] 中替换数据库文件（恢复备份时调用）
+         *
+         * [block] 执行期间 [getDatabase] 抛出异常；仍持有旧实例的调用方（如 AIBookkeepingApp.database、
+         * 各仓库的DAO）访问数据库时同样抛出异常，不会在替换中途重新打开文件、创建新的WAL
+         */
+        fun <T> replaceDatabaseFile(block: () -> T): T {
+            synchronized(this) {
+                replacing = true
+                INSTANCE?.close()
+                INSTANCE = null
+            }
+            try {
+                return block()
+            } finally {
+                replacing = false
+            }
+        }
+
+        private fun checkNotReplacing() {
+            check(!replacing) { "正在恢复备份，数据库暂不可用" }
+        }
+    }
+
+    /**
+     * 每次取得连接前检查是否正在替换数据库文件
+     * Room 关闭后再次访问会重新打开数据库，只在 [getDatabase] 中检查挡不住已持有实例的调用方
+     */
+    private class GuardedOpenHelperFactory(
+        private val delegate: SupportSQLiteOpenHelper.Factory
+    ) : SupportSQLiteOpenHelper.Factory {
+
+        override fun create(configuration: SupportSQLiteOpenHelper.Configuration): SupportSQLiteOpenHelper {
+            val helper = delegate.create(configuration)
+            return object : SupportSQLiteOpenHelper by helper {
+                override val writableDatabase: SupportSQLiteDatabase
+                    get() {
+                        checkNotReplacing()
+                        return helper.writableDatabase
+                    }
+
+                override val readableDatabase: SupportSQLiteDatabase
+                    get() {
+                        checkNotReplacing()
+                        return helper.readableDatabase
+                    }
+            }
+        }
     }
 
     private class DatabaseCallback : Callback() {
         override fun onCreate(db: SupportSQLiteDatabase) {
             super.onCreate(db)
+            createChangeLogTriggers(db)
             INSTANCE?.let { database ->
                 CoroutineScope(Dispatchers.IO).launch {
                     populateDatabase(database)
@@ -0,0 +1,33 @@
+package com.ai.bookkeeping.data
+
+import androidx.room.*
+import com.ai.bookkeeping.model.CategoryNgramCount
+import com.ai.bookkeeping.model.TransactionType
+
+/**
+ * 分类模型计数数据访问对象
+ */
+@Dao
+interface CategoryModelDao {
+
+    @Query("SELECT * FROM category_ngram_counts")
+    suspend fun getAll(): List<CategoryNgramCount>
+
+    @Query("SELECT COUNT(*) FROM category_ngram_counts")
+    suspend fun getCount(): Int
+
+    /**
+     * 累加计数，返回受影响的行数（0表示该行尚不存在）
+     */
+    @Query("UPDATE category_ngram_counts SET count = count + :delta WHERE type = :type AND category = :category AND ngram = :ngram")
+    suspend fun addCount(type: TransactionType, category: String, ngram: String, delta: Int): Int
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun insertAll(counts: List<CategoryNgramCount>)
+
+    @Query("DELETE FROM category_ngram_counts WHERE count <= 0")
+    suspend fun deleteEmpty()
+
+    @Query("DELETE FROM category_ngram_counts")
+    suspend fun clear()
+}
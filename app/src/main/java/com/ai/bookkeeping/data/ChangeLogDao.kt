@@ -0,0 +1,24 @@
+package com.ai.bookkeeping.data
+
+import androidx.room.Dao
+import androidx.room.Query
+
+/**
+ * 变更日志DAO
+ */
+@Dao
+interface ChangeLogDao {
+
+    @Query("SELECT MAX(seq) FROM change_log")
+    suspend fun getMaxSeq(): Long?
+
+    @Query("SELECT DISTINCT rowId FROM change_log WHERE `table` = :table AND seq > :afterSeq AND seq <= :upToSeq")
+    suspend fun getChangedRowIds(table: String, afterSeq: Long, upToSeq: Long): List<Long>
+
+    @Query("SELECT COUNT(*) FROM change_log WHERE seq > :afterSeq")
+    suspend fun getChangeCountSince(afterSeq: Long): Int
+
+    // 已备份的日志不再需要
+    @Query("DELETE FROM change_log WHERE seq <= :seq")
+    suspend fun deleteUpTo(seq: Long)
+}
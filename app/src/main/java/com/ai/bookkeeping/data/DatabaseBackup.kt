@@ -0,0 +1,360 @@
+package com.ai.bookkeeping.data
+
+import android.content.Context
+import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteException
+import android.net.Uri
+import android.os.Build
+import android.os.SystemClock
+import androidx.sqlite.db.SupportSQLiteDatabase
+import androidx.work.WorkManager
+import androidx.work.await
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.util.zip.Deflater
+import java.util.zip.GZIPInputStream
+import java.util.zip.GZIPOutputStream
+import java.util.zip.ZipException
+
+/**
+ * 数据库备份与恢复
+ *
+ * 备份：在应用运行中对数据库做一致性快照（Android 11+ 在只读连接上使用 `VACUUM INTO`，
+ * 更早的版本在持有写锁期间复制数据库和WAL文件），gzip压缩后写入用户选择的位置。
+ * 直接复制数据库页，不经过CSV导出和重新解析。
+ *
+ * 增量备份：只写出上次备份（完整或增量）以来变化的行，见 [DeltaBackup]。
+ * 每次备份成功后记录备份到的变更序号，并清理已备份的变更日志。
+ *
+ * 恢复：解压到数据库目录下的临时文件，校验完整性和数据库版本，按序号重放增量备份后，
+ * 取消后台任务，关闭数据库并用一次重命名替换数据库文件，替换期间不允许重新打开。恢复后需要重启应用。
+ */
+object DatabaseBackup {
+
+    private const val BUFFER_SIZE = 64 * 1024
+    private const val SNAPSHOT_FILE = "backup_snapshot.db"
+
+    private const val PREFS_NAME = "backup_settings"
+    private const val KEY_LAST_BACKUP_SEQ = "last_backup_seq"
+
+    // 变更日志从这个版本开始存在
+    private const val MIN_DELTA_VERSION = 7
+
+    // 恢复的备份中必须包含的表
+    private val REQUIRED_TABLES = listOf(
+        "transactions", "categories", "accounts", "budgets", "notebooks", "transfers", "room_master_table"
+    )
+
+    data class BackupResult(
+        val databaseBytes: Long,    // 快照大小
+        val elapsedMillis: Long     // 快照+压缩用时
+    )
+
+    /**
+     * 备份数据库到 [target]（SAF创建的文档）
+     */
+    suspend fun backup(context: Context, target: Uri): Result<BackupResult> = withContext(Dispatchers.IO) {
+        val startTime = SystemClock.elapsedRealtime()
+        val snapshot = File(context.cacheDir, SNAPSHOT_FILE)
+
+        try {
+            deleteWithSidecars(snapshot)
+            createSnapshot(context, snapshot)
+            val snapshotSeq = SQLiteDatabase.openDatabase(snapshot.path, null, SQLiteDatabase.OPEN_READWRITE).use {
+                readHighWaterSeq(it)
+            }
+
+            context.contentResolver.openOutputStream(target, "wt")?.use { output ->
+                fastGzip(output).use { gzip ->
+                    snapshot.inputStream().use { it.copyTo(gzip, BUFFER_SIZE) }
+                }
+            } ?: throw IOException("无法写入备份文件")
+
+            markBackedUp(context, snapshotSeq)
+            Result.success(BackupResult(snapshot.length(), SystemClock.elapsedRealtime() - startTime))
+        } catch (e: Exception) {
+            Result.failure(e)
+        } finally {
+            deleteWithSidecars(snapshot)
+        }
+    }
+
+    /**
+     * 增量备份：写出上次备份以来变化的行到 [target]
+     * 必须先做过一次完整备份
+     */
+    suspend fun backupDelta(context: Context, target: Uri): Result<DeltaBackup.DeltaResult> = withContext(Dispatchers.IO) {
+        try {
+            val lastSeq = prefs(context).getLong(KEY_LAST_BACKUP_SEQ, -1L)
+            if (lastSeq < 0) {
+                throw IllegalStateException("请先进行一次完整备份")
+            }
+
+            val database = AppDatabase.getDatabase(context)
+            val result = context.contentResolver.openOutputStream(target, "wt")?.use { output ->
+                fastGzip(output).use { gzip ->
+                    DeltaBackup.writeDelta(database, lastSeq, gzip)
+                }
+            } ?: throw IOException("无法写入备份文件")
+
+            markBackedUp(context, result.header.toSeq)
+            Result.success(result)
+        } catch (e: Exception) {
+            Result.failure(e)
+        }
+    }
+
+    /**
+     * 从 [source] 恢复数据库，再按顺序重放 [deltas] 中的增量备份
+     * 增量备份必须从完整备份的序号开始首尾相接，顺序不限；
+     * 校验失败时不改动当前数据库；成功后当前数据库已关闭，调用方应重启应用
+     *
+     * @return 备份的数据库版本
+     */
+    suspend fun restore(
+        context: Context,
+        source: Uri,
+        deltas: List<Uri> = emptyList()
+    ): Result<Int> = withContext(Dispatchers.IO) {
+        val liveFile = context.getDatabasePath(AppDatabase.DATABASE_NAME)
+        // 与数据库文件放在同一目录，保证重命名是原子的
+        val staged = File(liveFile.parentFile, "${AppDatabase.DATABASE_NAME}.restore")
+
+        try {
+            deleteWithSidecars(staged)
+
+            context.contentResolver.openInputStream(source)?.use { input ->
+                GZIPInputStream(BufferedInputStream(input, BUFFER_SIZE), BUFFER_SIZE).use { gzip ->
+                    FileOutputStream(staged).use { output ->
+                        gzip.copyTo(output, BUFFER_SIZE)
+                        output.fd.sync()
+                    }
+                }
+            } ?: throw IOException("无法读取备份文件")
+
+            val version = validateSnapshot(staged)
+            val restoredSeq = applyDeltas(context, staged, version, deltas)
+
+            // 后台任务（导入、导出、补全等）都在读写数据库，替换前先取消；恢复后应用会重启
+            WorkManager.getInstance(context).cancelAllWork().await()
+            swapIn(staged, liveFile)
+
+            // 之后的增量备份从恢复到的状态继续
+            prefs(context).edit().putLong(KEY_LAST_BACKUP_SEQ, restoredSeq).apply()
+            Result.success(version)
+        } catch (e: ZipException) {
+            Result.failure(IOException("不是有效的备份文件", e))
+        } catch (e: Exception) {
+            Result.failure(e)
+        } finally {
+            deleteWithSidecars(staged)
+        }
+    }
+
+    private fun createSnapshot(context: Context, snapshot: File) {
+        // 先经 Room 打开，确保迁移已完成
+        val db = AppDatabase.getDatabase(context).openHelper.writableDatabase
+        val source = context.getDatabasePath(AppDatabase.DATABASE_NAME)
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            // VACUUM INTO 需要 SQLite 3.27（Android 11 起）。在单独的只读连接上执行：
+            // WAL 模式下它只占一个读事务，Room 的写连接照常记账；若在 Room 的写连接上执行，
+            // 生成快照期间所有写入都要排队等这个连接
+            SQLiteDatabase.openDatabase(source.path, null, SQLiteDatabase.OPEN_READONLY).use { reader ->
+                reader.execSQL("VACUUM INTO '${snapshot.absolutePath.replace("'", "''")}'")
+            }
+        } else {
+            copySnapshot(db, source, snapshot)
+        }
+    }
+
+    /**
+     * 低版本系统的快照：持有写锁期间复制主文件和WAL，二者构成一致的状态，
+     * 再打开副本把WAL合并进主文件
+     */
+    private fun copySnapshot(db: SupportSQLiteDatabase, source: File, snapshot: File) {
+        val wal = File(source.path + "-wal")
+
+        db.beginTransactionNonExclusive()
+        try {
+            source.copyTo(snapshot, overwrite = true)
+            if (wal.exists()) {
+                wal.copyTo(File(snapshot.path + "-wal"), overwrite = true)
+            }
+        } finally {
+            db.endTransaction()
+        }
+
+        SQLiteDatabase.openDatabase(snapshot.path, null, SQLiteDatabase.OPEN_READWRITE).use { copy ->
+            copy.rawQuery("PRAGMA wal_checkpoint(TRUNCATE)", null).use { it.moveToFirst() }
+            copy.rawQuery("PRAGMA journal_mode=DELETE", null).use { it.moveToFirst() }
+        }
+    }
+
+    /**
+     * 校验解压出的数据库
+     * @return 数据库版本（Room写在 user_version 中）
+     */
+    private fun validateSnapshot(file: File): Int {
+        val database = try {
+            SQLiteDatabase.openDatabase(file.path, null, SQLiteDatabase.OPEN_READWRITE)
+        } catch (e: SQLiteException) {
+            throw IOException("备份文件不是有效的数据库", e)
+        }
+
+        database.use { db ->
+            val version = db.version
+            if (version > AppDatabase.DATABASE_VERSION) {
+                throw IllegalStateException("备份来自更新版本的应用（数据库版本$version），请先升级应用")
+            }
+            if (version < AppDatabase.MIN_RESTORABLE_VERSION) {
+                throw IllegalStateException("备份的数据库版本过旧（版本$version），无法恢复")
+            }
+
+            db.rawQuery("PRAGMA quick_check", null).use { cursor ->
+                if (!cursor.moveToFirst() || cursor.getString(0) != "ok") {
+                    throw IllegalStateException("备份文件已损坏")
+                }
+            }
+
+            val tables = mutableSetOf<String>()
+            db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table'", null).use { cursor ->
+                while (cursor.moveToNext()) tables.add(cursor.getString(0))
+            }
+            val missing = REQUIRED_TABLES.filterNot { it in tables }
+            if (missing.isNotEmpty()) {
+                throw IllegalStateException("备份文件缺少数据表: ${missing.joinToString()}")
+            }
+
+            return version
+        }
+    }
+
+    /**
+     * 在解压出的完整备份上重放增量备份
+     * @return 恢复到的变更序号
+     */
+    private fun applyDeltas(context: Context, staged: File, version: Int, deltas: List<Uri>): Long {
+        SQLiteDatabase.openDatabase(staged.path, null, SQLiteDatabase.OPEN_READWRITE).use { db ->
+            val baseSeq = readHighWaterSeq(db)
+            if (deltas.isEmpty()) return baseSeq
+
+            if (version < MIN_DELTA_VERSION) {
+                throw IllegalStateException("该完整备份版本过旧，不支持增量恢复")
+            }
+
+            // 先读文件头，按序号排序并检查是否首尾相接
+            val ordered = deltas.map { uri -> uri to openDelta(context, uri) { DeltaBackup.readHeader(it) } }
+                .sortedBy { it.second.fromSeq }
+            var expectedSeq = baseSeq
+            for ((_, header) in ordered) {
+                if (header.schemaVersion != version) {
+                    throw IllegalStateException("增量备份与完整备份的数据库版本不一致")
+                }
+                if (header.fromSeq != expectedSeq) {
+                    throw IllegalStateException("增量备份不连续：缺少序号 $expectedSeq 之后的备份")
+                }
+                expectedSeq = header.toSeq
+            }
+
+            // REPLACE 在外键开启时会级联删除子表数据，重放期间关闭外键约束
+            db.setForeignKeyConstraintsEnabled(false)
+            db.beginTransaction()
+            try {
+                for ((uri, _) in ordered) {
+                    openDelta(context, uri) { input ->
+                        DeltaBackup.readHeader(input)
+                        DeltaBackup.applyDelta(db, input)
+                    }
+                }
+
+                // 重放产生的日志不是新的变更；序号接上最后一个增量备份
+                db.execSQL("DELETE FROM change_log")
+                db.execSQL("DELETE FROM sqlite_sequence WHERE name = 'change_log'")
+                db.execSQL("INSERT INTO sqlite_sequence(name, seq) VALUES('change_log', ?)", arrayOf(expectedSeq))
+
+                // 分类模型由交易派生、不在增量备份中，清空后下次启动重新训练
+                db.rawQuery("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'category_ngram_counts'", null).use { cursor ->
+                    if (cursor.moveToFirst()) db.execSQL("DELETE FROM category_ngram_counts")
+                }
+                db.setTransactionSuccessful()
+            } finally {
+                db.endTransaction()
+            }
+            return expectedSeq
+        }
+    }
+
+    private inline fun <T> openDelta(context: Context, uri: Uri, block: (InputStream) -> T): T {
+        return context.contentResolver.openInputStream(uri)?.use { input ->
+            GZIPInputStream(BufferedInputStream(input, BUFFER_SIZE), BUFFER_SIZE).use(block)
+        } ?: throw IOException("无法读取增量备份文件")
+    }
+
+    /**
+     * 变更日志的序号高水位（AUTOINCREMENT 记录在 sqlite_sequence 中，清理日志后不回退）
+     */
+    private fun readHighWaterSeq(db: SQLiteDatabase): Long {
+        return try {
+            db.rawQuery("SELECT seq FROM sqlite_sequence WHERE name = 'change_log'", null).use { cursor ->
+                if (cursor.moveToFirst()) cursor.getLong(0) else 0L
+            }
+        } catch (e: SQLiteException) {
+            // 还没有任何自增表写入过数据，或备份早于变更日志
+            0L
+        }
+    }
+
+    /**
+     * 记录已备份到的序号，清理不再需要的变更日志
+     */
+    private suspend fun markBackedUp(context: Context, seq: Long) {
+        prefs(context).edit().putLong(KEY_LAST_BACKUP_SEQ, seq).apply()
+        AppDatabase.getDatabase(context).changeLogDao().deleteUpTo(seq)
+    }
+
+    private fun prefs(context: Context) =
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+
+    /**
+     * 关闭数据库，清理旧的WAL后用重命名原子地替换数据库文件
+     * 替换期间数据库不能被重新打开（见 [AppDatabase.replaceDatabaseFile]）
+     */
+    private fun swapIn(staged: File, liveFile: File) {
+        AppDatabase.replaceDatabaseFile {
+            // 关闭时WAL已合并；残留的WAL属于旧数据库，不能应用到新文件上
+            File(liveFile.path + "-wal").delete()
+            File(liveFile.path + "-shm").delete()
+            File(liveFile.path + "-journal").delete()
+
+            if (!staged.renameTo(liveFile)) {
+                throw IOException("替换数据库文件失败")
+            }
+        }
+    }
+
+    /**
+     * 使用最快压缩级别：数据库页压缩率差别不大，速度优先
+     */
+    private fun fastGzip(output: OutputStream): GZIPOutputStream {
+        return object : GZIPOutputStream(BufferedOutputStream(output, BUFFER_SIZE), BUFFER_SIZE) {
+            init {
+                def.setLevel(Deflater.BEST_SPEED)
+            }
+        }
+    }
+
+    private fun deleteWithSidecars(file: File) {
+        file.delete()
+        File(file.path + "-wal").delete()
+        File(file.path + "-shm").delete()
+        File(file.path + "-journal").delete()
+    }
+}
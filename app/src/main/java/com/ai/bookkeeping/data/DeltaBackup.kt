@@ -0,0 +1,248 @@
+package com.ai.bookkeeping.data
+
+import android.content.ContentValues
+import android.database.Cursor
+import android.database.sqlite.SQLiteDatabase
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+
+/**
+ * 增量备份的编码与重放
+ *
+ * 根据 change_log 找出自上次备份以来变化过的行，只写出这些行的最新状态：
+ * 行仍存在时写入整行，已删除时写入删除记录。同一行多次修改只写一次，
+ * 文件大小取决于变动量而不是账本大小。
+ *
+ * 文件格式（由调用方gzip压缩）：
+ * - 头部：魔数 "AIBKDLT1" | int 数据库版本 | long 起始序号（不含）| long 结束序号（含）
+ * - 记录：int 长度 | 记录体；长度为0表示结束。读取方可按长度跳过不认识的记录
+ * - 记录体：byte 操作 | UTF 表名 | long 行ID | 写入记录另有 short 列数 | (UTF 列名 | byte 类型 | 值)*
+ */
+object DeltaBackup {
+
+    private val MAGIC = "AIBKDLT1".toByteArray(Charsets.US_ASCII)
+
+    private const val OP_UPSERT = 'U'.code
+    private const val OP_DELETE = 'D'.code
+
+    private const val TYPE_NULL = 0
+    private const val TYPE_LONG = 1
+    private const val TYPE_DOUBLE = 2
+    private const val TYPE_STRING = 3
+    private const val TYPE_BLOB = 4
+
+    private val COLUMN_NAME = Regex("[A-Za-z_][A-Za-z0-9_]*")
+
+    data class DeltaHeader(
+        val schemaVersion: Int,
+        val fromSeq: Long,      // 不含
+        val toSeq: Long         // 含
+    )
+
+    data class DeltaResult(
+        val header: DeltaHeader,
+        val upsertCount: Int,
+        val deleteCount: Int
+    )
+
+    /**
+     * 写出序号在 (fromSeq, toSeq] 之间变化的行，toSeq 为开始时的最大序号
+     *
+     * 不开事务：写入外部存储可能很慢，期间不能挡住记账。先定下 toSeq，之后每张表各读一次；
+     * 读取期间又变化的行会写出更新后的值，这些行的序号大于 toSeq，下一次增量还会再写一次，
+     * 按顺序重放后结果相同。toSeq 之后才新增的行不在本次的行ID中，不会提前写出。
+     */
+    suspend fun writeDelta(database: AppDatabase, fromSeq: Long, output: OutputStream): DeltaResult {
+        val dao = database.changeLogDao()
+        val toSeq = maxOf(fromSeq, dao.getMaxSeq() ?: fromSeq)
+        val header = DeltaHeader(database.openHelper.readableDatabase.version, fromSeq, toSeq)
+
+        val out = DataOutputStream(output)
+        out.write(MAGIC)
+        out.writeInt(header.schemaVersion)
+        out.writeLong(header.fromSeq)
+        out.writeLong(header.toSeq)
+
+        val record = RecordBuffer()
+        var upsertCount = 0
+        var deleteCount = 0
+
+        for (table in AppDatabase.CHANGE_LOG_TABLES) {
+            val changedIds = dao.getChangedRowIds(table, fromSeq, toSeq)
+            if (changedIds.isEmpty()) continue
+
+            // 仍存在的行写入当前值，剩下的就是已删除的行
+            val deletedIds = changedIds.toHashSet()
+            database.query(
+                "SELECT * FROM `$table` WHERE id IN " +
+                    "(SELECT rowId FROM change_log WHERE `table` = ? AND seq > ? AND seq <= ?)",
+                arrayOf(table, fromSeq, toSeq)
+            ).use { cursor ->
+                val idIndex = cursor.getColumnIndexOrThrow("id")
+                while (cursor.moveToNext()) {
+                    val id = cursor.getLong(idIndex)
+                    deletedIds.remove(id)
+                    record.writeUpsert(out, table, id, cursor)
+                    upsertCount++
+                }
+            }
+
+            for (id in deletedIds) {
+                record.writeDelete(out, table, id)
+                deleteCount++
+            }
+        }
+
+        out.writeInt(0)
+        out.flush()
+        return DeltaResult(header, upsertCount, deleteCount)
+    }
+
+    /**
+     * 读取并校验增量文件头
+     */
+    fun readHeader(input: InputStream): DeltaHeader {
+        val data = DataInputStream(input)
+        val magic = ByteArray(MAGIC.size)
+        data.readFully(magic)
+        if (!magic.contentEquals(MAGIC)) {
+            throw IOException("不是有效的增量备份文件")
+        }
+        return DeltaHeader(data.readInt(), data.readLong(), data.readLong())
+    }
+
+    /**
+     * 重放一个增量文件的记录（文件头已由 [readHeader] 读过）
+     * 调用方负责开启事务，并关闭外键约束以免 REPLACE 触发级联删除
+     *
+     * @return 应用的记录数
+     */
+    fun applyDelta(db: SQLiteDatabase, input: InputStream): Int {
+        val data = DataInputStream(input)
+        var applied = 0
+
+        while (true) {
+            val length = data.readInt()
+            if (length == 0) break
+            if (length < 0) throw IOException("增量备份文件已损坏")
+
+            val body = ByteArray(length)
+            data.readFully(body)
+            val record = DataInputStream(ByteArrayInputStream(body))
+
+            val op = record.readUnsignedByte()
+            val table = record.readUTF()
+            val id = record.readLong()
+            if (table !in AppDatabase.CHANGE_LOG_TABLES) {
+                throw IOException("增量备份包含未知的表: $table")
+            }
+
+            when (op) {
+                OP_UPSERT -> {
+                    db.insertWithOnConflict(table, null, readValues(record), SQLiteDatabase.CONFLICT_REPLACE)
+                    applied++
+                }
+                OP_DELETE -> {
+                    db.delete(table, "id = ?", arrayOf(id.toString()))
+                    applied++
+                }
+                // 未知操作按长度跳过
+            }
+        }
+        return applied
+    }
+
+    private fun readValues(record: DataInputStream): ContentValues {
+        val count = record.readUnsignedShort()
+        val values = ContentValues(count)
+
+        repeat(count) {
+            val column = record.readUTF()
+            if (!COLUMN_NAME.matches(column)) {
+                throw IOException("增量备份包含无效的列名: $column")
+            }
+            when (record.readUnsignedByte()) {
+                TYPE_NULL -> values.putNull(column)
+                TYPE_LONG -> values.put(column, record.readLong())
+                TYPE_DOUBLE -> values.put(column, record.readDouble())
+                TYPE_STRING -> values.put(column, String(readBytes(record), Charsets.UTF_8))
+                TYPE_BLOB -> values.put(column, readBytes(record))
+                else -> throw IOException("增量备份包含未知的值类型")
+            }
+        }
+        return values
+    }
+
+    private fun readBytes(record: DataInputStream): ByteArray {
+        val bytes = ByteArray(record.readInt())
+        record.readFully(bytes)
+        return bytes
+    }
+
+    /**
+     * 记录编码缓冲，先写入内存再加长度前缀输出，缓冲在记录之间复用
+     */
+    private class RecordBuffer {
+        private val bytes = ByteArrayOutputStream(256)
+        private val data = DataOutputStream(bytes)
+
+        fun writeUpsert(out: DataOutputStream, table: String, id: Long, cursor: Cursor) {
+            bytes.reset()
+            data.writeByte(OP_UPSERT)
+            data.writeUTF(table)
+            data.writeLong(id)
+            data.writeShort(cursor.columnCount)
+            for (index in 0 until cursor.columnCount) {
+                data.writeUTF(cursor.getColumnName(index))
+                writeValue(cursor, index)
+            }
+            flushTo(out)
+        }
+
+        fun writeDelete(out: DataOutputStream, table: String, id: Long) {
+            bytes.reset()
+            data.writeByte(OP_DELETE)
+            data.writeUTF(table)
+            data.writeLong(id)
+            flushTo(out)
+        }
+
+        private fun writeValue(cursor: Cursor, index: Int) {
+            when (cursor.getType(index)) {
+                Cursor.FIELD_TYPE_NULL -> data.writeByte(TYPE_NULL)
+                Cursor.FIELD_TYPE_INTEGER -> {
+                    data.writeByte(TYPE_LONG)
+                    data.writeLong(cursor.getLong(index))
+                }
+                Cursor.FIELD_TYPE_FLOAT -> {
+                    data.writeByte(TYPE_DOUBLE)
+                    data.writeDouble(cursor.getDouble(index))
+                }
+                Cursor.FIELD_TYPE_BLOB -> {
+                    data.writeByte(TYPE_BLOB)
+                    writeBytes(cursor.getBlob(index))
+                }
+                else -> {
+                    data.writeByte(TYPE_STRING)
+                    writeBytes(cursor.getString(index).toByteArray(Charsets.UTF_8))
+                }
+            }
+        }
+
+        private fun writeBytes(value: ByteArray) {
+            data.writeInt(value.size)
+            data.write(value)
+        }
+
+        private fun flushTo(out: DataOutputStream) {
+            data.flush()
+            out.writeInt(bytes.size())
+            bytes.writeTo(out)
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.ai.bookkeeping.data
+
+import androidx.room.*
+import com.ai.bookkeeping.model.EnrichmentTask
+import com.ai.bookkeeping.model.Transaction
+
+/**
+ * 待补全任务数据访问对象
+ */
+@Dao
+interface EnrichmentTaskDao {
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    suspend fun insertAll(tasks: List<EnrichmentTask>)
+
+    @Query("SELECT * FROM enrichment_queue ORDER BY createdAt ASC LIMIT :limit")
+    suspend fun getBatch(limit: Int): List<EnrichmentTask>
+
+    @Query("SELECT * FROM transactions WHERE id IN (:ids)")
+    suspend fun getTransactions(ids: List<Long>): List<Transaction>
+
+    @Query("DELETE FROM enrichment_queue WHERE transactionId IN (:ids)")
+    suspend fun deleteByIds(ids: List<Long>)
+
+    @Query("UPDATE enrichment_queue SET attempts = attempts + 1 WHERE transactionId IN (:ids)")
+    suspend fun incrementAttempts(ids: List<Long>)
+
+    // 多次失败的任务放弃
+    @Query("DELETE FROM enrichment_queue WHERE attempts >= :maxAttempts")
+    suspend fun deleteExhausted(maxAttempts: Int)
+
+    @Query("SELECT COUNT(*) FROM enrichment_queue")
+    suspend fun getCount(): Int
+}
@@ -0,0 +1,20 @@
+package com.ai.bookkeeping.data
+
+import androidx.room.*
+import com.ai.bookkeeping.model.ImportCheckpoint
+
+/**
+ * 账单导入断点数据访问对象
+ */
+@Dao
+interface ImportCheckpointDao {
+
+    @Upsert
+    suspend fun upsert(checkpoint: ImportCheckpoint)
+
+    @Query("SELECT * FROM import_checkpoints WHERE uriHash = :uriHash")
+    suspend fun getCheckpoint(uriHash: String): ImportCheckpoint?
+
+    @Query("DELETE FROM import_checkpoints WHERE uriHash = :uriHash")
+    suspend fun deleteByHash(uriHash: String)
+}
@@ -0,0 +1,33 @@
+package com.ai.bookkeeping.data
+
+import androidx.room.*
+import com.ai.bookkeeping.model.ParseCacheEntry
+import com.ai.bookkeeping.model.TransactionType
+
+/**
+ * 解析结果缓存数据访问对象
+ */
+@Dao
+interface ParseCacheDao {
+
+    @Query("SELECT * FROM parse_cache WHERE inputKey = :inputKey")
+    suspend fun get(inputKey: String): ParseCacheEntry?
+
+    @Upsert
+    suspend fun upsert(entry: ParseCacheEntry)
+
+    @Query("UPDATE parse_cache SET hitCount = hitCount + 1, updatedAt = :now WHERE inputKey = :inputKey")
+    suspend fun touch(inputKey: String, now: Long)
+
+    /**
+     * 删除给出过该结果的缓存（用户纠正了由它生成的交易）
+     */
+    @Query("DELETE FROM parse_cache WHERE type = :type AND category = :category AND description = :description")
+    suspend fun deleteByResult(type: TransactionType, category: String, description: String)
+
+    /**
+     * 只保留最近使用的 [keep] 条
+     */
+    @Query("DELETE FROM parse_cache WHERE inputKey NOT IN (SELECT inputKey FROM parse_cache ORDER BY updatedAt DESC LIMIT :keep)")
+    suspend fun trim(keep: Int)
+}
@@ -14,6 +14,9 @@ interface TransactionDao {
     @Insert
     suspend fun insert(transaction: Transaction): Long
 
+    @Insert
+    suspend fun insertAll(transactions: List<Transaction>): List<Long>
+
     @Update
     suspend fun update(transaction: Transaction)
 
@@ -93,9 +96,27 @@ interface TransactionDao {
     @Query("SELECT DISTINCT note FROM transactions WHERE category = :category AND note != '' ORDER BY date DESC LIMIT :limit")
     suspend fun getRecentNotesByCategory(category: String, limit: Int = 10): List<String>
 
+    // 导出用：按 (date, id) 键集分页，翻页代价不随页数增长
+    @Query("SELECT * FROM transactions WHERE (date > :afterDate OR (date = :afterDate AND id > :afterId)) AND date <= :endDate ORDER BY date ASC, id ASC LIMIT :limit")
+    suspend fun getTransactionsPage(afterDate: Long, afterId: Long, endDate: Long, limit: Int): List<Transaction>
+
+    @Query("SELECT MIN(date) FROM transactions")
+    suspend fun getEarliestDate(): Long?
+
+    @Query("SELECT MAX(date) FROM transactions")
+    suspend fun getLatestDate(): Long?
+
     // 批量删除
     @Query("DELETE FROM transactions WHERE id IN (:ids)")
     suspend fun deleteByIds(ids: List<Long>)
+
+    // 按 id 分页读取某分类的交易（批量重新分类用）
+    @Query("SELECT * FROM transactions WHERE category = :category AND id > :afterId ORDER BY id ASC LIMIT :limit")
+    suspend fun getByCategoryPage(category: String, afterId: Long, limit: Int): List<Transaction>
+
+    // 仅在分类仍为 expected 时更新，避免覆盖用户期间的修改
+    @Query("UPDATE transactions SET category = :category, categoryId = :categoryId WHERE id = :id AND category = :expected")
+    suspend fun updateCategory(id: Long, expected: String, category: String, categoryId: Long?): Int
 }
 
 /**
@@ -1,26 +1,47 @@
 package com.ai.bookkeeping.data
 
 import androidx.lifecycle.LiveData
+import com.ai.bookkeeping.ai.EnrichmentQueue
+import com.ai.bookkeeping.ai.ParseCache
 import com.ai.bookkeeping.model.Transaction
 import com.ai.bookkeeping.model.TransactionType
+import com.ai.bookkeeping.util.NaiveBayesClassifier
 
 /**
  * 交易记录仓库类
+ * 写入交易的同时增量更新本地分类模型；修改交易视为纠正，使对应的解析缓存失效
+ * 本地未能分类的AI记账记录加入离线补全队列（见 [EnrichmentQueue]）
  */
 class TransactionRepository(private val transactionDao: TransactionDao) {
 
     val allTransactions: LiveData<List<Transaction>> = transactionDao.getAllTransactions()
 
     suspend fun insert(transaction: Transaction): Long {
-        return transactionDao.insert(transaction)
+        val id = transactionDao.insert(transaction)
+        NaiveBayesClassifier.learn(listOf(transaction))
+        EnrichmentQueue.add(listOf(id), listOf(transaction))
+        return id
+    }
+
+    suspend fun insertAll(transactions: List<Transaction>): List<Long> {
+        val ids = transactionDao.insertAll(transactions)
+        NaiveBayesClassifier.learn(transactions)
+        EnrichmentQueue.add(ids, transactions)
+        return ids
     }
 
     suspend fun update(transaction: Transaction) {
+        val old = transactionDao.getTransactionById(transaction.id)
         transactionDao.update(transaction)
+        if (old != null) {
+            NaiveBayesClassifier.relearn(old, transaction)
+            ParseCache.invalidate(old, transaction)
+        }
     }
 
     suspend fun delete(transaction: Transaction) {
         transactionDao.delete(transaction)
+        NaiveBayesClassifier.forget(transaction)
     }
 
     suspend fun getTransactionById(id: Long): Transaction? {
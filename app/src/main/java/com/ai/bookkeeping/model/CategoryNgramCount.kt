@@ -0,0 +1,18 @@
+package com.ai.bookkeeping.model
+
+import androidx.room.Entity
+
+/**
+ * 分类模型计数 - 朴素贝叶斯分类器的持久化形式
+ * 每行是某类型某分类下一个字符n-gram出现的次数；ngram为空串的行记录该分类的交易笔数
+ */
+@Entity(
+    tableName = "category_ngram_counts",
+    primaryKeys = ["type", "category", "ngram"]
+)
+data class CategoryNgramCount(
+    val type: TransactionType,           // 收支类型
+    val category: String,                // 分类名称
+    val ngram: String,                   // 字符n-gram，空串表示文档数
+    val count: Int                       // 出现次数
+)
@@ -0,0 +1,20 @@
+package com.ai.bookkeeping.model
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.PrimaryKey
+
+/**
+ * 数据变更日志实体类
+ * 由各业务表上的触发器写入，增量备份据此只导出上次备份后变化的行
+ */
+@Entity(tableName = "change_log")
+data class ChangeLog(
+    @PrimaryKey(autoGenerate = true)
+    val seq: Long = 0,                   // 变更序号，单调递增
+    @ColumnInfo(name = "table")
+    val table: String,                   // 表名
+    val rowId: Long,                     // 行主键
+    val op: String,                      // 操作：I插入 / U更新 / D删除
+    val ts: Long                         // 变更时间戳
+)
@@ -0,0 +1,27 @@
+package com.ai.bookkeeping.model
+
+import androidx.room.Entity
+import androidx.room.ForeignKey
+import androidx.room.PrimaryKey
+
+/**
+ * 待补全任务 - 本地解析未能确定分类的交易，等有网络时交给大模型重新分类
+ * 交易删除时任务随之删除
+ */
+@Entity(
+    tableName = "enrichment_queue",
+    foreignKeys = [
+        ForeignKey(
+            entity = Transaction::class,
+            parentColumns = ["id"],
+            childColumns = ["transactionId"],
+            onDelete = ForeignKey.CASCADE
+        )
+    ]
+)
+data class EnrichmentTask(
+    @PrimaryKey
+    val transactionId: Long,                          // 交易ID
+    val createdAt: Long = System.currentTimeMillis(), // 入队时间
+    val attempts: Int = 0                             // 已失败次数
+)
@@ -0,0 +1,20 @@
+package com.ai.bookkeeping.model
+
+import androidx.room.Entity
+import androidx.room.PrimaryKey
+
+/**
+ * 账单导入断点 - 记录每个文件已提交到的行号，用于中断后续传
+ */
+@Entity(tableName = "import_checkpoints")
+data class ImportCheckpoint(
+    @PrimaryKey
+    val uriHash: String,                 // 文件URI、账单来源、文件大小和修改时间的哈希
+    val uri: String,                     // 文件URI
+    val source: String,                  // 账单来源
+    val lastRow: Int = 0,                // 最后一个已提交的行号
+    val importedCount: Int = 0,          // 已导入条数
+    val failedCount: Int = 0,            // 解析失败条数
+    val completed: Boolean = false,      // 是否已全部导入
+    val updatedAt: Long = System.currentTimeMillis()  // 更新时间
+)
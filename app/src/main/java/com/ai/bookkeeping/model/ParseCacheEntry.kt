@@ -0,0 +1,19 @@
+package com.ai.bookkeeping.model
+
+import androidx.room.Entity
+import androidx.room.PrimaryKey
+
+/**
+ * 解析结果缓存 - 归一化输入（去掉金额和日期）对应的分类和描述
+ * 同样的记账文字再次输入时不必请求大模型
+ */
+@Entity(tableName = "parse_cache")
+data class ParseCacheEntry(
+    @PrimaryKey
+    val inputKey: String,                // 归一化后的输入
+    val type: TransactionType,           // 收支类型
+    val category: String,                // 分类
+    val description: String,             // 描述
+    val hitCount: Int = 0,               // 命中次数
+    val updatedAt: Long = System.currentTimeMillis()  // 最近写入或命中时间
+)
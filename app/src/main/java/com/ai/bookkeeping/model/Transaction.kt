@@ -27,7 +27,7 @@ import kotlinx.parcelize.Parcelize
             onDelete = ForeignKey.CASCADE
         )
     ],
-    indices = [Index("accountId"), Index("notebookId")]
+    indices = [Index("accountId"), Index("notebookId"), Index("date")]
 )
 data class Transaction(
     @PrimaryKey(autoGenerate = true)
@@ -0,0 +1,86 @@
+package com.ai.bookkeeping.network
+
+import android.os.SystemClock
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+
+/**
+ * 熔断器
+ *
+ * 连续失败 [failureThreshold] 次后断开，冷却 [cooldownMillis] 内的请求直接拒绝，调用方立即走本地降级；
+ * 冷却结束后放行一个探测请求（半开），成功则恢复，失败则重新冷却。
+ * 只应记录服务端或网络造成的失败，参数错误、密钥无效等不算。
+ */
+class CircuitBreaker(
+    private val failureThreshold: Int,
+    private val cooldownMillis: Long,
+    private val clock: () -> Long = { SystemClock.elapsedRealtime() }
+) {
+
+    enum class State {
+        CLOSED,     // 正常
+        OPEN,       // 熔断中，请求直接拒绝
+        HALF_OPEN   // 冷却结束，正在探测
+    }
+
+    private val _state = MutableStateFlow(State.CLOSED)
+    val state: StateFlow<State> = _state.asStateFlow()
+
+    private var consecutiveFailures = 0
+    private var openedAt = 0L
+
+    /**
+     * 是否放行本次请求；冷却结束后只放行一个探测请求
+     */
+    @Synchronized
+    fun tryAcquire(): Boolean {
+        return when (_state.value) {
+            State.CLOSED -> true
+            State.HALF_OPEN -> false
+            State.OPEN -> {
+                if (clock() - openedAt < cooldownMillis) {
+                    false
+                } else {
+                    _state.value = State.HALF_OPEN
+                    true
+                }
+            }
+        }
+    }
+
+    @Synchronized
+    fun onSuccess() {
+        consecutiveFailures = 0
+        _state.value = State.CLOSED
+    }
+
+    @Synchronized
+    fun onFailure() {
+        consecutiveFailures++
+        if (_state.value == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            openedAt = clock()
+            _state.value = State.OPEN
+        }
+    }
+
+    /**
+     * 探测请求未得出结论（如被取消）时归还名额，让下一个请求继续探测
+     */
+    @Synchronized
+    fun release() {
+        if (_state.value == State.HALF_OPEN) {
+            openedAt = clock() - cooldownMillis
+            _state.value = State.OPEN
+        }
+    }
+
+    /**
+     * 熔断剩余的冷却时间，未熔断时为0
+     */
+    @Synchronized
+    fun remainingCooldownMillis(): Long {
+        if (_state.value != State.OPEN) return 0
+        return (cooldownMillis - (clock() - openedAt)).coerceAtLeast(0)
+    }
+}
@@ -0,0 +1,37 @@
+package com.ai.bookkeeping.network
+
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.selects.select
+import kotlinx.coroutines.withTimeoutOrNull
+
+/**
+ * 对冲请求
+ *
+ * 先执行 [primary]，超过 [delayMillis] 仍未返回时再并行执行 [secondary]，取先成功的结果并取消另一个；
+ * 两个都失败时返回主请求的结果。[primary] 在 [delayMillis] 内返回（无论成败）时不发出对冲请求。
+ * 两个请求都应在协程取消时中断网络调用（如使用 [await]）。
+ */
+suspend fun <T> hedged(
+    delayMillis: Long,
+    primary: suspend () -> Result<T>,
+    secondary: suspend () -> Result<T>
+): Result<T> = coroutineScope {
+    val first = async { primary() }
+    withTimeoutOrNull(delayMillis) { first.await() }?.let { return@coroutineScope it }
+
+    val second = async { secondary() }
+    val winner = select {
+        first.onAwait { it }
+        second.onAwait { it }
+    }
+    if (winner.isSuccess) {
+        first.cancel()
+        second.cancel()
+        return@coroutineScope winner
+    }
+
+    val firstResult = first.await()
+    val secondResult = second.await()
+    if (secondResult.isSuccess) secondResult else firstResult
+}
@@ -0,0 +1,88 @@
+package com.ai.bookkeeping.network
+
+import android.util.Log
+import kotlinx.coroutines.suspendCancellableCoroutine
+import okhttp3.Call
+import okhttp3.Callback
+import okhttp3.ConnectionPool
+import okhttp3.OkHttpClient
+import okhttp3.Protocol
+import okhttp3.Request
+import okhttp3.Response
+import java.io.IOException
+import java.util.concurrent.TimeUnit
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+
+/**
+ * 进程内共享的 HTTP 客户端
+ *
+ * 所有网络请求（大模型、语音识别）共用同一个连接池：同一主机的后续请求复用已建立的
+ * TCP+TLS 连接，HTTPS 主机支持时走 HTTP/2 多路复用；响应的 gzip 压缩由 OkHttp 透明处理。
+ * 打开相关界面时可调用 [prewarm] 提前建立连接，第一次真正请求时免去握手。
+ */
+object HttpClientProvider {
+
+    private const val TAG = "HttpClientProvider"
+
+    // 空闲连接数和保活时间：应用只访问少数几个主机
+    private const val MAX_IDLE_CONNECTIONS = 4
+    private const val KEEP_ALIVE_MINUTES = 5L
+
+    val client: OkHttpClient = OkHttpClient.Builder()
+        .connectionPool(ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+        .protocols(listOf(Protocol.HTTP_2, Protocol.HTTP_1_1))
+        .connectTimeout(30, TimeUnit.SECONDS)
+        .readTimeout(60, TimeUnit.SECONDS)
+        .writeTimeout(60, TimeUnit.SECONDS)
+        .retryOnConnectionFailure(true)
+        .build()
+
+    /**
+     * 长连接（WebSocket）用的客户端：不设读超时，与 [client] 共用连接池和线程池
+     */
+    val streamingClient: OkHttpClient by lazy {
+        client.newBuilder()
+            .readTimeout(0, TimeUnit.MILLISECONDS)
+            .pingInterval(20, TimeUnit.SECONDS)
+            .build()
+    }
+
+    /**
+     * 预热到 [url] 所在主机的连接：发一个 HEAD 请求，完成 DNS、TCP 和 TLS 握手后连接留在池中
+     * 失败不影响之后的正常请求
+     */
+    fun prewarm(url: String) {
+        val request = try {
+            Request.Builder().url(url).head().build()
+        } catch (e: IllegalArgumentException) {
+            Log.w(TAG, "无效的预热地址: $url")
+            return
+        }
+        client.newCall(request).enqueue(object : Callback {
+            override fun onResponse(call: Call, response: Response) {
+                response.close()
+            }
+
+            override fun onFailure(call: Call, e: IOException) {
+                Log.d(TAG, "预热连接失败: ${e.message}")
+            }
+        })
+    }
+}
+
+/**
+ * 异步执行请求并挂起等待响应；协程取消时取消请求，调用方负责关闭响应
+ */
+suspend fun Call.await(): Response = suspendCancellableCoroutine { continuation ->
+    continuation.invokeOnCancellation { cancel() }
+    enqueue(object : Callback {
+        override fun onResponse(call: Call, response: Response) {
+            continuation.resume(response) { response.close() }
+        }
+
+        override fun onFailure(call: Call, e: IOException) {
+            continuation.resumeWithException(e)
+        }
+    })
+}
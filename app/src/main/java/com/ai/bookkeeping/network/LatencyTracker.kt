@@ -0,0 +1,75 @@
+package com.ai.bookkeeping.network
+
+import android.os.SystemClock
+
+/**
+ * 滚动窗口内的请求延迟和错误率
+ *
+ * 保留最近 [capacity] 次请求，超过 [maxAgeMillis] 的样本不再计入，
+ * 长时间没有请求的服务不按过时的数据评估。
+ */
+class LatencyTracker(
+    private val capacity: Int = 50,
+    private val maxAgeMillis: Long = 5 * 60_000L,
+    private val clock: () -> Long = { SystemClock.elapsedRealtime() }
+) {
+
+    /**
+     * @param p50 成功请求延迟的中位数，没有样本时为-1
+     * @param p95 成功请求延迟的95分位，没有样本时为-1
+     * @param errorRate 失败请求占比
+     */
+    data class Snapshot(
+        val samples: Int,
+        val p50: Long,
+        val p95: Long,
+        val errorRate: Double
+    )
+
+    private val recordedAt = LongArray(capacity)
+    private val latencies = LongArray(capacity)     // -1 表示只记录结果，不计延迟
+    private val failed = BooleanArray(capacity)
+    private var next = 0
+    private var size = 0
+
+    /**
+     * @param latencyMillis 请求耗时；为null时只计入错误率（如流式请求的总时长不可比）
+     */
+    @Synchronized
+    fun record(success: Boolean, latencyMillis: Long? = null) {
+        recordedAt[next] = clock()
+        latencies[next] = if (success && latencyMillis != null) latencyMillis else -1
+        failed[next] = !success
+        next = (next + 1) % capacity
+        if (size < capacity) size++
+    }
+
+    @Synchronized
+    fun snapshot(): Snapshot {
+        val since = clock() - maxAgeMillis
+        val sorted = LongArray(size)
+        var latencyCount = 0
+        var samples = 0
+        var failures = 0
+        for (i in 0 until size) {
+            if (recordedAt[i] < since) continue
+            samples++
+            if (failed[i]) failures++
+            if (latencies[i] >= 0) sorted[latencyCount++] = latencies[i]
+        }
+        sorted.sort(0, latencyCount)
+
+        return Snapshot(
+            samples = samples,
+            p50 = percentile(sorted, latencyCount, 0.50),
+            p95 = percentile(sorted, latencyCount, 0.95),
+            errorRate = if (samples > 0) failures.toDouble() / samples else 0.0
+        )
+    }
+
+    private fun percentile(sorted: LongArray, count: Int, p: Double): Long {
+        if (count == 0) return -1
+        val index = (p * (count - 1) + 0.5).toInt().coerceIn(0, count - 1)
+        return sorted[index]
+    }
+}
@@ -0,0 +1,69 @@
+package com.ai.bookkeeping.network
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+
+/**
+ * 请求协调器
+ *
+ * - 合并：键相同的请求正在进行时，后来的调用方等待同一个结果，不再重复发出（双击、界面重建、
+ *   悬浮窗和首页同时解析等）。请求在协调器自己的作用域中执行，某个调用方取消不影响其他调用方；
+ *   所有调用方都取消后才取消请求本身。
+ * - 限流：同时进行的请求不超过 [maxConcurrent] 个，突发请求排队等待，避免同时打开大量连接或触发服务端限流。
+ *
+ * @param maxConcurrent 最大并发请求数
+ */
+class RequestCoordinator<T>(maxConcurrent: Int) {
+
+    private class InFlight<T>(val deferred: Deferred<T>) {
+        var waiters = 0
+    }
+
+    private val permits = Semaphore(maxConcurrent)
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private val inFlight = HashMap<String, InFlight<T>>()
+
+    /**
+     * 执行请求；键为 [key] 的请求正在进行时等待它的结果
+     * [block] 内需要占用连接的部分应包在 [withPermit] 中
+     */
+    suspend fun coalesce(key: String, block: suspend () -> T): T {
+        val entry = synchronized(inFlight) {
+            inFlight.getOrPut(key) { start(key, block) }.also { it.waiters++ }
+        }
+        try {
+            return entry.deferred.await()
+        } finally {
+            synchronized(inFlight) {
+                entry.waiters--
+                if (entry.waiters == 0 && entry.deferred.isActive) {
+                    // 没有调用方在等待了
+                    entry.deferred.cancel()
+                    if (inFlight[key] === entry) inFlight.remove(key)
+                }
+            }
+        }
+    }
+
+    /**
+     * 占用一个并发名额执行，名额用完时挂起等待
+     */
+    suspend fun <R> withPermit(block: suspend () -> R): R = permits.withPermit { block() }
+
+    private fun start(key: String, block: suspend () -> T): InFlight<T> {
+        val entry = InFlight(scope.async(start = CoroutineStart.LAZY) { block() })
+        entry.deferred.invokeOnCompletion {
+            synchronized(inFlight) {
+                if (inFlight[key] === entry) inFlight.remove(key)
+            }
+        }
+        entry.deferred.start()
+        return entry
+    }
+}
@@ -15,10 +15,10 @@ import android.view.WindowManager
 import android.widget.ImageView
 import android.widget.TextView
 import android.widget.Toast
+import com.ai.bookkeeping.AIBookkeepingApp
 import com.ai.bookkeeping.R
+import com.ai.bookkeeping.ai.AIService
 import com.ai.bookkeeping.ai.WhisperService
-import com.ai.bookkeeping.data.AppDatabase
-import com.ai.bookkeeping.util.AIParser
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.SupervisorJob
@@ -72,6 +72,8 @@ class FloatingWindowService : Service() {
         super.onCreate()
         isRunning = true
         WhisperService.init(this)
+        WhisperService.prewarm(this)
+        AIService.prewarm(this)
         createFloatingWindow()
     }
 
@@ -271,31 +273,36 @@ class FloatingWindowService : Service() {
     private fun parseAndSave(text: String) {
         serviceScope.launch {
             try {
-                val transaction = withContext(Dispatchers.IO) {
-                    AIParser.parse(text)
+                val transactions = withContext(Dispatchers.IO) {
+                    AIService.parseAll(this@FloatingWindowService, text)
                 }
 
-                if (transaction != null) {
-                    // 保存到数据库
+                if (transactions.isNotEmpty()) {
+                    // 保存到数据库，多笔记录一次事务写入
                     withContext(Dispatchers.IO) {
-                        val db = AppDatabase.getDatabase(this@FloatingWindowService)
-                        db.transactionDao().insert(transaction)
+                        (application as AIBookkeepingApp).repository.insertAll(transactions)
                     }
 
                     // 显示成功信息
-                    val typeStr = if (transaction.type == com.ai.bookkeeping.model.TransactionType.EXPENSE) "支出" else "收入"
-                    val dateFormat = SimpleDateFormat("MM月dd日 HH:mm", Locale.CHINA)
-                    val dateStr = dateFormat.format(Date(transaction.date))
+                    val summary = if (transactions.size == 1) {
+                        val transaction = transactions[0]
+                        val typeStr = if (transaction.type == com.ai.bookkeeping.model.TransactionType.EXPENSE) "支出" else "收入"
+                        val dateFormat = SimpleDateFormat("MM月dd日 HH:mm", Locale.CHINA)
+                        val dateStr = dateFormat.format(Date(transaction.date))
+                        "$dateStr ${transaction.category} ${currencyFormat.format(transaction.amount)} ($typeStr)"
+                    } else {
+                        transactions.joinToString("\n") { "${it.category} ${currencyFormat.format(it.amount)}" }
+                    }
 
-                    tvStatus?.text = "记账成功！"
-                    tvResult?.text = "$dateStr ${transaction.category} ${currencyFormat.format(transaction.amount)} ($typeStr)"
+                    tvStatus?.text = if (transactions.size == 1) "记账成功！" else "记账成功！共${transactions.size}笔"
+                    tvResult?.text = summary
                     tvResult?.visibility = View.VISIBLE
                     tvHint?.text = "3秒后自动关闭"
 
                     // 显示Toast
                     Toast.makeText(
                         this@FloatingWindowService,
-                        "已记录: ${transaction.category} ${currencyFormat.format(transaction.amount)}",
+                        "已记录: " + transactions.joinToString("、") { "${it.category} ${currencyFormat.format(it.amount)}" },
                         Toast.LENGTH_SHORT
                     ).show()
 
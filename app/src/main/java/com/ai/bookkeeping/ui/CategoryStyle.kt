@@ -0,0 +1,63 @@
+package com.ai.bookkeeping.ui
+
+import android.graphics.Color
+import com.ai.bookkeeping.R
+import com.ai.bookkeeping.model.TransactionType
+import com.ai.bookkeeping.util.KeywordAutomaton
+
+/**
+ * 分类的图标和颜色
+ * 按分类名中的关键词匹配，多个样式同时命中时取声明靠前的
+ */
+enum class CategoryStyle(
+    val iconRes: Int,
+    private val color: String?,
+    val keywords: List<String>
+) {
+    // iOS system colors
+    FOOD(R.drawable.ic_food, "#FF9500", listOf("餐", "食", "吃")),
+    TRANSPORT(R.drawable.ic_transport, "#5AC8FA", listOf("交通", "车", "油")),
+    SHOPPING(R.drawable.ic_shopping, "#FF2D55", listOf("购物", "买")),
+    ENTERTAINMENT(R.drawable.ic_entertainment, "#AF52DE", listOf("娱乐", "游戏", "电影")),
+    MEDICAL(R.drawable.ic_medical, "#FF3B30", listOf("医", "药")),
+    EDUCATION(R.drawable.ic_education, "#5856D6", listOf("教育", "学", "书")),
+    HOUSING(R.drawable.ic_housing, "#007AFF", listOf("住", "房", "租")),
+    COMMUNICATION(R.drawable.ic_communication, "#34C759", listOf("通讯", "话费", "网")),
+    CLOTHING(R.drawable.ic_clothing, "#FF2D55", listOf("衣", "服")),
+    SALARY(R.drawable.ic_salary, null, listOf("工资", "薪")),
+    BONUS(R.drawable.ic_bonus, null, listOf("奖")),
+    INVESTMENT(R.drawable.ic_investment, null, listOf("投资", "理财")),
+    PART_TIME(R.drawable.ic_parttime, null, listOf("兼职")),
+    RED_PACKET(R.drawable.ic_redpacket, null, listOf("红包")),
+    OTHER(R.drawable.ic_other, null, emptyList());
+
+    /**
+     * 背景色，收入类分类未单独配色时用绿色
+     */
+    fun colorFor(type: TransactionType): Int {
+        return when {
+            color != null -> Color.parseColor(color)
+            type == TransactionType.INCOME -> Color.parseColor("#34C759") // iOS Green
+            else -> Color.parseColor("#8E8E93") // iOS Gray
+        }
+    }
+
+    companion object {
+        private val automaton = KeywordAutomaton(
+            values().flatMap { style -> style.keywords.map { it to style } }
+        )
+
+        // 分类名数量有限，缓存匹配结果（只在主线程使用）
+        private val cache = HashMap<String, CategoryStyle>()
+
+        fun of(category: String): CategoryStyle {
+            return cache.getOrPut(category) {
+                var best = OTHER
+                automaton.forEachMatch(category) { style, _, _ ->
+                    if (style.ordinal < best.ordinal) best = style
+                }
+                best
+            }
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.ai.bookkeeping.ui
 
+import android.content.Intent
+import android.net.Uri
 import android.os.Bundle
 import android.view.LayoutInflater
 import android.view.View
@@ -9,19 +11,31 @@ import android.widget.LinearLayout
 import android.widget.ProgressBar
 import android.widget.TextView
 import android.widget.Toast
+import androidx.activity.result.contract.ActivityResultContracts
+import androidx.core.widget.doAfterTextChanged
 import androidx.fragment.app.Fragment
 import androidx.fragment.app.activityViewModels
+import androidx.lifecycle.lifecycleScope
 import androidx.navigation.fragment.findNavController
 import com.ai.bookkeeping.R
+import com.ai.bookkeeping.ai.AIService
+import com.ai.bookkeeping.data.DatabaseBackup
+import com.ai.bookkeeping.model.Transaction
 import com.ai.bookkeeping.model.TransactionType
 import com.ai.bookkeeping.service.FloatingWindowService
 import com.ai.bookkeeping.util.AIParser
 import com.ai.bookkeeping.viewmodel.TransactionViewModel
 import com.google.android.material.button.MaterialButton
 import com.google.android.material.card.MaterialCardView
+import com.google.android.material.chip.Chip
+import com.google.android.material.dialog.MaterialAlertDialogBuilder
 import com.google.android.material.textfield.TextInputEditText
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.FlowPreview
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.collectLatest
+import kotlinx.coroutines.flow.debounce
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import java.text.NumberFormat
@@ -38,6 +52,7 @@ class HomeFragment : Fragment() {
     private lateinit var tvExpense: TextView
     private lateinit var etAiInput: TextInputEditText
     private lateinit var btnAiRecord: MaterialButton
+    private lateinit var chipParsePreview: Chip
     private lateinit var progressBar: ProgressBar
     private lateinit var btnVoice: View
     private lateinit var btnPhoto: View
@@ -51,6 +66,33 @@ class HomeFragment : Fragment() {
     private lateinit var btnNotebook: View
     private lateinit var btnTransfer: View
     private lateinit var btnImportBill: View
+    private lateinit var btnBackup: View
+
+    // 备份文件创建/选择启动器
+    private val createBackupLauncher = registerForActivityResult(
+        ActivityResultContracts.CreateDocument("application/gzip")
+    ) { uri -> uri?.let { backupTo(it) } }
+
+    private val createDeltaBackupLauncher = registerForActivityResult(
+        ActivityResultContracts.CreateDocument("application/gzip")
+    ) { uri -> uri?.let { deltaBackupTo(it) } }
+
+    private val openBackupLauncher = registerForActivityResult(
+        ActivityResultContracts.OpenDocument()
+    ) { uri -> uri?.let { askForDeltas(it) } }
+
+    private val openDeltasLauncher = registerForActivityResult(
+        ActivityResultContracts.OpenMultipleDocuments()
+    ) { uris -> pendingRestoreBase?.let { confirmRestore(it, uris) } }
+
+    // 恢复时已选择的完整备份，等待选择增量备份
+    private var pendingRestoreBase: Uri? = null
+
+    // 输入框内容，边输入边在后台解析
+    private val aiInput = MutableStateFlow("")
+
+    // 最近一次实时解析的输入及本地解析结果，点击记账时若输入未变不再重复本地解析
+    private var preview: Pair<String, List<AIParser.ScoredTransaction>>? = null
 
     override fun onCreateView(
         inflater: LayoutInflater,
@@ -73,6 +115,7 @@ class HomeFragment : Fragment() {
         tvExpense = view.findViewById(R.id.tv_expense)
         etAiInput = view.findViewById(R.id.et_ai_input)
         btnAiRecord = view.findViewById(R.id.btn_ai_record)
+        chipParsePreview = view.findViewById(R.id.chip_parse_preview)
         progressBar = view.findViewById(R.id.progress_bar)
         btnVoice = view.findViewById(R.id.btn_voice_record)
         btnPhoto = view.findViewById(R.id.btn_photo_record)
@@ -86,6 +129,7 @@ class HomeFragment : Fragment() {
         btnNotebook = view.findViewById(R.id.btn_notebook)
         btnTransfer = view.findViewById(R.id.btn_transfer)
         btnImportBill = view.findViewById(R.id.btn_import_bill)
+        btnBackup = view.findViewById(R.id.btn_backup)
     }
 
     private fun setupObservers() {
@@ -96,6 +140,44 @@ class HomeFragment : Fragment() {
         viewModel.currentMonthExpense.observe(viewLifecycleOwner) { expense ->
             tvExpense.text = currencyFormat.format(expense ?: 0.0)
         }
+
+        observeParsePreview()
+    }
+
+    /**
+     * 实时解析预览：输入停顿后用本地解析器在后台解析，新的输入到来时取消尚未完成的解析
+     */
+    @OptIn(FlowPreview::class)
+    private fun observeParsePreview() {
+        etAiInput.doAfterTextChanged { aiInput.value = it?.toString()?.trim().orEmpty() }
+
+        viewLifecycleOwner.lifecycleScope.launch {
+            aiInput.debounce(PREVIEW_DEBOUNCE_MS).collectLatest { input ->
+                if (input.isEmpty()) {
+                    preview = null
+                    chipParsePreview.visibility = View.GONE
+                    return@collectLatest
+                }
+                val results = withContext(Dispatchers.Default) { AIParser.parseAllScored(input) }
+                preview = input to results
+                if (results.isEmpty()) {
+                    chipParsePreview.text = "未识别到金额"
+                } else {
+                    chipParsePreview.text = describePreview(results.map { it.transaction })
+                }
+                chipParsePreview.visibility = View.VISIBLE
+            }
+        }
+    }
+
+    private fun describePreview(results: List<Transaction>): String {
+        if (results.size == 1) {
+            val result = results[0]
+            val typeStr = if (result.type == TransactionType.EXPENSE) "支出" else "收入"
+            val dateStr = SimpleDateFormat("MM月dd日 HH:mm", Locale.CHINA).format(Date(result.date))
+            return "$typeStr ${currencyFormat.format(result.amount)} · ${result.category} · $dateStr"
+        }
+        return "${results.size}笔 · 合计 ${currencyFormat.format(results.sumOf { it.amount })}"
     }
 
     private fun setupClickListeners() {
@@ -106,7 +188,8 @@ class HomeFragment : Fragment() {
                 Toast.makeText(requireContext(), "请输入记账内容", Toast.LENGTH_SHORT).show()
                 return@setOnClickListener
             }
-            parseAndSave(input)
+            // 预览已解析过当前输入时沿用其本地结果，只对置信度不足的几笔请求大模型
+            parseAndSave(input, preview?.takeIf { it.first == input }?.second)
         }
 
         // 语音记账
@@ -170,6 +253,129 @@ class HomeFragment : Fragment() {
         btnImportBill.setOnClickListener {
             findNavController().navigate(R.id.action_home_to_import)
         }
+
+        // 数据备份与恢复
+        btnBackup.setOnClickListener {
+            showBackupDialog()
+        }
+    }
+
+    private fun showBackupDialog() {
+        val options = arrayOf("完整备份", "增量备份（仅上次备份后的变动）", "从备份恢复")
+
+        MaterialAlertDialogBuilder(requireContext())
+            .setTitle("数据备份与恢复")
+            .setItems(options) { _, which ->
+                val time = SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(Date())
+                when (which) {
+                    0 -> createBackupLauncher.launch("AI记账备份_$time.db.gz")
+                    1 -> createDeltaBackupLauncher.launch("AI记账增量备份_$time.delta.gz")
+                    2 -> openBackupLauncher.launch(BACKUP_MIME_TYPES)
+                }
+            }
+            .show()
+    }
+
+    private fun deltaBackupTo(uri: Uri) {
+        progressBar.visibility = View.VISIBLE
+
+        viewLifecycleOwner.lifecycleScope.launch {
+            val result = DatabaseBackup.backupDelta(requireContext(), uri)
+            progressBar.visibility = View.GONE
+
+            result.fold(
+                onSuccess = { info ->
+                    Toast.makeText(
+                        requireContext(),
+                        "增量备份完成：更新${info.upsertCount}条，删除${info.deleteCount}条",
+                        Toast.LENGTH_LONG
+                    ).show()
+                },
+                onFailure = { error ->
+                    Toast.makeText(requireContext(), "备份失败: ${error.message}", Toast.LENGTH_SHORT).show()
+                }
+            )
+        }
+    }
+
+    /**
+     * 选好完整备份后，询问是否还要重放增量备份
+     */
+    private fun askForDeltas(base: Uri) {
+        pendingRestoreBase = base
+
+        MaterialAlertDialogBuilder(requireContext())
+            .setTitle("从备份恢复")
+            .setMessage("是否还有基于该完整备份的增量备份需要一起恢复？")
+            .setPositiveButton("选择增量备份") { _, _ -> openDeltasLauncher.launch(BACKUP_MIME_TYPES) }
+            .setNegativeButton("仅完整备份") { _, _ -> confirmRestore(base, emptyList()) }
+            .show()
+    }
+
+    private fun backupTo(uri: Uri) {
+        progressBar.visibility = View.VISIBLE
+
+        viewLifecycleOwner.lifecycleScope.launch {
+            val result = DatabaseBackup.backup(requireContext(), uri)
+            progressBar.visibility = View.GONE
+
+            result.fold(
+                onSuccess = { info ->
+                    val sizeMb = info.databaseBytes / 1024.0 / 1024.0
+                    Toast.makeText(
+                        requireContext(),
+                        "备份完成（%.1f MB，用时%d毫秒）".format(sizeMb, info.elapsedMillis),
+                        Toast.LENGTH_LONG
+                    ).show()
+                },
+                onFailure = { error ->
+                    Toast.makeText(requireContext(), "备份失败: ${error.message}", Toast.LENGTH_SHORT).show()
+                }
+            )
+        }
+    }
+
+    private fun confirmRestore(uri: Uri, deltas: List<Uri>) {
+        pendingRestoreBase = null
+        val deltaText = if (deltas.isEmpty()) "" else "（含${deltas.size}个增量备份）"
+
+        MaterialAlertDialogBuilder(requireContext())
+            .setTitle("从备份恢复")
+            .setMessage("当前所有数据将被备份中的数据$deltaText替换，恢复后应用会重新启动。确定继续吗？")
+            .setPositiveButton("恢复") { _, _ -> restoreFrom(uri, deltas) }
+            .setNegativeButton("取消", null)
+            .show()
+    }
+
+    private fun restoreFrom(uri: Uri, deltas: List<Uri>) {
+        progressBar.visibility = View.VISIBLE
+        val context = requireContext().applicationContext
+
+        viewLifecycleOwner.lifecycleScope.launch {
+            val result = DatabaseBackup.restore(context, uri, deltas)
+            progressBar.visibility = View.GONE
+
+            result.fold(
+                onSuccess = {
+                    Toast.makeText(context, "恢复完成，正在重新启动", Toast.LENGTH_SHORT).show()
+                    restartApp()
+                },
+                onFailure = { error ->
+                    Toast.makeText(context, "恢复失败: ${error.message}", Toast.LENGTH_LONG).show()
+                }
+            )
+        }
+    }
+
+    /**
+     * 数据库文件已替换，各仓库仍持有旧数据库的DAO，直接重启进程
+     */
+    private fun restartApp() {
+        val context = requireContext().applicationContext
+        val intent = context.packageManager.getLaunchIntentForPackage(context.packageName) ?: return
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK or Intent.FLAG_ACTIVITY_CLEAR_TASK)
+        context.startActivity(intent)
+        Runtime.getRuntime().exit(0)
     }
 
     private fun showTransferDialog() {
@@ -177,29 +383,27 @@ class HomeFragment : Fragment() {
         dialog.show(parentFragmentManager, "transfer")
     }
 
-    private fun parseAndSave(input: String) {
+    /**
+     * @param local 实时预览已得到的本地解析结果，没有时重新解析
+     */
+    private fun parseAndSave(input: String, local: List<AIParser.ScoredTransaction>?) {
         progressBar.visibility = View.VISIBLE
         btnAiRecord.isEnabled = false
+        val appContext = requireContext().applicationContext
 
         CoroutineScope(Dispatchers.IO).launch {
             try {
-                val result = AIParser.parse(input)
+                val results = if (local != null) {
+                    AIService.resolveAll(appContext, input, local)
+                } else {
+                    AIService.parseAll(appContext, input)
+                }
                 withContext(Dispatchers.Main) {
                     progressBar.visibility = View.GONE
                     btnAiRecord.isEnabled = true
 
-                    if (result != null) {
-                        viewModel.insert(result)
-                        etAiInput.text?.clear()
-                        val typeStr = if (result.type == TransactionType.EXPENSE) "支出" else "收入"
-                        // 格式化解析的日期时间
-                        val dateFormat = SimpleDateFormat("MM月dd日 HH:mm", Locale.CHINA)
-                        val dateStr = dateFormat.format(Date(result.date))
-                        Toast.makeText(
-                            requireContext(),
-                            "已记录: $dateStr ${result.category} ${currencyFormat.format(result.amount)} ($typeStr)",
-                            Toast.LENGTH_LONG
-                        ).show()
+                    if (results.isNotEmpty()) {
+                        save(results)
                     } else {
                         Toast.makeText(requireContext(), "无法解析，请重新描述", Toast.LENGTH_SHORT).show()
                     }
@@ -214,6 +418,27 @@ class HomeFragment : Fragment() {
         }
     }
 
+    private fun save(results: List<Transaction>) {
+        // 一句话里的多笔记录一次写入
+        viewModel.insertAll(results)
+        etAiInput.text?.clear()
+        Toast.makeText(requireContext(), describeRecorded(results), Toast.LENGTH_LONG).show()
+    }
+
+    private fun describeRecorded(results: List<Transaction>): String {
+        if (results.size == 1) {
+            val result = results[0]
+            val typeStr = if (result.type == TransactionType.EXPENSE) "支出" else "收入"
+            // 格式化解析的日期时间
+            val dateFormat = SimpleDateFormat("MM月dd日 HH:mm", Locale.CHINA)
+            val dateStr = dateFormat.format(Date(result.date))
+            return "已记录: $dateStr ${result.category} ${currencyFormat.format(result.amount)} ($typeStr)"
+        }
+        return "已记录${results.size}笔: " + results.joinToString("、") {
+            "${it.description} ${currencyFormat.format(it.amount)}"
+        }
+    }
+
     private fun showQuickAddDialog(type: TransactionType) {
         val dialog = QuickAddDialogFragment.newInstance(type)
         dialog.setOnSaveListener { transaction ->
@@ -231,4 +456,9 @@ class HomeFragment : Fragment() {
             ivFloatingIcon.setImageResource(R.drawable.ic_mic)
         }
     }
+
+    companion object {
+        private const val PREVIEW_DEBOUNCE_MS = 250L
+        private val BACKUP_MIME_TYPES = arrayOf("application/gzip", "application/x-gzip", "application/octet-stream")
+    }
 }
@@ -14,14 +14,24 @@ import android.widget.Toast
 import androidx.appcompat.app.AlertDialog
 import androidx.fragment.app.Fragment
 import androidx.fragment.app.viewModels
+import androidx.lifecycle.lifecycleScope
 import androidx.recyclerview.widget.LinearLayoutManager
 import androidx.recyclerview.widget.RecyclerView
+import androidx.work.WorkInfo
+import androidx.work.WorkManager
 import com.ai.bookkeeping.R
 import com.ai.bookkeeping.adapter.CategoryRankAdapter
 import com.ai.bookkeeping.ai.AIService
+import com.ai.bookkeeping.ai.LlmRouter
+import com.ai.bookkeeping.ai.ParseStats
+import com.ai.bookkeeping.ai.TokenStats
 import com.ai.bookkeeping.model.TransactionType
+import com.ai.bookkeeping.network.CircuitBreaker
 import com.ai.bookkeeping.util.ExportUtil
+import com.ai.bookkeeping.util.ParseMetrics
+import com.ai.bookkeeping.util.export.ExportFormat
 import com.ai.bookkeeping.viewmodel.StatisticsViewModel
+import com.ai.bookkeeping.worker.ExportWorker
 import com.github.mikephil.charting.charts.BarChart
 import com.github.mikephil.charting.charts.LineChart
 import com.github.mikephil.charting.charts.PieChart
@@ -33,8 +43,10 @@ import com.google.android.material.button.MaterialButton
 import com.google.android.material.card.MaterialCardView
 import com.google.android.material.chip.Chip
 import com.google.android.material.dialog.MaterialAlertDialogBuilder
+import com.google.android.material.switchmaterial.SwitchMaterial
 import com.google.android.material.tabs.TabLayout
 import com.google.android.material.textfield.TextInputEditText
+import kotlinx.coroutines.launch
 import java.text.NumberFormat
 import java.text.SimpleDateFormat
 import java.util.*
@@ -45,6 +57,9 @@ class StatisticsFragment : Fragment() {
     private val currencyFormat = NumberFormat.getCurrencyInstance(Locale.CHINA)
     private val dateFormat = SimpleDateFormat("yyyy年MM月dd日", Locale.CHINA)
 
+    // 本页提交、尚未结束的导出任务（用于结束时逐个提示）
+    private val awaitingExports = mutableSetOf<UUID>()
+
     // Views
     private lateinit var chipToday: Chip
     private lateinit var chipWeek: Chip
@@ -105,6 +120,19 @@ class StatisticsFragment : Fragment() {
         setupRecyclerView()
         setupListeners()
         setupObservers()
+
+        // 页面上有AI分析，提前建立连接
+        AIService.prewarm(requireContext())
+
+        savedInstanceState?.getStringArrayList(STATE_AWAITING_EXPORT)?.forEach {
+            awaitingExports.add(UUID.fromString(it))
+        }
+        observeExportWork()
+    }
+
+    override fun onSaveInstanceState(outState: Bundle) {
+        super.onSaveInstanceState(outState)
+        outState.putStringArrayList(STATE_AWAITING_EXPORT, ArrayList(awaitingExports.map { it.toString() }))
     }
 
     private fun initViews(view: View) {
@@ -303,6 +331,13 @@ class StatisticsFragment : Fragment() {
             }
         }
 
+        // AI服务熔断时在按钮上提示，记账解析此时直接使用本地结果
+        viewLifecycleOwner.lifecycleScope.launch {
+            AIService.circuitState.collect { state ->
+                btnAiAnalyze.text = if (state == CircuitBreaker.State.OPEN) "AI暂不可用" else "AI分析"
+            }
+        }
+
         viewModel.analysisError.observe(viewLifecycleOwner) { error ->
             if (error != null) {
                 cardAiAnalysis.visibility = View.VISIBLE
@@ -480,8 +515,12 @@ class StatisticsFragment : Fragment() {
             etApiKey.setText(currentKey)
         }
 
+        val cooldown = AIService.circuitCooldownMillis()
         MaterialAlertDialogBuilder(requireContext())
             .setTitle("设置AI API密钥")
+            .apply {
+                if (cooldown > 0) setMessage("AI服务连续请求失败，${(cooldown + 999) / 1000}秒内暂停请求，期间记账使用本地解析")
+            }
             .setView(dialogView)
             .setPositiveButton("保存") { _, _ ->
                 val apiKey = etApiKey.text.toString().trim()
@@ -491,15 +530,111 @@ class StatisticsFragment : Fragment() {
                 }
             }
             .setNegativeButton("取消", null)
+            .setNeutralButton("更多服务商") { _, _ -> showLlmProvidersDialog() }
+            .show()
+    }
+
+    private fun showLlmProvidersDialog() {
+        val dialogView = LayoutInflater.from(requireContext())
+            .inflate(R.layout.dialog_llm_providers, null)
+
+        val etSiliconFlowKey = dialogView.findViewById<TextInputEditText>(R.id.etSiliconFlowKey)
+        val etCustomUrl = dialogView.findViewById<TextInputEditText>(R.id.etCustomUrl)
+        val etCustomModel = dialogView.findViewById<TextInputEditText>(R.id.etCustomModel)
+        val etCustomKey = dialogView.findViewById<TextInputEditText>(R.id.etCustomKey)
+        val switchHedging = dialogView.findViewById<SwitchMaterial>(R.id.switchHedging)
+        val tvProviderStats = dialogView.findViewById<TextView>(R.id.tvProviderStats)
+        val tvParseStats = dialogView.findViewById<TextView>(R.id.tvParseStats)
+        val tvTokenStats = dialogView.findViewById<TextView>(R.id.tvTokenStats)
+        val tvParseMetrics = dialogView.findViewById<TextView>(R.id.tvParseMetrics)
+
+        val settings = LlmRouter.getSettings(requireContext())
+        etSiliconFlowKey.setText(settings.siliconFlowApiKey)
+        etCustomUrl.setText(settings.customUrl)
+        etCustomModel.setText(settings.customModel)
+        etCustomKey.setText(settings.customApiKey)
+        switchHedging.isChecked = settings.hedging
+
+        val stats = LlmRouter.stats(requireContext()).filterValues { it.samples > 0 }
+        if (stats.isNotEmpty()) {
+            tvProviderStats.text = stats.entries.joinToString("\n") { (provider, snapshot) ->
+                val latency = if (snapshot.p50 >= 0) "延迟 ${snapshot.p50}/${snapshot.p95}ms" else "延迟 -"
+                "${provider.name}：$latency，错误率 ${(snapshot.errorRate * 100).toInt()}%（最近${snapshot.samples}次）"
+            }
+            tvProviderStats.visibility = View.VISIBLE
+        }
+
+        // 记账解析各层给出结果的次数和平均耗时，衡量本地优先省下的请求
+        val tiers = ParseStats.snapshot(requireContext()).filterValues { it.count > 0 }
+        if (tiers.isNotEmpty()) {
+            val parses = tiers.values.sumOf { it.count }
+            tvParseStats.text = "记账解析（共${parses}次）\n" + tiers.entries.joinToString("\n") { (tier, stats) ->
+                "${parseTierName(tier)}：${stats.count}次（${stats.count * 100 / parses}%），平均 ${stats.averageMillis}ms"
+            }
+            tvParseStats.visibility = View.VISIBLE
+        }
+
+        // 各模板每次请求的平均token数，以及提示词命中服务端前缀缓存的比例
+        val usage = TokenStats.snapshot(requireContext()).filterValues { it.requests > 0 }
+        if (usage.isNotEmpty()) {
+            tvTokenStats.text = "token用量（按模板）\n" + usage.entries.sortedBy { it.key }.joinToString("\n") { (tag, stats) ->
+                val cachedPercent = if (stats.promptTokens > 0) stats.cachedPromptTokens * 100 / stats.promptTokens else 0
+                "$tag：${stats.requests}次，平均提示词 ${stats.averagePromptTokens}（缓存命中 $cachedPercent%），" +
+                    "平均生成 ${stats.averageCompletionTokens}"
+            }
+            tvTokenStats.visibility = View.VISIBLE
+        }
+
+        // 本次启动以来解析流水线各阶段的耗时，按总耗时从高到低
+        val stages = ParseMetrics.snapshot()
+        if (stages.isNotEmpty()) {
+            tvParseMetrics.text = "解析各阶段耗时（本次启动以来）\n" + stages.joinToString("\n") { stage ->
+                "${stage.stage}：平均 %.2fms，最长 %.2fms（${stage.count}次）".format(
+                    stage.averageNanos / 1_000_000.0,
+                    stage.maxNanos / 1_000_000.0
+                )
+            }
+            tvParseMetrics.visibility = View.VISIBLE
+        }
+
+        MaterialAlertDialogBuilder(requireContext())
+            .setTitle("AI服务商")
+            .setView(dialogView)
+            .setPositiveButton("保存") { _, _ ->
+                LlmRouter.saveSettings(
+                    requireContext(),
+                    LlmRouter.Settings(
+                        siliconFlowApiKey = etSiliconFlowKey.text.toString().trim(),
+                        customUrl = etCustomUrl.text.toString().trim(),
+                        customModel = etCustomModel.text.toString().trim(),
+                        customApiKey = etCustomKey.text.toString().trim(),
+                        hedging = switchHedging.isChecked
+                    )
+                )
+                Toast.makeText(requireContext(), "服务商设置已保存", Toast.LENGTH_SHORT).show()
+            }
+            .setNegativeButton("取消", null)
             .show()
     }
 
+    private fun parseTierName(tier: ParseStats.Tier): String = when (tier) {
+        ParseStats.Tier.CACHE -> "命中缓存"
+        ParseStats.Tier.LOCAL -> "本地解析"
+        ParseStats.Tier.LLM -> "大模型解析"
+        ParseStats.Tier.LOCAL_FALLBACK -> "请求失败退回本地"
+    }
+
     private fun showExportDialog() {
-        val options = arrayOf("导出为CSV文件", "导出为TXT文件")
+        val options = arrayOf("导出为CSV文件", "导出为TXT文件", "导出本期明细…", "导出全部历史…")
 
         MaterialAlertDialogBuilder(requireContext())
             .setTitle("导出统计报告")
             .setItems(options) { _, which ->
+                if (which == 2 || which == 3) {
+                    showExportFormatDialog(allHistory = which == 3)
+                    return@setItems
+                }
+
                 val exportData = viewModel.getExportData()
                 val result = when (which) {
                     0 -> ExportUtil.exportToCsv(requireContext(), exportData)
@@ -518,4 +653,50 @@ class StatisticsFragment : Fragment() {
             }
             .show()
     }
+
+    /**
+     * 选择明细导出格式，数据量可能很大，交给后台任务流式写入
+     */
+    private fun showExportFormatDialog(allHistory: Boolean) {
+        val formats = ExportFormat.values()
+
+        MaterialAlertDialogBuilder(requireContext())
+            .setTitle(if (allHistory) "导出全部历史" else "导出本期明细")
+            .setItems(formats.map { it.displayName }.toTypedArray()) { _, which ->
+                val queued = awaitingExports.isNotEmpty()
+                val id = if (allHistory) {
+                    ExportWorker.enqueue(requireContext(), formats[which])
+                } else {
+                    val exportData = viewModel.getExportData()
+                    ExportWorker.enqueue(requireContext(), formats[which], exportData.startDate, exportData.endDate)
+                }
+                awaitingExports.add(id)
+                val message = if (queued) "已有导出在进行，完成后接着导出" else "正在后台导出，可在通知栏查看进度"
+                Toast.makeText(requireContext(), message, Toast.LENGTH_SHORT).show()
+            }
+            .show()
+    }
+
+    private fun observeExportWork() {
+        WorkManager.getInstance(requireContext())
+            .getWorkInfosForUniqueWorkLiveData(ExportWorker.UNIQUE_WORK_NAME)
+            .observe(viewLifecycleOwner) { infos ->
+                // 多个导出排队执行，按ID找到本页提交的那几个，各自提示结果
+                for (info in infos) {
+                    if (!info.state.isFinished || !awaitingExports.remove(info.id)) continue
+
+                    if (info.state == WorkInfo.State.SUCCEEDED) {
+                        val path = info.outputData.getString(ExportWorker.KEY_PATH)
+                        Toast.makeText(requireContext(), "导出成功: $path", Toast.LENGTH_LONG).show()
+                    } else {
+                        val error = info.outputData.getString(ExportWorker.KEY_ERROR) ?: "导出已取消"
+                        Toast.makeText(requireContext(), "导出失败: $error", Toast.LENGTH_SHORT).show()
+                    }
+                }
+            }
+    }
+
+    companion object {
+        private const val STATE_AWAITING_EXPORT = "awaiting_export"
+    }
 }
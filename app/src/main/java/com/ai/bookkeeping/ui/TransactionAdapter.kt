@@ -1,6 +1,5 @@
 package com.ai.bookkeeping.ui
 
-import android.graphics.Color
 import android.graphics.drawable.GradientDrawable
 import android.view.LayoutInflater
 import android.view.View
@@ -55,10 +54,10 @@ class TransactionAdapter(
             tvDescription.text = "$desc · $date"
 
             // Set category icon and color
-            val iconResId = getCategoryIcon(transaction.category)
-            ivCategoryIcon.setImageResource(iconResId)
+            val style = CategoryStyle.of(transaction.category)
+            ivCategoryIcon.setImageResource(style.iconRes)
 
-            val bgColor = getCategoryColor(transaction.category, transaction.type)
+            val bgColor = style.colorFor(transaction.type)
             val bgDrawable = viewCategoryBg.background as? GradientDrawable
                 ?: GradientDrawable().also { viewCategoryBg.background = it }
             bgDrawable.shape = GradientDrawable.OVAL
@@ -85,43 +84,6 @@ class TransactionAdapter(
             itemView.setOnClickListener { onItemClick(transaction) }
             btnDelete.setOnClickListener { onDeleteClick(transaction) }
         }
-
-        private fun getCategoryIcon(category: String): Int {
-            return when {
-                category.contains("餐") || category.contains("食") || category.contains("吃") -> R.drawable.ic_food
-                category.contains("交通") || category.contains("车") || category.contains("油") -> R.drawable.ic_transport
-                category.contains("购物") || category.contains("买") -> R.drawable.ic_shopping
-                category.contains("娱乐") || category.contains("游戏") || category.contains("电影") -> R.drawable.ic_entertainment
-                category.contains("医") || category.contains("药") -> R.drawable.ic_medical
-                category.contains("教育") || category.contains("学") || category.contains("书") -> R.drawable.ic_education
-                category.contains("住") || category.contains("房") || category.contains("租") -> R.drawable.ic_housing
-                category.contains("通讯") || category.contains("话费") || category.contains("网") -> R.drawable.ic_communication
-                category.contains("衣") || category.contains("服") -> R.drawable.ic_clothing
-                category.contains("工资") || category.contains("薪") -> R.drawable.ic_salary
-                category.contains("奖") -> R.drawable.ic_bonus
-                category.contains("投资") || category.contains("理财") -> R.drawable.ic_investment
-                category.contains("兼职") -> R.drawable.ic_parttime
-                category.contains("红包") -> R.drawable.ic_redpacket
-                else -> R.drawable.ic_other
-            }
-        }
-
-        private fun getCategoryColor(category: String, type: TransactionType): Int {
-            // iOS system colors
-            return when {
-                category.contains("餐") || category.contains("食") || category.contains("吃") -> Color.parseColor("#FF9500") // iOS Orange
-                category.contains("交通") || category.contains("车") || category.contains("油") -> Color.parseColor("#5AC8FA") // iOS Cyan
-                category.contains("购物") || category.contains("买") -> Color.parseColor("#FF2D55") // iOS Pink
-                category.contains("娱乐") || category.contains("游戏") || category.contains("电影") -> Color.parseColor("#AF52DE") // iOS Purple
-                category.contains("医") || category.contains("药") -> Color.parseColor("#FF3B30") // iOS Red
-                category.contains("教育") || category.contains("学") || category.contains("书") -> Color.parseColor("#5856D6") // iOS Indigo
-                category.contains("住") || category.contains("房") || category.contains("租") -> Color.parseColor("#007AFF") // iOS Blue
-                category.contains("通讯") || category.contains("话费") || category.contains("网") -> Color.parseColor("#34C759") // iOS Green
-                category.contains("衣") || category.contains("服") -> Color.parseColor("#FF2D55") // iOS Pink
-                type == TransactionType.INCOME -> Color.parseColor("#34C759") // iOS Green
-                else -> Color.parseColor("#8E8E93") // iOS Gray
-            }
-        }
     }
 }
 
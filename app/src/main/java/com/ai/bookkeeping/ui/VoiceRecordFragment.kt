@@ -12,10 +12,10 @@ import androidx.core.content.ContextCompat
 import androidx.fragment.app.Fragment
 import androidx.fragment.app.activityViewModels
 import com.ai.bookkeeping.R
+import com.ai.bookkeeping.ai.AIService
 import com.ai.bookkeeping.ai.WhisperService
 import com.ai.bookkeeping.databinding.FragmentVoiceRecordBinding
 import com.ai.bookkeeping.model.TransactionType
-import com.ai.bookkeeping.util.AIParser
 import com.ai.bookkeeping.viewmodel.TransactionViewModel
 import com.google.android.material.dialog.MaterialAlertDialogBuilder
 import com.google.android.material.textfield.TextInputEditText
@@ -64,8 +64,10 @@ class VoiceRecordFragment : Fragment() {
     override fun onViewCreated(view: View, savedInstanceState: Bundle?) {
         super.onViewCreated(view, savedInstanceState)
 
-        // 初始化 Whisper 服务
+        // 初始化 Whisper 服务，同时预热语音转写和文本解析两个接口的连接
         WhisperService.init(requireContext())
+        WhisperService.prewarm(requireContext())
+        AIService.prewarm(requireContext())
 
         setupUI()
         setupClickListeners()
@@ -203,19 +205,30 @@ class VoiceRecordFragment : Fragment() {
     }
 
     private fun parseAndSave(text: String) {
+        val appContext = requireContext().applicationContext
         CoroutineScope(Dispatchers.IO).launch {
             try {
-                val result = AIParser.parse(text)
+                val results = AIService.parseAll(appContext, text)
                 withContext(Dispatchers.Main) {
-                    if (result != null) {
-                        // 显示解析结果
+                    if (results.isNotEmpty()) {
+                        // 显示解析结果，一句话说了多笔时显示合计
+                        val type = results.map { it.type }.distinct().singleOrNull()
+                        val isIncome = type == TransactionType.INCOME
+                        val typeStr = when (type) {
+                            TransactionType.EXPENSE -> "支出"
+                            TransactionType.INCOME -> "收入"
+                            null -> "收支"
+                        }
+                        val total = results.sumOf {
+                            if (type == null && it.type == TransactionType.EXPENSE) -it.amount else it.amount
+                        }
+
                         binding.cardResult.visibility = View.VISIBLE
-                        val typeStr = if (result.type == TransactionType.EXPENSE) "支出" else "收入"
-                        binding.tvResultType.text = typeStr
-                        binding.tvResultCategory.text = result.category
-                        binding.tvResultAmount.text = currencyFormat.format(result.amount)
+                        binding.tvResultType.text = if (results.size > 1) "$typeStr ${results.size}笔" else typeStr
+                        binding.tvResultCategory.text = results.map { it.category }.distinct().joinToString("、")
+                        binding.tvResultAmount.text = currencyFormat.format(total)
                         binding.tvResultAmount.setTextColor(
-                            if (result.type == TransactionType.EXPENSE)
+                            if (!isIncome)
                                 ContextCompat.getColor(requireContext(), R.color.expense_red)
                             else
                                 ContextCompat.getColor(requireContext(), R.color.income_green)
@@ -223,25 +236,28 @@ class VoiceRecordFragment : Fragment() {
 
                         // 更新卡片背景色
                         binding.cardResult.setCardBackgroundColor(
-                            if (result.type == TransactionType.EXPENSE)
+                            if (!isIncome)
                                 ContextCompat.getColor(requireContext(), R.color.expense_red_bg)
                             else
                                 ContextCompat.getColor(requireContext(), R.color.income_green_bg)
                         )
 
-                        // 保存到数据库
-                        viewModel.insert(result)
+                        // 保存到数据库（一次事务）
+                        viewModel.insertAll(results)
 
                         // 格式化解析的日期时间
                         val dateFormat = SimpleDateFormat("MM月dd日 HH:mm", Locale.CHINA)
-                        val dateStr = dateFormat.format(Date(result.date))
+                        val dateStr = dateFormat.format(Date(results[0].date))
                         binding.tvStatus.text = "记账成功！($dateStr)"
 
-                        Toast.makeText(
-                            requireContext(),
-                            "已记录: $dateStr ${result.category} ${currencyFormat.format(result.amount)}",
-                            Toast.LENGTH_SHORT
-                        ).show()
+                        val message = if (results.size == 1) {
+                            "已记录: $dateStr ${results[0].category} ${currencyFormat.format(results[0].amount)}"
+                        } else {
+                            "已记录${results.size}笔: " + results.joinToString("、") {
+                                "${it.description} ${currencyFormat.format(it.amount)}"
+                            }
+                        }
+                        Toast.makeText(requireContext(), message, Toast.LENGTH_SHORT).show()
                     } else {
                         binding.tvStatus.text = "无法解析，请换一种说法"
                         binding.cardResult.visibility = View.GONE
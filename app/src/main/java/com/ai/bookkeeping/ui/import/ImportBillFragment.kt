@@ -1,5 +1,6 @@
 package com.ai.bookkeeping.ui.import
 
+import android.content.Intent
 import android.net.Uri
 import android.os.Bundle
 import android.view.LayoutInflater
@@ -8,37 +9,47 @@ import android.view.ViewGroup
 import android.widget.Toast
 import androidx.activity.result.contract.ActivityResultContracts
 import androidx.fragment.app.Fragment
-import androidx.fragment.app.activityViewModels
+import androidx.lifecycle.lifecycleScope
 import androidx.navigation.fragment.findNavController
+import androidx.work.WorkInfo
+import androidx.work.WorkManager
 import com.ai.bookkeeping.R
 import com.ai.bookkeeping.databinding.FragmentImportBillBinding
-import com.ai.bookkeeping.model.Transaction
 import com.ai.bookkeeping.util.BillParser
-import com.ai.bookkeeping.viewmodel.TransactionViewModel
-import kotlinx.coroutines.CoroutineScope
+import com.ai.bookkeeping.worker.ImportBillWorker
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 
 /**
  * 账单导入Fragment
+ * 选择文件后先预览解析条数，导入交由 [ImportBillWorker] 在后台完成，
+ * 离开页面或进程被杀后导入仍会从断点继续
  */
 class ImportBillFragment : Fragment() {
 
     private var _binding: FragmentImportBillBinding? = null
     private val binding get() = _binding!!
 
-    private val viewModel: TransactionViewModel by activityViewModels()
-
     private var selectedUri: Uri? = null
-    private var parsedTransactions: List<Transaction> = emptyList()
+    private var parsedCount = 0
     private var currentSource = BillParser.BillSource.WECHAT
 
-    // 文件选择启动器
+    // 是否在等待后台导入结果（仅对本页面发起或正在进行的导入显示结果）
+    private var awaitingImport = false
+
+    // 文件选择启动器（持久化读取权限，后台任务在进程重启后仍可读取文件）
     private val selectFileLauncher = registerForActivityResult(
-        ActivityResultContracts.GetContent()
+        ActivityResultContracts.OpenDocument()
     ) { uri ->
         uri?.let {
+            try {
+                requireContext().contentResolver.takePersistableUriPermission(
+                    it, Intent.FLAG_GRANT_READ_URI_PERMISSION
+                )
+            } catch (e: SecurityException) {
+                // 部分文件提供方不支持持久授权，仅影响进程重启后的续传
+            }
             selectedUri = it
             parseFile(it)
         }
@@ -56,7 +67,15 @@ class ImportBillFragment : Fragment() {
     override fun onViewCreated(view: View, savedInstanceState: Bundle?) {
         super.onViewCreated(view, savedInstanceState)
 
+        awaitingImport = savedInstanceState?.getBoolean(STATE_AWAITING_IMPORT) ?: false
+
         setupListeners()
+        observeImportWork()
+    }
+
+    override fun onSaveInstanceState(outState: Bundle) {
+        super.onSaveInstanceState(outState)
+        outState.putBoolean(STATE_AWAITING_IMPORT, awaitingImport)
     }
 
     private fun setupListeners() {
@@ -73,7 +92,7 @@ class ImportBillFragment : Fragment() {
 
         // 选择文件
         binding.btnSelectFile.setOnClickListener {
-            selectFileLauncher.launch("text/*")
+            selectFileLauncher.launch(BILL_MIME_TYPES)
         }
 
         // 开始导入
@@ -88,99 +107,132 @@ class ImportBillFragment : Fragment() {
         binding.progressBar.isIndeterminate = true
         binding.btnImport.isEnabled = false
 
-        CoroutineScope(Dispatchers.IO).launch {
+        val source = currentSource
+        viewLifecycleOwner.lifecycleScope.launch {
             try {
-                val inputStream = requireContext().contentResolver.openInputStream(uri)
-                if (inputStream == null) {
-                    withContext(Dispatchers.Main) {
-                        showError("无法读取文件")
+                // 预览只统计条数，不在内存中保留解析结果
+                val context = requireContext().applicationContext
+                val result = withContext(Dispatchers.IO) {
+                    BillParser.useRows(context, uri, source) { rows ->
+                        BillParser.parse(rows, source, collect = false)
                     }
+                }
+                if (result == null) {
+                    showError("无法读取文件")
                     return@launch
                 }
+                parsedCount = result.successCount
 
-                val result = BillParser.parseCSV(inputStream, currentSource)
-                parsedTransactions = result.transactions
-
-                withContext(Dispatchers.Main) {
-                    binding.layoutProgress.visibility = View.GONE
-                    binding.cardFileInfo.visibility = View.VISIBLE
-
-                    // 获取文件名
-                    val cursor = requireContext().contentResolver.query(uri, null, null, null, null)
-                    val fileName = cursor?.use {
-                        if (it.moveToFirst()) {
-                            val nameIndex = it.getColumnIndex(android.provider.OpenableColumns.DISPLAY_NAME)
-                            if (nameIndex >= 0) it.getString(nameIndex) else "未知文件"
-                        } else "未知文件"
-                    } ?: "未知文件"
-
-                    binding.tvFileName.text = fileName
-                    binding.tvRecordCount.text = "解析到 ${result.successCount} 条记录" +
-                            if (result.failCount > 0) "，${result.failCount} 条失败" else ""
-
-                    binding.btnImport.isEnabled = result.successCount > 0
-
-                    if (result.errors.isNotEmpty()) {
-                        Toast.makeText(
-                            requireContext(),
-                            "部分记录解析失败，请检查文件格式",
-                            Toast.LENGTH_SHORT
-                        ).show()
-                    }
+                binding.layoutProgress.visibility = View.GONE
+                binding.cardFileInfo.visibility = View.VISIBLE
+
+                // 获取文件名
+                val cursor = requireContext().contentResolver.query(uri, null, null, null, null)
+                val fileName = cursor?.use {
+                    if (it.moveToFirst()) {
+                        val nameIndex = it.getColumnIndex(android.provider.OpenableColumns.DISPLAY_NAME)
+                        if (nameIndex >= 0) it.getString(nameIndex) else "未知文件"
+                    } else "未知文件"
+                } ?: "未知文件"
+
+                binding.tvFileName.text = fileName
+                binding.tvRecordCount.text = "解析到 ${result.successCount} 条记录" +
+                        if (result.failCount > 0) "，${result.failCount} 条失败" else ""
+
+                binding.btnImport.isEnabled = result.successCount > 0 && !awaitingImport
+
+                if (result.errors.isNotEmpty()) {
+                    Toast.makeText(
+                        requireContext(),
+                        "部分记录解析失败，请检查文件格式",
+                        Toast.LENGTH_SHORT
+                    ).show()
                 }
             } catch (e: Exception) {
-                withContext(Dispatchers.Main) {
-                    showError("解析失败: ${e.message}")
-                }
+                showError("解析失败: ${e.message}")
             }
         }
     }
 
     private fun importTransactions() {
-        if (parsedTransactions.isEmpty()) {
+        val uri = selectedUri
+        if (uri == null || parsedCount == 0) {
             Toast.makeText(requireContext(), "没有可导入的记录", Toast.LENGTH_SHORT).show()
             return
         }
 
+        awaitingImport = true
         binding.layoutProgress.visibility = View.VISIBLE
         binding.progressBar.isIndeterminate = false
-        binding.progressBar.max = parsedTransactions.size
+        binding.progressBar.max = parsedCount
         binding.progressBar.progress = 0
+        binding.tvProgress.text = "导入中... 0/$parsedCount"
         binding.btnImport.isEnabled = false
 
-        CoroutineScope(Dispatchers.IO).launch {
-            var importedCount = 0
-            var failedCount = 0
-
-            for ((index, transaction) in parsedTransactions.withIndex()) {
-                try {
-                    viewModel.insert(transaction)
-                    importedCount++
-                } catch (e: Exception) {
-                    failedCount++
-                }
+        ImportBillWorker.enqueue(requireContext(), uri, currentSource, parsedCount)
+        Toast.makeText(requireContext(), "已开始后台导入，离开此页面不影响导入", Toast.LENGTH_SHORT).show()
+    }
 
-                withContext(Dispatchers.Main) {
-                    binding.progressBar.progress = index + 1
-                    binding.tvProgress.text = "导入中... ${index + 1}/${parsedTransactions.size}"
+    /**
+     * 观察后台导入任务的进度和结果
+     */
+    private fun observeImportWork() {
+        WorkManager.getInstance(requireContext())
+            .getWorkInfosForUniqueWorkLiveData(ImportBillWorker.UNIQUE_WORK_NAME)
+            .observe(viewLifecycleOwner) { infos ->
+                val info = infos.lastOrNull() ?: return@observe
+                when (info.state) {
+                    WorkInfo.State.ENQUEUED, WorkInfo.State.RUNNING, WorkInfo.State.BLOCKED -> {
+                        awaitingImport = true
+                        showImportProgress(info)
+                    }
+                    WorkInfo.State.SUCCEEDED -> if (awaitingImport) onImportFinished(info)
+                    WorkInfo.State.FAILED, WorkInfo.State.CANCELLED -> if (awaitingImport) onImportFailed(info)
                 }
             }
+    }
 
-            withContext(Dispatchers.Main) {
-                binding.layoutProgress.visibility = View.GONE
+    private fun showImportProgress(info: WorkInfo) {
+        val imported = info.progress.getInt(ImportBillWorker.KEY_IMPORTED, 0)
+        val total = info.progress.getInt(ImportBillWorker.KEY_TOTAL, parsedCount)
 
-                val message = if (failedCount == 0) {
-                    "成功导入 $importedCount 条记录"
-                } else {
-                    "导入完成：成功 $importedCount 条，失败 $failedCount 条"
-                }
+        binding.layoutProgress.visibility = View.VISIBLE
+        binding.btnImport.isEnabled = false
+        if (total > 0) {
+            binding.progressBar.isIndeterminate = false
+            binding.progressBar.max = total
+            binding.progressBar.progress = imported
+            binding.tvProgress.text = "导入中... $imported/$total"
+        } else {
+            binding.progressBar.isIndeterminate = true
+            binding.tvProgress.text = "导入中..."
+        }
+    }
 
-                Toast.makeText(requireContext(), message, Toast.LENGTH_LONG).show()
+    private fun onImportFinished(info: WorkInfo) {
+        awaitingImport = false
+        binding.layoutProgress.visibility = View.GONE
 
-                // 导入完成后返回
-                findNavController().popBackStack()
-            }
+        val importedCount = info.outputData.getInt(ImportBillWorker.KEY_IMPORTED, 0)
+        val failedCount = info.outputData.getInt(ImportBillWorker.KEY_FAILED, 0)
+        val message = when {
+            info.outputData.getBoolean(ImportBillWorker.KEY_ALREADY_IMPORTED, false) ->
+                "该文件已导入过（$importedCount 条），未重复导入"
+            failedCount == 0 -> "成功导入 $importedCount 条记录"
+            else -> "导入完成：成功 $importedCount 条，失败 $failedCount 条"
         }
+
+        Toast.makeText(requireContext(), message, Toast.LENGTH_LONG).show()
+
+        // 导入完成后返回
+        findNavController().popBackStack()
+    }
+
+    private fun onImportFailed(info: WorkInfo) {
+        awaitingImport = false
+        val error = info.outputData.getString(ImportBillWorker.KEY_ERROR) ?: "导入已中断"
+        showError("导入失败: $error，再次导入将从断点继续")
+        binding.btnImport.isEnabled = parsedCount > 0
     }
 
     private fun showError(message: String) {
@@ -194,4 +246,17 @@ class ImportBillFragment : Fragment() {
         super.onDestroyView()
         _binding = null
     }
+
+    companion object {
+        private const val STATE_AWAITING_IMPORT = "awaiting_import"
+
+        private val BILL_MIME_TYPES = arrayOf(
+            "text/*",
+            "text/csv",
+            "text/comma-separated-values",
+            "application/csv",
+            "application/vnd.ms-excel",
+            "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"
+        )
+    }
 }
@@ -1,16 +1,25 @@
 package com.ai.bookkeeping.util
 
+import android.content.Context
+import android.net.Uri
 import com.ai.bookkeeping.model.Transaction
 import com.ai.bookkeeping.model.TransactionType
 import java.io.BufferedReader
+import java.io.IOException
 import java.io.InputStream
 import java.io.InputStreamReader
 import java.text.SimpleDateFormat
 import java.util.Locale
+import java.util.TimeZone
+import kotlin.math.roundToLong
 
 /**
  * 账单解析工具
- * 支持微信和支付宝CSV账单导入
+ * 支持微信和支付宝CSV、XLSX账单导入
+ *
+ * 解析分为两步：
+ * 1. 读取数据行（[readCSVRows] / [readXlsxRows]），惰性逐行产出，内存占用与文件大小无关
+ * 2. 行转交易（[toTransaction]），按账单来源映射列，与文件格式无关
  */
 object BillParser {
 
@@ -26,185 +35,265 @@ object BillParser {
         val errors: List<String>
     )
 
+    /**
+     * 账单数据行
+     * lineNumber 为该行在文件中的行号（从1开始），导入断点以此记录
+     */
+    data class BillRow(
+        val lineNumber: Int,
+        val columns: List<String>
+    )
+
+    // Excel序列值0对应1899-12-30，与Unix纪元相差25569天
+    private const val EXCEL_EPOCH_OFFSET_DAYS = 25569
+    private const val MILLIS_PER_DAY = 86_400_000L
+
+    private val dateFormat = object : ThreadLocal<SimpleDateFormat>() {
+        override fun initialValue() = SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault())
+    }
+
+    /**
+     * 打开账单文件并读取数据行，按文件头自动识别CSV或XLSX
+     * 文件和临时资源在 [block] 返回后关闭
+     *
+     * @param afterLine 断点行号，见 [readCSVRows]
+     * @return [block] 的返回值，无法打开文件时返回null
+     */
+    suspend fun <T> useRows(
+        context: Context,
+        uri: Uri,
+        source: BillSource,
+        afterLine: Int = 0,
+        block: suspend (Sequence<BillRow>) -> T
+    ): T? {
+        val resolver = context.contentResolver
+        val isXlsx = resolver.openInputStream(uri)?.use { isZipFile(it) } ?: return null
+
+        return if (isXlsx) {
+            val openStream = { resolver.openInputStream(uri) ?: throw IOException("无法读取文件") }
+            XlsxSheetReader(openStream, context.cacheDir).use { reader ->
+                block(readXlsxRows(reader, source, afterLine))
+            }
+        } else {
+            resolver.openInputStream(uri)?.use { block(readCSVRows(it, source, afterLine)) }
+        }
+    }
+
     /**
      * 解析CSV文件
      */
     fun parseCSV(inputStream: InputStream, source: BillSource): ParseResult {
-        return when (source) {
-            BillSource.WECHAT -> parseWeChatBill(inputStream)
-            BillSource.ALIPAY -> parseAlipayBill(inputStream)
-        }
+        return inputStream.use { parse(readCSVRows(it, source), source) }
     }
 
     /**
-     * 解析微信账单
-     * 微信账单CSV格式:
-     * 交易时间,交易类型,交易对方,商品,收/支,金额(元),支付方式,当前状态,交易单号,商户单号,备注
+     * 汇总数据行的解析结果
+     * @param collect 为false时只统计条数、不保留交易对象（用于导入前预览）
      */
-    private fun parseWeChatBill(inputStream: InputStream): ParseResult {
+    fun parse(rows: Sequence<BillRow>, source: BillSource, collect: Boolean = true): ParseResult {
         val transactions = mutableListOf<Transaction>()
         val errors = mutableListOf<String>()
         var successCount = 0
         var failCount = 0
 
-        val reader = BufferedReader(InputStreamReader(inputStream, "UTF-8"))
-        var line: String?
-        var lineNumber = 0
-        var headerFound = false
-
-        val dateFormat = SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault())
-
-        while (reader.readLine().also { line = it } != null) {
-            lineNumber++
-            val currentLine = line ?: continue
-
-            // 跳过微信账单头部信息
-            if (currentLine.startsWith("微信支付账单明细") ||
-                currentLine.startsWith("----------------------") ||
-                currentLine.isBlank()) {
-                continue
-            }
-
-            // 检测到表头行
-            if (currentLine.contains("交易时间") && currentLine.contains("金额")) {
-                headerFound = true
-                continue
-            }
-
-            if (!headerFound) continue
-
+        for (row in rows) {
             try {
-                val columns = parseCSVLine(currentLine)
-                if (columns.size < 6) continue
-
-                val dateStr = columns[0].trim()
-                val transactionType = columns[1].trim()
-                val counterparty = columns[2].trim()
-                val product = columns[3].trim()
-                val incomeOrExpense = columns[4].trim()
-                val amountStr = columns[5].trim().replace("¥", "").replace(",", "")
-
-                // 跳过非收支记录
-                if (incomeOrExpense != "支出" && incomeOrExpense != "收入") continue
-
-                val amount = amountStr.toDoubleOrNull() ?: continue
-                val date = try {
-                    dateFormat.parse(dateStr)?.time ?: System.currentTimeMillis()
-                } catch (e: Exception) {
-                    System.currentTimeMillis()
+                val transaction = toTransaction(row, source) ?: continue
+                if (collect) {
+                    transactions.add(transaction)
                 }
-
-                val type = if (incomeOrExpense == "支出") TransactionType.EXPENSE else TransactionType.INCOME
-                val category = guessCategory(product, counterparty, type)
-                val description = product.ifEmpty { counterparty }
-                val note = "来自微信账单: $transactionType - $counterparty"
-
-                transactions.add(
-                    Transaction(
-                        amount = amount,
-                        type = type,
-                        category = category,
-                        description = description,
-                        note = note,
-                        date = date,
-                        aiParsed = false
-                    )
-                )
                 successCount++
             } catch (e: Exception) {
-                errors.add("第${lineNumber}行解析失败: ${e.message}")
+                errors.add("第${row.lineNumber}行解析失败: ${e.message}")
                 failCount++
             }
         }
 
-        reader.close()
         return ParseResult(transactions, successCount, failCount, errors)
     }
 
     /**
-     * 解析支付宝账单
-     * 支付宝账单CSV格式:
-     * 交易时间,交易分类,交易对方,对方账号,商品说明,收/支,金额,收/付款方式,交易状态,交易订单号,商家订单号,备注
+     * 逐行读取CSV账单，跳过头部说明，只产出表头之后的数据行
+     * 微信账单为UTF-8编码，支付宝通常是GBK编码
+     *
+     * @param afterLine 断点行号，行号不大于它的行直接跳过、不再拆分列
      */
-    private fun parseAlipayBill(inputStream: InputStream): ParseResult {
-        val transactions = mutableListOf<Transaction>()
-        val errors = mutableListOf<String>()
-        var successCount = 0
-        var failCount = 0
-
-        val reader = BufferedReader(InputStreamReader(inputStream, "GBK")) // 支付宝通常是GBK编码
-        var line: String?
+    fun readCSVRows(inputStream: InputStream, source: BillSource, afterLine: Int = 0): Sequence<BillRow> = sequence {
+        val charset = if (source == BillSource.ALIPAY) "GBK" else "UTF-8"
+        val reader = BufferedReader(InputStreamReader(inputStream, charset))
         var lineNumber = 0
         var headerFound = false
 
-        val dateFormat = SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault())
-
-        while (reader.readLine().also { line = it } != null) {
+        while (true) {
+            val line = reader.readLine() ?: break
             lineNumber++
-            val currentLine = line ?: continue
 
-            // 跳过支付宝账单头部信息
-            if (currentLine.startsWith("支付宝") ||
-                currentLine.startsWith("-") ||
-                currentLine.startsWith("#") ||
-                currentLine.isBlank()) {
+            // 断点之前的行都已导入过（断点一定在表头之后）
+            if (lineNumber <= afterLine) {
+                headerFound = true
                 continue
             }
 
+            if (isPreambleLine(line, source)) continue
+
             // 检测到表头行
-            if (currentLine.contains("交易时间") && currentLine.contains("金额")) {
+            if (isHeaderLine(line)) {
                 headerFound = true
                 continue
             }
 
             if (!headerFound) continue
 
-            try {
-                val columns = parseCSVLine(currentLine)
-                if (columns.size < 7) continue
-
-                val dateStr = columns[0].trim()
-                val transactionCategory = columns[1].trim()
-                val counterparty = columns[2].trim()
-                val product = columns[4].trim()
-                val incomeOrExpense = columns[5].trim()
-                val amountStr = columns[6].trim().replace("¥", "").replace(",", "")
-
-                // 跳过非收支记录
-                if (incomeOrExpense != "支出" && incomeOrExpense != "收入") continue
-
-                val amount = amountStr.toDoubleOrNull() ?: continue
-                val date = try {
-                    dateFormat.parse(dateStr)?.time ?: System.currentTimeMillis()
-                } catch (e: Exception) {
-                    System.currentTimeMillis()
-                }
+            yield(BillRow(lineNumber, parseCSVLine(line)))
+        }
+    }
 
-                val type = if (incomeOrExpense == "支出") TransactionType.EXPENSE else TransactionType.INCOME
-                val category = guessCategory(product, transactionCategory, type)
-                val description = product.ifEmpty { counterparty }
-                val note = "来自支付宝账单: $transactionCategory - $counterparty"
-
-                transactions.add(
-                    Transaction(
-                        amount = amount,
-                        type = type,
-                        category = category,
-                        description = description,
-                        note = note,
-                        date = date,
-                        aiParsed = false
-                    )
-                )
-                successCount++
-            } catch (e: Exception) {
-                errors.add("第${lineNumber}行解析失败: ${e.message}")
-                failCount++
+    /**
+     * 读取XLSX账单的数据行，跳过头部说明和表头
+     * 行号为工作表中的行号，与CSV一样可用作断点
+     */
+    fun readXlsxRows(reader: XlsxSheetReader, source: BillSource, afterLine: Int = 0): Sequence<BillRow> = sequence {
+        // 断点一定在表头之后
+        var headerFound = afterLine > 0
+
+        for (row in reader.rows(afterRow = afterLine)) {
+            val firstCell = row.columns.firstOrNull().orEmpty()
+            if (isPreambleLine(firstCell, source)) continue
+
+            if (row.columns.any { it.contains("交易时间") } && row.columns.any { it.contains("金额") }) {
+                headerFound = true
+                continue
             }
+
+            if (!headerFound) continue
+
+            yield(row)
         }
+    }
 
-        reader.close()
-        return ParseResult(transactions, successCount, failCount, errors)
+    /**
+     * 将数据行转换为交易记录
+     * 非收支记录、列数不足或金额无效时返回null；其他格式错误抛出异常
+     */
+    fun toTransaction(row: BillRow, source: BillSource): Transaction? {
+        return when (source) {
+            BillSource.WECHAT -> parseWeChatRow(row.columns)
+            BillSource.ALIPAY -> parseAlipayRow(row.columns)
+        }
+    }
+
+    /**
+     * 判断是否为表头行
+     */
+    private fun isHeaderLine(line: String): Boolean {
+        return line.contains("交易时间") && line.contains("金额")
+    }
+
+    /**
+     * 判断是否为账单头部说明或分隔行
+     */
+    private fun isPreambleLine(line: String, source: BillSource): Boolean {
+        if (line.isBlank()) return true
+        return when (source) {
+            BillSource.WECHAT -> line.startsWith("微信支付账单明细") ||
+                    line.startsWith("----------------------")
+            BillSource.ALIPAY -> line.startsWith("支付宝") ||
+                    line.startsWith("-") ||
+                    line.startsWith("#")
+        }
+    }
+
+    /**
+     * 解析微信账单行
+     * 微信账单CSV格式:
+     * 交易时间,交易类型,交易对方,商品,收/支,金额(元),支付方式,当前状态,交易单号,商户单号,备注
+     */
+    private fun parseWeChatRow(columns: List<String>): Transaction? {
+        if (columns.size < 6) return null
+
+        val dateStr = columns[0].trim()
+        val transactionType = columns[1].trim()
+        val counterparty = columns[2].trim()
+        val product = columns[3].trim()
+        val incomeOrExpense = columns[4].trim()
+        val amountStr = columns[5].trim().replace("¥", "").replace(",", "")
+
+        // 跳过非收支记录
+        if (incomeOrExpense != "支出" && incomeOrExpense != "收入") return null
+
+        val amount = amountStr.toDoubleOrNull() ?: return null
+        val type = if (incomeOrExpense == "支出") TransactionType.EXPENSE else TransactionType.INCOME
+
+        return Transaction(
+            amount = amount,
+            type = type,
+            category = guessCategory(product, counterparty, type),
+            description = product.ifEmpty { counterparty },
+            note = "来自微信账单: $transactionType - $counterparty",
+            date = parseDate(dateStr),
+            aiParsed = false
+        )
+    }
+
+    /**
+     * 解析支付宝账单行
+     * 支付宝账单CSV格式:
+     * 交易时间,交易分类,交易对方,对方账号,商品说明,收/支,金额,收/付款方式,交易状态,交易订单号,商家订单号,备注
+     */
+    private fun parseAlipayRow(columns: List<String>): Transaction? {
+        if (columns.size < 7) return null
+
+        val dateStr = columns[0].trim()
+        val transactionCategory = columns[1].trim()
+        val counterparty = columns[2].trim()
+        val product = columns[4].trim()
+        val incomeOrExpense = columns[5].trim()
+        val amountStr = columns[6].trim().replace("¥", "").replace(",", "")
+
+        // 跳过非收支记录
+        if (incomeOrExpense != "支出" && incomeOrExpense != "收入") return null
+
+        val amount = amountStr.toDoubleOrNull() ?: return null
+        val type = if (incomeOrExpense == "支出") TransactionType.EXPENSE else TransactionType.INCOME
+
+        return Transaction(
+            amount = amount,
+            type = type,
+            category = guessCategory(product, transactionCategory, type),
+            description = product.ifEmpty { counterparty },
+            note = "来自支付宝账单: $transactionCategory - $counterparty",
+            date = parseDate(dateStr),
+            aiParsed = false
+        )
+    }
+
+    private fun parseDate(dateStr: String): Long {
+        // XLSX日期单元格为Excel序列值（自1899-12-30起的天数，无时区）
+        dateStr.toDoubleOrNull()?.let { serial ->
+            val utcMillis = ((serial - EXCEL_EPOCH_OFFSET_DAYS) * MILLIS_PER_DAY).roundToLong()
+            return utcMillis - TimeZone.getDefault().getOffset(utcMillis)
+        }
+
+        return try {
+            dateFormat.get()!!.parse(dateStr)?.time ?: System.currentTimeMillis()
+        } catch (e: Exception) {
+            System.currentTimeMillis()
+        }
+    }
+
+    /**
+     * zip文件头 "PK\u0003\u0004"，XLSX即zip包
+     */
+    private fun isZipFile(inputStream: InputStream): Boolean {
+        val header = ByteArray(4)
+        var read = 0
+        while (read < header.size) {
+            val n = inputStream.read(header, read, header.size - read)
+            if (n < 0) return false
+            read += n
+        }
+        return header[0] == 'P'.code.toByte() && header[1] == 'K'.code.toByte() &&
+                header[2] == 3.toByte() && header[3] == 4.toByte()
     }
 
     /**
@@ -233,47 +322,6 @@ object BillParser {
      * 根据描述猜测分类
      */
     private fun guessCategory(product: String, extra: String, type: TransactionType): String {
-        val text = "$product $extra".lowercase()
-
-        if (type == TransactionType.INCOME) {
-            return when {
-                text.contains("工资") || text.contains("薪") -> "工资"
-                text.contains("奖") -> "奖金"
-                text.contains("红包") -> "红包"
-                text.contains("退款") || text.contains("退") -> "其他"
-                text.contains("转账") -> "其他"
-                else -> "其他"
-            }
-        }
-
-        return when {
-            text.contains("餐") || text.contains("饭") || text.contains("食") ||
-            text.contains("美团") || text.contains("饿了么") || text.contains("外卖") ||
-            text.contains("咖啡") || text.contains("奶茶") -> "餐饮"
-
-            text.contains("滴滴") || text.contains("打车") || text.contains("出行") ||
-            text.contains("地铁") || text.contains("公交") || text.contains("加油") ||
-            text.contains("停车") || text.contains("高速") -> "交通"
-
-            text.contains("淘宝") || text.contains("京东") || text.contains("拼多多") ||
-            text.contains("购物") || text.contains("超市") || text.contains("商城") -> "购物"
-
-            text.contains("电影") || text.contains("游戏") || text.contains("娱乐") ||
-            text.contains("KTV") || text.contains("音乐") -> "娱乐"
-
-            text.contains("医") || text.contains("药") || text.contains("医院") -> "医疗"
-
-            text.contains("书") || text.contains("课程") || text.contains("学习") ||
-            text.contains("培训") || text.contains("教育") -> "教育"
-
-            text.contains("房租") || text.contains("物业") || text.contains("水电") ||
-            text.contains("燃气") -> "居住"
-
-            text.contains("话费") || text.contains("流量") || text.contains("宽带") -> "通讯"
-
-            text.contains("衣") || text.contains("服装") || text.contains("鞋") -> "服饰"
-
-            else -> "其他"
-        }
+        return CategoryClassifier.classifyOrDefault("$product $extra", type)
     }
 }
@@ -0,0 +1,219 @@
+package com.ai.bookkeeping.util
+
+import com.ai.bookkeeping.model.Category
+import com.ai.bookkeeping.model.TransactionType
+
+/**
+ * 关键词分类器
+ *
+ * AIParser、AIService、BillParser 共用的分类规则：所有分类关键词（含用户自定义分类名）
+ * 编译成一个 [KeywordAutomaton]，对输入扫描一遍得到各分类的加权得分。
+ * 关键词越长得分越高；自定义分类名按双倍计分，优先于内置关键词。
+ * 自动机只在分类变化时重建（见 [updateUserCategories]）。
+ */
+object CategoryClassifier {
+
+    const val DEFAULT_CATEGORY = "其他"
+
+    // 用户分类名的得分倍数
+    private const val USER_CATEGORY_WEIGHT = 2
+
+    // 分类关键词（支出）
+    private val expenseKeywords = linkedMapOf(
+        "餐饮" to listOf("早餐", "午餐", "晚餐", "早饭", "午饭", "晚饭", "吃饭", "外卖",
+            "奶茶", "咖啡", "饮料", "零食", "水果", "买菜", "超市", "食品",
+            "餐厅", "火锅", "烧烤", "小吃", "面包", "蛋糕", "点心", "宵夜", "夜宵", "聚餐",
+            "食堂", "盒饭", "快餐", "汉堡", "炸鸡", "美团", "饿了么", "饭", "菜", "吃", "餐", "食"),
+        "交通" to listOf("打车", "出租", "滴滴", "公交", "地铁", "高铁", "火车", "飞机",
+            "机票", "车票", "加油", "油费", "停车", "过路费", "高速", "共享单车", "骑车",
+            "出行", "uber", "曹操", "首汽", "神州", "嘀嗒", "车", "票"),
+        "购物" to listOf("淘宝", "京东", "拼多多", "网购", "购物", "买东西", "天猫",
+            "唯品会", "商城", "买", "购"),
+        "娱乐" to listOf("电影", "游戏", "KTV", "唱歌", "音乐", "旅游", "门票", "演出", "酒吧",
+            "健身", "运动", "游泳", "瑜伽", "景点", "球", "玩"),
+        "医疗" to listOf("医院", "看病", "体检", "挂号", "医药", "诊所", "牙科",
+            "眼科", "药", "医", "病"),
+        "教育" to listOf("课程", "培训", "学费", "教材", "考试", "补习", "网课",
+            "学习", "教育", "书", "学", "课"),
+        "居住" to listOf("房租", "租金", "物业", "水电", "电费", "水费", "燃气", "网费",
+            "宽带", "暖气", "空调", "维修", "装修", "房", "租"),
+        "通讯" to listOf("话费", "手机费", "流量", "充值", "套餐"),
+        "服饰" to listOf("衣服", "服装", "裤子", "帽子", "配饰", "化妆品", "护肤",
+            "洗护", "内衣", "袜子", "外套", "T恤", "鞋", "包", "衣", "服")
+    )
+
+    // 分类关键词（收入）
+    private val incomeKeywords = linkedMapOf(
+        "工资" to listOf("工资", "薪水", "薪资", "月薪", "底薪", "发工资", "薪"),
+        "奖金" to listOf("奖金", "年终奖", "绩效", "提成", "奖励", "奖"),
+        "投资" to listOf("利息", "股票", "基金", "理财", "分红", "收益", "回报", "投资"),
+        "兼职" to listOf("兼职", "副业", "外快", "私活", "零工"),
+        "红包" to listOf("红包", "转账", "礼金", "随份子", "压岁钱")
+    )
+
+    /**
+     * 关键词命中的计分目标
+     * @param slot 分类在所属类型分类表中的下标
+     */
+    private class Hit(val type: TransactionType, val slot: Int, val weight: Int)
+
+    /**
+     * 编译后的分类规则，整体替换以保证读取方看到一致的状态
+     */
+    private class Model(
+        val automaton: KeywordAutomaton<Hit>,
+        val expenseCategories: List<String>,
+        val incomeCategories: List<String>
+    ) {
+        fun categoriesOf(type: TransactionType) =
+            if (type == TransactionType.EXPENSE) expenseCategories else incomeCategories
+    }
+
+    /**
+     * 分类结果及其依据
+     *
+     * @param category 得分最高的分类，没有命中时为null
+     * @param margin 最高分领先次高分的比例（0~1），只有一个分类命中时为1
+     * @param coveredLength 输入中被该类型关键词覆盖的字符数
+     */
+    data class Match(
+        val category: String?,
+        val margin: Double,
+        val coveredLength: Int
+    )
+
+    @Volatile
+    private var model = buildModel(emptyList())
+
+    // 上次构建使用的用户分类，未变化时不重建
+    private var userCategoryKey: Set<Triple<String, TransactionType, String?>> = emptySet()
+
+    /**
+     * 返回得分最高的分类，没有关键词命中时返回null
+     */
+    fun classify(text: String, type: TransactionType): String? {
+        return match(text, type).category
+    }
+
+    /**
+     * 分类并给出得分差距和关键词覆盖长度，供解析器估计置信度
+     */
+    fun match(text: String, type: TransactionType): Match {
+        val current = model
+        val scores = IntArray(current.categoriesOf(type).size)
+        var covered = 0
+        var coveredUntil = 0
+        current.automaton.forEachMatch(text) { hit, start, end ->
+            if (hit.type == type) {
+                scores[hit.slot] += hit.weight
+                // 命中按结束位置递增报告，累计区间并集的长度
+                if (end > coveredUntil) {
+                    covered += end - maxOf(start, coveredUntil)
+                    coveredUntil = end
+                }
+            }
+        }
+
+        var best = -1
+        var second = 0
+        for (slot in scores.indices) {
+            if (scores[slot] <= 0) continue
+            if (best < 0 || scores[slot] > scores[best]) {
+                if (best >= 0) second = scores[best]
+                best = slot
+            } else if (scores[slot] > second) {
+                second = scores[slot]
+            }
+        }
+        if (best < 0) return Match(null, 0.0, covered)
+
+        val top = scores[best]
+        return Match(current.categoriesOf(type)[best], (top - second).toDouble() / top, covered)
+    }
+
+    /**
+     * 返回得分最高的分类，没有命中时返回 [DEFAULT_CATEGORY]
+     */
+    fun classifyOrDefault(text: String, type: TransactionType): String {
+        return classify(text, type) ?: DEFAULT_CATEGORY
+    }
+
+    /**
+     * 各分类的加权得分（只含得分大于0的分类）
+     */
+    fun scores(text: String, type: TransactionType): Map<String, Int> {
+        val current = model
+        val scores = score(current, text, type)
+        val categories = current.categoriesOf(type)
+        val result = LinkedHashMap<String, Int>()
+        for (slot in scores.indices) {
+            if (scores[slot] > 0) result[categories[slot]] = scores[slot]
+        }
+        return result
+    }
+
+    /**
+     * 用户分类变化时重建自动机
+     * 一级分类名计入自身，子分类名计入其一级分类
+     */
+    @Synchronized
+    fun updateUserCategories(categories: List<Category>) {
+        val active = categories.filter { it.isActive }
+        val byId = active.associateBy { it.id }
+        val key = active.mapNotNullTo(HashSet()) { category ->
+            val parentId = category.parentId ?: return@mapNotNullTo Triple(category.name, category.type, null)
+            // 一级分类已停用时忽略其子分类
+            val parent = byId[parentId] ?: return@mapNotNullTo null
+            Triple(category.name, category.type, parent.name)
+        }
+        if (key == userCategoryKey) return
+
+        userCategoryKey = key
+        model = buildModel(key.sortedWith(compareBy({ it.second }, { it.first })))
+    }
+
+    private fun score(current: Model, text: String, type: TransactionType): IntArray {
+        val scores = IntArray(current.categoriesOf(type).size)
+        current.automaton.forEachMatch(text) { hit, _, _ ->
+            if (hit.type == type) scores[hit.slot] += hit.weight
+        }
+        return scores
+    }
+
+    /**
+     * @param userCategories (分类名, 类型, 一级分类名)
+     */
+    private fun buildModel(userCategories: List<Triple<String, TransactionType, String?>>): Model {
+        val expense = ArrayList(expenseKeywords.keys)
+        val income = ArrayList(incomeKeywords.keys)
+        val entries = ArrayList<Pair<String, Hit>>()
+
+        fun slotOf(name: String, type: TransactionType): Int {
+            val list = if (type == TransactionType.EXPENSE) expense else income
+            val index = list.indexOf(name)
+            if (index >= 0) return index
+            list.add(name)
+            return list.size - 1
+        }
+
+        for ((category, keywords) in expenseKeywords) {
+            val slot = slotOf(category, TransactionType.EXPENSE)
+            keywords.forEach { entries.add(it to Hit(TransactionType.EXPENSE, slot, it.length)) }
+        }
+        for ((category, keywords) in incomeKeywords) {
+            val slot = slotOf(category, TransactionType.INCOME)
+            keywords.forEach { entries.add(it to Hit(TransactionType.INCOME, slot, it.length)) }
+        }
+
+        for ((name, type, parentName) in userCategories) {
+            // "其他"不作为关键词
+            if (name.isBlank() || name == DEFAULT_CATEGORY) continue
+            val target = parentName ?: name
+            if (target == DEFAULT_CATEGORY) continue
+            val slot = slotOf(target, type)
+            entries.add(name to Hit(type, slot, name.length * USER_CATEGORY_WEIGHT))
+        }
+
+        return Model(KeywordAutomaton(entries), expense, income)
+    }
+}
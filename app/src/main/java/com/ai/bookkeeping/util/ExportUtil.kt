@@ -7,10 +7,18 @@ import android.os.Build
 import android.os.Environment
 import android.provider.MediaStore
 import androidx.core.content.FileProvider
+import com.ai.bookkeeping.data.AppDatabase
 import com.ai.bookkeeping.data.CategoryTotal
+import com.ai.bookkeeping.data.TransactionDao
 import com.ai.bookkeeping.model.Transaction
 import com.ai.bookkeeping.model.TransactionType
+import com.ai.bookkeeping.util.export.ExportFormat
+import com.ai.bookkeeping.util.export.ExportPeriod
+import com.ai.bookkeeping.util.export.ExportSummary
+import com.ai.bookkeeping.util.export.Exporter
 import com.ai.bookkeeping.viewmodel.StatisticsViewModel
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
 import java.io.File
 import java.io.FileOutputStream
 import java.io.OutputStream
@@ -25,6 +33,9 @@ object ExportUtil {
     private val dateFormat = SimpleDateFormat("yyyy-MM-dd HH:mm", Locale.getDefault())
     private val fileDateFormat = SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault())
 
+    // 全量导出每次从数据库读取的条数
+    private const val EXPORT_PAGE_SIZE = 500
+
     fun exportToCsv(
         context: Context,
         data: StatisticsViewModel.ExportData
@@ -55,6 +66,103 @@ object ExportUtil {
         }
     }
 
+    /**
+     * 用指定格式流式导出交易
+     *
+     * 按 (date, id) 键集分页读取固定区间内的交易，逐条交给 [Exporter] 编码后直接写入文件输出流，
+     * 不拼接整份文件内容，内存占用与交易总数无关。
+     * 不开事务：导出可能持续很久，期间不能占住数据库的写锁；汇总由写出的明细边写边累计，
+     * 导出过程中有新的写入时，汇总和明细也保持一致。数据库和文件读写均在IO线程执行。
+     *
+     * @param startDate 起始时间，与 [endDate] 同为null时导出全部历史
+     * @param onProgress 每写完一页回调一次（已写条数, 总条数）
+     */
+    suspend fun exportTransactions(
+        context: Context,
+        format: ExportFormat,
+        startDate: Long? = null,
+        endDate: Long? = null,
+        onProgress: suspend (written: Int, total: Int) -> Unit = { _, _ -> }
+    ): Result<String> = withContext(Dispatchers.IO) {
+        try {
+            val exporter = format.createExporter()
+            val prefix = if (startDate == null && endDate == null) "全部账单" else "账单明细"
+            val fileName = "${prefix}_${SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(Date())}.${exporter.fileExtension}"
+            val database = AppDatabase.getDatabase(context)
+
+            val filePath = writeFile(context, fileName, exporter.mimeType) { outputStream ->
+                writeTransactions(exporter, outputStream, database.transactionDao(), startDate, endDate, onProgress)
+            }
+            Result.success(filePath)
+        } catch (e: Exception) {
+            Result.failure(e)
+        }
+    }
+
+    private suspend fun writeTransactions(
+        exporter: Exporter,
+        outputStream: OutputStream,
+        dao: TransactionDao,
+        startDate: Long?,
+        endDate: Long?,
+        onProgress: suspend (Int, Int) -> Unit
+    ) {
+        val from = startDate ?: dao.getEarliestDate() ?: System.currentTimeMillis()
+        val to = endDate ?: dao.getLatestDate() ?: from
+        val periodName = if (startDate == null && endDate == null) {
+            "全部历史"
+        } else {
+            val format = SimpleDateFormat("yyyy-MM-dd", Locale.getDefault())
+            "${format.format(Date(from))} - ${format.format(Date(to))}"
+        }
+        val total = dao.getTransactionCountByDateRange(from, to)
+
+        exporter.begin(outputStream, ExportPeriod(periodName, from, to))
+
+        var written = 0
+        var totalIncome = 0.0
+        var totalExpense = 0.0
+        val expenseCategories = HashMap<String, Double>()
+        val incomeCategories = HashMap<String, Double>()
+        var afterDate = from
+        var afterId = Long.MIN_VALUE
+        while (true) {
+            val page = dao.getTransactionsPage(afterDate, afterId, to, EXPORT_PAGE_SIZE)
+            for (transaction in page) {
+                exporter.writeRow(transaction)
+                if (transaction.type == TransactionType.INCOME) {
+                    totalIncome += transaction.amount
+                    incomeCategories.merge(transaction.category, transaction.amount, Double::plus)
+                } else {
+                    totalExpense += transaction.amount
+                    expenseCategories.merge(transaction.category, transaction.amount, Double::plus)
+                }
+            }
+            written += page.size
+            onProgress(written, maxOf(written, total))
+            if (page.size < EXPORT_PAGE_SIZE) break
+
+            val last = page.last()
+            afterDate = last.date
+            afterId = last.id
+        }
+
+        exporter.writeSummary(
+            ExportSummary(
+                totalIncome = totalIncome,
+                totalExpense = totalExpense,
+                transactionCount = written,
+                expenseCategories = categoryTotals(expenseCategories),
+                incomeCategories = categoryTotals(incomeCategories)
+            )
+        )
+        exporter.end()
+    }
+
+    private fun categoryTotals(totals: Map<String, Double>): List<CategoryTotal> {
+        return totals.map { (category, total) -> CategoryTotal(category, total) }.sortedByDescending { it.total }
+    }
+
     private fun buildCsvContent(data: StatisticsViewModel.ExportData): String {
         val sb = StringBuilder()
 
@@ -181,30 +289,61 @@ object ExportUtil {
     }
 
     private fun saveFile(context: Context, fileName: String, content: String, mimeType: String): String {
+        return writeFile(context, fileName, mimeType) { outputStream ->
+            outputStream.write(content.toByteArray(Charsets.UTF_8))
+        }
+    }
+
+    /**
+     * 在下载目录创建文件并交给 [write] 写入
+     * Android 10+ 写入期间标记为待定，写入失败时删除半成品文件
+     */
+    private inline fun writeFile(
+        context: Context,
+        fileName: String,
+        mimeType: String,
+        write: (OutputStream) -> Unit
+    ): String {
         return if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
             // Android 10+ 使用 MediaStore
             val contentValues = ContentValues().apply {
                 put(MediaStore.MediaColumns.DISPLAY_NAME, fileName)
                 put(MediaStore.MediaColumns.MIME_TYPE, mimeType)
                 put(MediaStore.MediaColumns.RELATIVE_PATH, Environment.DIRECTORY_DOWNLOADS)
+                put(MediaStore.MediaColumns.IS_PENDING, 1)
             }
 
-            val uri = context.contentResolver.insert(
+            val resolver = context.contentResolver
+            val uri = resolver.insert(
                 MediaStore.Downloads.EXTERNAL_CONTENT_URI,
                 contentValues
             ) ?: throw Exception("无法创建文件")
 
-            context.contentResolver.openOutputStream(uri)?.use { outputStream ->
-                outputStream.write(content.toByteArray(Charsets.UTF_8))
-            } ?: throw Exception("无法写入文件")
+            try {
+                resolver.openOutputStream(uri)?.use { outputStream ->
+                    write(outputStream)
+                } ?: throw Exception("无法写入文件")
+
+                resolver.update(uri, ContentValues().apply {
+                    put(MediaStore.MediaColumns.IS_PENDING, 0)
+                }, null, null)
+            } catch (e: Exception) {
+                resolver.delete(uri, null, null)
+                throw e
+            }
 
             "Downloads/$fileName"
         } else {
             // Android 9及以下
             val downloadsDir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS)
             val file = File(downloadsDir, fileName)
-            FileOutputStream(file).use { outputStream ->
-                outputStream.write(content.toByteArray(Charsets.UTF_8))
+            try {
+                FileOutputStream(file).use { outputStream ->
+                    write(outputStream)
+                }
+            } catch (e: Exception) {
+                file.delete()
+                throw e
             }
             file.absolutePath
         }
@@ -0,0 +1,369 @@
+package com.ai.bookkeeping.util
+
+/**
+ * 记账输入分词器
+ *
+ * 对输入只扫描一遍，切分为数字、时刻（如"14点30"、"3:15"）、关键词（日期词、时段词、
+ * 金额动词、收入词）、分隔符（换行、逗号、分号等）和普通文本片段。关键词按最长匹配识别，"大前天"不会被当成"前天"。
+ * 分词结果写入调用方复用的 [Tokens]，扫描过程不创建字符串、正则或装箱对象。
+ */
+object InputTokenizer {
+
+    // 片段类型
+    const val NUMBER = 0
+    const val CLOCK = 1
+    const val WORD = 2
+    const val TEXT = 3
+    const val SEPARATOR = 4
+
+    enum class WordKind {
+        DATE,           // 相对日期
+        TIME_OF_DAY,    // 时间段
+        AMOUNT_VERB,    // 花了、收到等紧挨金额的动词
+        INCOME          // 收入关键词
+    }
+
+    /**
+     * 关键词
+     *
+     * @param dayOffset 日期词的天数偏移
+     * @param hour 时段词对应的小时
+     * @param afternoon 时段词之后的"3点"按下午时间理解
+     * @param income 出现即视为收入
+     * @param describable 生成描述时保留（如"午饭"、"工资"）
+     */
+    class Word(
+        val text: String,
+        val kind: WordKind,
+        val dayOffset: Int = 0,
+        val hour: Int = 0,
+        val minute: Int = 0,
+        val afternoon: Boolean = false,
+        val income: Boolean = false,
+        val describable: Boolean = false
+    )
+
+    private val words = listOf(
+        // 相对日期
+        Word("今天", WordKind.DATE, dayOffset = 0),
+        Word("今日", WordKind.DATE, dayOffset = 0),
+        Word("昨天", WordKind.DATE, dayOffset = -1),
+        Word("昨日", WordKind.DATE, dayOffset = -1),
+        Word("前天", WordKind.DATE, dayOffset = -2),
+        Word("大前天", WordKind.DATE, dayOffset = -3),
+        Word("前几天", WordKind.DATE, dayOffset = -3),
+        Word("上周", WordKind.DATE, dayOffset = -7),
+        Word("上星期", WordKind.DATE, dayOffset = -7),
+
+        // 时间段
+        Word("凌晨", WordKind.TIME_OF_DAY, hour = 3),
+        Word("早上", WordKind.TIME_OF_DAY, hour = 7, minute = 30),
+        Word("早晨", WordKind.TIME_OF_DAY, hour = 7, minute = 30),
+        Word("上午", WordKind.TIME_OF_DAY, hour = 10),
+        Word("中午", WordKind.TIME_OF_DAY, hour = 12),
+        Word("下午", WordKind.TIME_OF_DAY, hour = 15, afternoon = true),
+        Word("傍晚", WordKind.TIME_OF_DAY, hour = 18, afternoon = true),
+        Word("晚上", WordKind.TIME_OF_DAY, hour = 19, minute = 30, afternoon = true),
+        Word("夜里", WordKind.TIME_OF_DAY, hour = 22),
+        Word("深夜", WordKind.TIME_OF_DAY, hour = 23, minute = 30),
+
+        // 餐次同时表示时间段，但属于描述的一部分
+        Word("早餐", WordKind.TIME_OF_DAY, hour = 7, minute = 30, describable = true),
+        Word("早饭", WordKind.TIME_OF_DAY, hour = 7, minute = 30, describable = true),
+        Word("午饭", WordKind.TIME_OF_DAY, hour = 12, describable = true),
+        Word("午餐", WordKind.TIME_OF_DAY, hour = 12, describable = true),
+        Word("晚饭", WordKind.TIME_OF_DAY, hour = 18, minute = 30, afternoon = true, describable = true),
+        Word("晚餐", WordKind.TIME_OF_DAY, hour = 18, minute = 30, afternoon = true, describable = true),
+        Word("宵夜", WordKind.TIME_OF_DAY, hour = 22, minute = 30, describable = true),
+        Word("夜宵", WordKind.TIME_OF_DAY, hour = 22, minute = 30, describable = true),
+
+        // 金额动词
+        Word("花了", WordKind.AMOUNT_VERB),
+        Word("花费", WordKind.AMOUNT_VERB),
+        Word("消费", WordKind.AMOUNT_VERB),
+        Word("支出", WordKind.AMOUNT_VERB),
+        Word("收入", WordKind.AMOUNT_VERB, income = true),
+        Word("收到", WordKind.AMOUNT_VERB, income = true),
+        Word("赚了", WordKind.AMOUNT_VERB, income = true),
+        Word("得到", WordKind.AMOUNT_VERB, income = true),
+
+        // 收入关键词
+        Word("工资", WordKind.INCOME, income = true, describable = true),
+        Word("薪水", WordKind.INCOME, income = true, describable = true),
+        Word("薪资", WordKind.INCOME, income = true, describable = true),
+        Word("赚", WordKind.INCOME, income = true, describable = true),
+        Word("奖金", WordKind.INCOME, income = true, describable = true),
+        Word("提成", WordKind.INCOME, income = true, describable = true),
+        Word("分红", WordKind.INCOME, income = true, describable = true),
+        Word("利息", WordKind.INCOME, income = true, describable = true),
+        Word("红包", WordKind.INCOME, income = true, describable = true),
+        Word("转账收", WordKind.INCOME, income = true, describable = true),
+        Word("退款", WordKind.INCOME, income = true, describable = true),
+        Word("兼职", WordKind.INCOME, income = true, describable = true),
+        Word("转入", WordKind.INCOME, income = true, describable = true)
+    )
+
+    private val automaton = KeywordAutomaton(words.map { it.text to it })
+
+    /**
+     * 分词结果，按片段在输入中的顺序排列
+     * 数组随输入增长，可在同一线程内反复复用
+     */
+    class Tokens {
+        var size = 0
+            private set
+
+        private var kinds = IntArray(INITIAL_CAPACITY)
+        private var starts = IntArray(INITIAL_CAPACITY)
+        private var ends = IntArray(INITIAL_CAPACITY)
+        private var values = DoubleArray(INITIAL_CAPACITY)
+        private var minutes = IntArray(INITIAL_CAPACITY)
+        private var units = BooleanArray(INITIAL_CAPACITY)
+        private var quantities = BooleanArray(INITIAL_CAPACITY)
+        private var words = arrayOfNulls<Word>(INITIAL_CAPACITY)
+
+        fun kind(index: Int): Int = kinds[index]
+
+        fun start(index: Int): Int = starts[index]
+
+        fun end(index: Int): Int = ends[index]
+
+        /** 数字的值；时刻为小时 */
+        fun value(index: Int): Double = values[index]
+
+        /** 时刻的分钟 */
+        fun minute(index: Int): Int = minutes[index]
+
+        /** 数字带有货币单位（元、块、￥等） */
+        fun hasUnit(index: Int): Boolean = units[index]
+
+        /** 数字后紧跟量词（个、杯、斤、月、号等），是数量或日期而非金额 */
+        fun isQuantity(index: Int): Boolean = quantities[index]
+
+        fun word(index: Int): Word = words[index]!!
+
+        internal fun clear() {
+            java.util.Arrays.fill(words, 0, size, null)
+            size = 0
+        }
+
+        internal fun add(kind: Int, start: Int, end: Int, value: Double = 0.0, minute: Int = 0,
+                         unit: Boolean = false, quantity: Boolean = false, word: Word? = null) {
+            // 相邻的文本合并为一个片段
+            if (kind == TEXT && size > 0 && kinds[size - 1] == TEXT && ends[size - 1] == start) {
+                ends[size - 1] = end
+                return
+            }
+            if (size == kinds.size) grow()
+            kinds[size] = kind
+            starts[size] = start
+            ends[size] = end
+            values[size] = value
+            minutes[size] = minute
+            units[size] = unit
+            quantities[size] = quantity
+            words[size] = word
+            size++
+        }
+
+        private fun grow() {
+            val capacity = size * 2
+            kinds = kinds.copyOf(capacity)
+            starts = starts.copyOf(capacity)
+            ends = ends.copyOf(capacity)
+            values = values.copyOf(capacity)
+            minutes = minutes.copyOf(capacity)
+            units = units.copyOf(capacity)
+            quantities = quantities.copyOf(capacity)
+            words = words.copyOf(capacity)
+        }
+    }
+
+    private const val INITIAL_CAPACITY = 16
+
+    // Long 可精确容纳的十进制位数
+    private const val MAX_DIGITS = 18
+
+    private const val SEPARATORS = "\n\r，,；;。、"
+
+    // 紧跟在数字后表示数量、日期或比例的字
+    private const val QUANTIFIERS = "个杯份斤克瓶罐张件次只本双包盒袋碗串支条位人天周月年日号楼层岁折%公分小"
+
+    /**
+     * 对 [input] 分词，结果覆盖写入 [out]
+     */
+    fun tokenize(input: CharSequence, out: Tokens) {
+        out.clear()
+        val length = input.length
+        var i = 0
+
+        while (i < length) {
+            val c = input[i]
+
+            // 数字（可带前置货币符号）
+            val digitStart = if (isCurrencySign(c) && i + 1 < length && isDigit(input[i + 1])) i + 1 else i
+            if (isDigit(input[digitStart])) {
+                i = scanNumber(input, i, digitStart, out)
+                continue
+            }
+
+            // 关键词：沿字典树做最长匹配
+            val wordEnd = longestWordEnd(input, i)
+            if (wordEnd > i) {
+                out.add(WORD, i, wordEnd, word = wordAt(input, i, wordEnd))
+                i = wordEnd
+                continue
+            }
+
+            out.add(if (isSeparator(c)) SEPARATOR else TEXT, i, i + 1)
+            i++
+        }
+    }
+
+    /**
+     * 扫描数字或时刻，返回片段结束位置
+     */
+    private fun scanNumber(input: CharSequence, start: Int, digitStart: Int, out: Tokens): Int {
+        val length = input.length
+        var i = digitStart
+        // 所有数位累加为整数再一次性除以10的幂，小数金额与 toDouble() 结果一致
+        var mantissa = 0L
+        var digits = 0
+        while (i < length) {
+            if (isDigit(input[i])) {
+                if (digits < MAX_DIGITS) mantissa = mantissa * 10 + (input[i] - '0')
+                digits++
+                i++
+            } else if (input[i] == ',' && isThousandsGroup(input, i + 1)) {
+                // 千分位："1,200"
+                i++
+            } else {
+                break
+            }
+        }
+
+        // 时刻：整数小时后跟 点/时/冒号，如 "14点30"、"3点半"、"9:05"
+        if (start == digitStart && i < length && isClockMark(input[i]) && digits <= 2 && mantissa <= 24) {
+            val clockEnd = scanClock(input, start, i, mantissa.toInt(), out)
+            if (clockEnd > 0) return clockEnd
+        }
+
+        var scale = 1.0
+        if (i + 1 < length && input[i] == '.' && isDigit(input[i + 1])) {
+            i++
+            while (i < length && isDigit(input[i])) {
+                if (digits < MAX_DIGITS) {
+                    mantissa = mantissa * 10 + (input[i] - '0')
+                    scale *= 10
+                }
+                digits++
+                i++
+            }
+        }
+        val value = mantissa / scale
+
+        // 后置单位，允许中间有空格："30 块"、"15元"、"20块钱"
+        var unit = start != digitStart
+        var end = i
+        var j = i
+        while (j < length && input[j] == ' ') j++
+        if (!unit && j < length && isUnit(input[j])) {
+            unit = true
+            end = j + 1
+            if (input[j] == '块' && end < length && input[end] == '钱') end++
+        }
+
+        val quantity = !unit && end < length && input[end] in QUANTIFIERS
+
+        out.add(NUMBER, start, end, value = value, unit = unit, quantity = quantity)
+        return end
+    }
+
+    /**
+     * 解析时刻的分钟部分，分钟无效时返回-1（按普通数字处理）
+     */
+    private fun scanClock(input: CharSequence, start: Int, markIndex: Int, hour: Int, out: Tokens): Int {
+        val length = input.length
+        var i = markIndex + 1
+        var minute = 0
+        var digits = 0
+        while (i < length && digits < 2 && isDigit(input[i])) {
+            minute = minute * 10 + (input[i] - '0')
+            digits++
+            i++
+        }
+        if (digits == 0 && i < length && input[i] == '半') {
+            minute = 30
+            i++
+        } else if (digits > 0 && i < length && input[i] == '分') {
+            i++
+        }
+        // 冒号后必须有分钟，"点/时"可以单独出现
+        if (digits == 0 && minute == 0 && (input[markIndex] == ':' || input[markIndex] == '：')) return -1
+        if (minute > 59) return -1
+
+        out.add(CLOCK, start, i, value = hour.toDouble(), minute = minute)
+        return i
+    }
+
+    /**
+     * 从 [start] 起最长的关键词结束位置，无匹配时返回 [start]
+     */
+    private fun longestWordEnd(input: CharSequence, start: Int): Int {
+        var node = 0
+        var matchEnd = start
+        var i = start
+        while (i < input.length) {
+            node = automaton.child(node, input[i])
+            if (node < 0) break
+            i++
+            if (automaton.outputsOf(node) != null && exactOutput(node, i - start) >= 0) {
+                matchEnd = i
+            }
+        }
+        return matchEnd
+    }
+
+    private fun wordAt(input: CharSequence, start: Int, end: Int): Word {
+        var node = 0
+        for (i in start until end) {
+            node = automaton.child(node, input[i])
+        }
+        return automaton.valueOf(exactOutput(node, end - start))
+    }
+
+    /**
+     * 节点输出中长度恰为 [length] 的关键词（其余为失配链并入的后缀词）
+     */
+    private fun exactOutput(node: Int, length: Int): Int {
+        val outputs = automaton.outputsOf(node) ?: return -1
+        for (keyword in outputs) {
+            if (automaton.lengthOf(keyword) == length) return keyword
+        }
+        return -1
+    }
+
+    /**
+     * 记账分隔符：一段输入中的多笔记录以此分开
+     */
+    fun isSeparator(c: Char): Boolean = SEPARATORS.indexOf(c) >= 0
+
+    /**
+     * 逗号后恰好是三位数字（之后不再是数字）
+     */
+    private fun isThousandsGroup(input: CharSequence, from: Int): Boolean {
+        if (from + 3 > input.length) return false
+        for (i in from until from + 3) {
+            if (!isDigit(input[i])) return false
+        }
+        return from + 3 == input.length || !isDigit(input[from + 3])
+    }
+
+    private fun isDigit(c: Char): Boolean = c in '0'..'9'
+
+    private fun isCurrencySign(c: Char): Boolean = c == '￥' || c == '¥' || c == '$'
+
+    private fun isUnit(c: Char): Boolean = c == '元' || c == '块' || isCurrencySign(c)
+
+    private fun isClockMark(c: Char): Boolean = c == '点' || c == '时' || c == ':' || c == '：'
+}
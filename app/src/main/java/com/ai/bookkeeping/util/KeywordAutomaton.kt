@@ -0,0 +1,160 @@
+package com.ai.bookkeeping.util
+
+/**
+ * 关键词自动机（Aho–Corasick）
+ *
+ * 把所有关键词编译成一个带失配指针的字典树，对输入只扫描一遍即可找出全部命中的关键词，
+ * 耗时与关键词数量无关。构建后只读，可在多个线程中同时使用。
+ * 匹配不区分英文大小写。
+ *
+ * @param entries 关键词及其附带的值，同一关键词可以出现多次
+ */
+class KeywordAutomaton<T>(entries: List<Pair<String, T>>) {
+
+    // 构建期的转移表：键为 (节点 shl 16) or 字符，值为子节点
+    private val transitions = HashMap<Long, Int>()
+
+    // 构建后冻结为按字符排序的紧凑数组（CSR）：节点 n 的子边为 [childStart[n], childStart[n + 1])，
+    // 查找用二分，匹配过程不分配对象
+    private lateinit var childStart: IntArray
+    private lateinit var childChars: CharArray
+    private lateinit var childNodes: IntArray
+
+    private var failure = IntArray(16)
+    // 每个节点命中的关键词下标（已合并失配链上的输出）
+    private var outputs = arrayOfNulls<IntArray>(16)
+    private var nodeCount = 1
+
+    private val values = ArrayList<T>(entries.size)
+    private val lengths = IntArray(entries.size)
+
+    init {
+        entries.forEachIndexed { index, (keyword, value) ->
+            values.add(value)
+            lengths[index] = keyword.length
+            if (keyword.isNotEmpty()) insert(keyword, index)
+        }
+        freezeTransitions()
+        buildFailureLinks()
+        transitions.clear()
+    }
+
+    /**
+     * 扫描 [text]，对每个命中的关键词回调（关键词的值, 起始下标, 结束下标（不含））
+     */
+    inline fun forEachMatch(text: CharSequence, action: (value: T, start: Int, end: Int) -> Unit) {
+        var node = 0
+        for (i in text.indices) {
+            node = step(node, text[i])
+            val hits = outputsOf(node) ?: continue
+            for (keyword in hits) {
+                action(valueOf(keyword), i + 1 - lengthOf(keyword), i + 1)
+            }
+        }
+    }
+
+    /**
+     * 自动机状态转移，无对应边时沿失配指针回退
+     */
+    fun step(state: Int, char: Char): Int {
+        val c = normalize(char)
+        var node = state
+        while (true) {
+            val next = child(node, c)
+            if (next >= 0) return next
+            if (node == 0) return 0
+            node = failure[node]
+        }
+    }
+
+    /**
+     * 字典树中的子节点，不沿失配指针回退；没有时返回-1
+     * 从根节点（0）逐字调用即可做前缀匹配
+     */
+    fun child(node: Int, char: Char): Int {
+        val c = normalize(char)
+        var low = childStart[node]
+        var high = childStart[node + 1] - 1
+        while (low <= high) {
+            val mid = (low + high) ushr 1
+            val midChar = childChars[mid]
+            when {
+                midChar < c -> low = mid + 1
+                midChar > c -> high = mid - 1
+                else -> return childNodes[mid]
+            }
+        }
+        return -1
+    }
+
+    fun outputsOf(node: Int): IntArray? = outputs[node]
+
+    fun valueOf(keyword: Int): T = values[keyword]
+
+    fun lengthOf(keyword: Int): Int = lengths[keyword]
+
+    private fun insert(keyword: String, index: Int) {
+        var node = 0
+        for (char in keyword) {
+            val key = key(node, normalize(char))
+            node = transitions[key] ?: newNode().also { transitions[key] = it }
+        }
+        outputs[node] = outputs[node]?.plus(index) ?: intArrayOf(index)
+    }
+
+    private fun newNode(): Int {
+        if (nodeCount == failure.size) {
+            failure = failure.copyOf(nodeCount * 2)
+            outputs = outputs.copyOf(nodeCount * 2)
+        }
+        return nodeCount++
+    }
+
+    /**
+     * 把转移表整理为按父节点分组、按字符排序的数组
+     */
+    private fun freezeTransitions() {
+        val keys = transitions.keys.toLongArray()
+        keys.sort()  // (父节点, 字符) 有序
+
+        childStart = IntArray(nodeCount + 1)
+        childChars = CharArray(keys.size)
+        childNodes = IntArray(keys.size)
+        keys.forEachIndexed { index, key ->
+            childStart[(key ushr 16).toInt() + 1]++
+            childChars[index] = (key and 0xFFFF).toInt().toChar()
+            childNodes[index] = transitions.getValue(key)
+        }
+        for (node in 0 until nodeCount) {
+            childStart[node + 1] += childStart[node]
+        }
+    }
+
+    /**
+     * 按层次遍历计算失配指针，并把失配节点的输出并入当前节点
+     */
+    private fun buildFailureLinks() {
+        val queue = ArrayDeque<Int>()
+        for (edge in childStart[0] until childStart[1]) {
+            failure[childNodes[edge]] = 0
+            queue.addLast(childNodes[edge])
+        }
+
+        while (queue.isNotEmpty()) {
+            val node = queue.removeFirst()
+            for (edge in childStart[node] until childStart[node + 1]) {
+                val child = childNodes[edge]
+                failure[child] = step(failure[node], childChars[edge])
+                val inherited = outputs[failure[child]]
+                if (inherited != null) {
+                    outputs[child] = outputs[child]?.plus(inherited) ?: inherited
+                }
+                queue.addLast(child)
+            }
+        }
+    }
+
+    private fun key(node: Int, char: Char): Long = (node.toLong() shl 16) or char.code.toLong()
+
+    private fun normalize(char: Char): Char = if (char in 'A'..'Z') char + ('a' - 'A') else char
+}
@@ -0,0 +1,284 @@
+package com.ai.bookkeeping.util
+
+import android.util.Log
+import androidx.room.withTransaction
+import com.ai.bookkeeping.data.AppDatabase
+import com.ai.bookkeeping.model.CategoryNgramCount
+import com.ai.bookkeeping.model.Transaction
+import com.ai.bookkeeping.model.TransactionType
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import java.util.EnumMap
+import kotlin.math.exp
+import kotlin.math.ln
+
+/**
+ * 本地朴素贝叶斯分类器
+ *
+ * 用用户自己的记账历史训练：特征为描述和备注的字符一元组、二元组（多项式模型，拉普拉斯平滑）。
+ * 计数常驻内存，分类只是对每个特征查一次表，离线即可在微秒级完成；
+ * 交易新增、修改、删除时增量更新计数，并写入 category_ngram_counts 表，重启后直接加载。
+ */
+object NaiveBayesClassifier {
+
+    private const val TAG = "NaiveBayesClassifier"
+
+    // 某类型训练样本少于此数时不做预测
+    private const val MIN_DOCUMENTS = 20
+
+    // 首次训练时分页读取交易的页大小
+    private const val TRAIN_PAGE_SIZE = 500
+    private const val INSERT_BATCH_SIZE = 500
+
+    /**
+     * 预测结果
+     * @param probability 后验概率（0~1），可作为置信度
+     */
+    data class Prediction(
+        val category: String,
+        val probability: Double
+    )
+
+    private class Model {
+        val documents = HashMap<String, Int>()                      // 分类 -> 交易笔数
+        val totals = HashMap<String, Int>()                         // 分类 -> n-gram总数
+        val features = HashMap<String, HashMap<String, Int>>()      // n-gram -> (分类 -> 次数)
+        var documentCount = 0
+
+        fun add(category: String, ngram: String, delta: Int) {
+            if (ngram.isEmpty()) {
+                documents.merge(category, delta, Int::plus)
+                if (documents[category]!! <= 0) documents.remove(category)
+                documentCount += delta
+            } else {
+                val counts = features.getOrPut(ngram) { HashMap(4) }
+                counts.merge(category, delta, Int::plus)
+                if (counts[category]!! <= 0) counts.remove(category)
+                if (counts.isEmpty()) features.remove(ngram)
+                totals.merge(category, delta, Int::plus)
+                if (totals[category]!! <= 0) totals.remove(category)
+            }
+        }
+    }
+
+    private data class CountKey(
+        val type: TransactionType,
+        val category: String,
+        val ngram: String
+    )
+
+    private val models = EnumMap<TransactionType, Model>(TransactionType::class.java).apply {
+        TransactionType.values().forEach { put(it, Model()) }
+    }
+
+    // 增量更新依次落库
+    private val writeMutex = Mutex()
+
+    // 加载或训练完成后可用；之前的增量更新等待加载结束，避免重复计数或丢失
+    private val ready = CompletableDeferred<AppDatabase>()
+
+    /**
+     * 加载持久化的计数；表为空时用已有交易训练一遍
+     */
+    suspend fun init(database: AppDatabase) {
+        try {
+            writeMutex.withLock {
+                val dao = database.categoryModelDao()
+                if (dao.getCount() == 0) {
+                    train(database)
+                } else {
+                    val rows = dao.getAll()
+                    synchronized(models) {
+                        for (row in rows) {
+                            models.getValue(row.type).add(row.category, row.ngram, row.count)
+                        }
+                    }
+                }
+            }
+        } catch (e: Exception) {
+            Log.e(TAG, "加载分类模型失败", e)
+        } finally {
+            ready.complete(database)
+        }
+    }
+
+    /**
+     * 预测分类
+     * @return 该类型样本不足或文本中没有见过的特征时返回null
+     */
+    fun predict(text: String, type: TransactionType): Prediction? {
+        val grams = ngrams(text)
+        if (grams.isEmpty()) return null
+
+        synchronized(models) {
+            val model = models.getValue(type)
+            if (model.documentCount < MIN_DOCUMENTS) return null
+
+            // log P(c) + Σ log((n(c,f) + 1) / (N(c) + V))，计数为0的特征只贡献分母项
+            val vocabulary = model.features.size.toDouble()
+            val scores = HashMap<String, Double>(model.documents.size * 2)
+            for ((category, documents) in model.documents) {
+                val total = model.totals[category] ?: 0
+                scores[category] = ln(documents.toDouble() / model.documentCount) - grams.size * ln(total + vocabulary)
+            }
+
+            var known = false
+            for (gram in grams) {
+                val counts = model.features[gram] ?: continue
+                known = true
+                for ((category, count) in counts) {
+                    scores[category]?.let { scores[category] = it + ln(count + 1.0) }
+                }
+            }
+            if (!known) return null
+
+            // 归一化为后验概率
+            val best = scores.maxByOrNull { it.value } ?: return null
+            var sum = 0.0
+            for (score in scores.values) {
+                sum += exp(score - best.value)
+            }
+            return Prediction(best.key, 1.0 / sum)
+        }
+    }
+
+    /**
+     * 新增交易后学习
+     */
+    suspend fun learn(transactions: List<Transaction>) = update(transactions, 1)
+
+    /**
+     * 删除交易后撤销学习
+     */
+    suspend fun forget(transaction: Transaction) = update(listOf(transaction), -1)
+
+    /**
+     * 修改交易（如纠正分类）后，撤销旧记录并学习新记录
+     */
+    suspend fun relearn(old: Transaction, new: Transaction) {
+        if (old.category == new.category && old.type == new.type &&
+            old.description == new.description && old.note == new.note) return
+
+        val deltas = HashMap<CountKey, Int>()
+        collect(old, -1, deltas)
+        collect(new, 1, deltas)
+        apply(deltas)
+    }
+
+    private suspend fun update(transactions: List<Transaction>, sign: Int) {
+        val deltas = HashMap<CountKey, Int>()
+        for (transaction in transactions) {
+            collect(transaction, sign, deltas)
+        }
+        apply(deltas)
+    }
+
+    /**
+     * 累计一笔交易的计数变化；未分类（"其他"）的交易不参与训练
+     */
+    private fun collect(transaction: Transaction, sign: Int, deltas: MutableMap<CountKey, Int>) {
+        if (transaction.category == CategoryClassifier.DEFAULT_CATEGORY) return
+        val grams = ngrams(textOf(transaction))
+        if (grams.isEmpty()) return
+
+        deltas.merge(CountKey(transaction.type, transaction.category, ""), sign, Int::plus)
+        for (gram in grams) {
+            deltas.merge(CountKey(transaction.type, transaction.category, gram), sign, Int::plus)
+        }
+    }
+
+    private suspend fun apply(deltas: Map<CountKey, Int>) {
+        if (deltas.isEmpty()) return
+
+        val database = ready.await()
+        writeMutex.withLock {
+            synchronized(models) {
+                for ((key, delta) in deltas) {
+                    if (delta != 0) models.getValue(key.type).add(key.category, key.ngram, delta)
+                }
+            }
+
+            val dao = database.categoryModelDao()
+            try {
+                database.withTransaction {
+                    val inserts = ArrayList<CategoryNgramCount>()
+                    for ((key, delta) in deltas) {
+                        if (delta == 0) continue
+                        if (dao.addCount(key.type, key.category, key.ngram, delta) == 0 && delta > 0) {
+                            inserts.add(CategoryNgramCount(key.type, key.category, key.ngram, delta))
+                        }
+                    }
+                    if (inserts.isNotEmpty()) dao.insertAll(inserts)
+                    dao.deleteEmpty()
+                }
+            } catch (e: Exception) {
+                // 写库失败不影响记账，内存中的计数仍然有效
+                Log.e(TAG, "保存分类模型失败", e)
+            }
+        }
+    }
+
+    /**
+     * 用全部历史交易训练并落库
+     */
+    private suspend fun train(database: AppDatabase) {
+        val fresh = EnumMap<TransactionType, Model>(TransactionType::class.java)
+        TransactionType.values().forEach { fresh[it] = Model() }
+
+        val transactionDao = database.transactionDao()
+        var afterDate = Long.MIN_VALUE
+        var afterId = Long.MIN_VALUE
+        while (true) {
+            val page = transactionDao.getTransactionsPage(afterDate, afterId, Long.MAX_VALUE, TRAIN_PAGE_SIZE)
+            if (page.isEmpty()) break
+            val deltas = HashMap<CountKey, Int>()
+            page.forEach { collect(it, 1, deltas) }
+            for ((key, delta) in deltas) {
+                fresh.getValue(key.type).add(key.category, key.ngram, delta)
+            }
+            afterDate = page.last().date
+            afterId = page.last().id
+        }
+
+        val rows = ArrayList<CategoryNgramCount>()
+        for ((type, model) in fresh) {
+            for ((category, count) in model.documents) {
+                rows.add(CategoryNgramCount(type, category, "", count))
+            }
+            for ((ngram, counts) in model.features) {
+                for ((category, count) in counts) {
+                    rows.add(CategoryNgramCount(type, category, ngram, count))
+                }
+            }
+        }
+        database.withTransaction {
+            val dao = database.categoryModelDao()
+            dao.clear()
+            rows.chunked(INSERT_BATCH_SIZE).forEach { dao.insertAll(it) }
+        }
+
+        synchronized(models) {
+            models.putAll(fresh)
+        }
+        Log.d(TAG, "分类模型训练完成：${rows.size} 条计数")
+    }
+
+    private fun textOf(transaction: Transaction): String = "${transaction.description} ${transaction.note}"
+
+    /**
+     * 字符一元组和二元组，只取文字（汉字、字母），忽略数字、空白和标点
+     */
+    private fun ngrams(text: String): List<String> {
+        val letters = StringBuilder(text.length)
+        for (c in text) {
+            if (c.isLetter()) letters.append(c.lowercaseChar())
+        }
+        val grams = ArrayList<String>(letters.length * 2)
+        for (i in letters.indices) {
+            grams.add(letters.substring(i, i + 1))
+            if (i + 1 < letters.length) grams.add(letters.substring(i, i + 2))
+        }
+        return grams
+    }
+}
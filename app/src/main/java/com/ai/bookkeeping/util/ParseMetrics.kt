@@ -0,0 +1,48 @@
+package com.ai.bookkeeping.util
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 解析流水线各阶段的耗时统计（纳秒，仅内存）
+ * 用于发现某个阶段的性能退化，以及衡量单独优化或替换某个阶段的效果
+ */
+object ParseMetrics {
+
+    data class StageStats(
+        val stage: String,
+        val count: Long,
+        val totalNanos: Long,
+        val maxNanos: Long
+    ) {
+        val averageNanos: Long get() = if (count > 0) totalNanos / count else 0
+    }
+
+    private class Timer {
+        val count = AtomicLong()
+        val totalNanos = AtomicLong()
+        val maxNanos = AtomicLong()
+    }
+
+    private val timers = ConcurrentHashMap<String, Timer>()
+
+    fun record(stage: String, nanos: Long) {
+        val timer = timers.getOrPut(stage) { Timer() }
+        timer.count.incrementAndGet()
+        timer.totalNanos.addAndGet(nanos)
+        timer.maxNanos.accumulateAndGet(nanos) { a, b -> maxOf(a, b) }
+    }
+
+    /**
+     * 各阶段统计，按总耗时从高到低
+     */
+    fun snapshot(): List<StageStats> {
+        return timers.map { (stage, timer) ->
+            StageStats(stage, timer.count.get(), timer.totalNanos.get(), timer.maxNanos.get())
+        }.sortedByDescending { it.totalNanos }
+    }
+
+    fun reset() {
+        timers.clear()
+    }
+}
@@ -0,0 +1,197 @@
+package com.ai.bookkeeping.util
+
+import com.ai.bookkeeping.model.Transaction
+import com.ai.bookkeeping.model.TransactionType
+
+/**
+ * 记账文本解析流水线
+ *
+ * 解析拆分为若干阶段，依次读写同一个 [ParseState]：
+ * 整句阶段（规范化分词 → 按金额切分）每次输入执行一次，
+ * 单笔阶段（金额 → 类型 → 日期时间 → 描述 → 分类）对切分出的每一笔执行一次。
+ * 每个阶段的耗时（纳秒）记入 [ParseMetrics]，阶段可以单独替换或优化。
+ *
+ * @param inputStages 整句阶段
+ * @param segmentStages 单笔阶段，任一阶段返回false时放弃这一笔
+ */
+class ParsePipeline(
+    private val inputStages: List<Stage>,
+    private val segmentStages: List<Stage>
+) {
+
+    /**
+     * 解析阶段
+     */
+    interface Stage {
+        val name: String
+
+        /**
+         * @return false 表示无法继续解析（如没有金额）
+         */
+        fun process(state: ParseState): Boolean
+    }
+
+    // 每个线程复用一份解析状态（分词缓冲、描述缓冲等）
+    private val states = object : ThreadLocal<ParseState>() {
+        override fun initialValue() = ParseState()
+    }
+
+    /**
+     * 解析输入
+     * @param split 是否按金额切分为多笔；为false时整句作为一笔
+     * @return 按输入顺序排列的结果，无法识别时为空列表
+     */
+    fun run(input: String, split: Boolean): List<AIParser.ScoredTransaction> {
+        val state = states.get()!!
+        state.reset(input, split)
+        for (stage in inputStages) {
+            if (!timed(stage, state)) return emptyList()
+        }
+
+        val results = ArrayList<AIParser.ScoredTransaction>(state.segments.size)
+        for (range in state.segments) {
+            state.beginSegment(range.first, range.last + 1)
+            if (segmentStages.all { timed(it, state) }) {
+                results.add(state.toScoredTransaction())
+            }
+        }
+        return results
+    }
+
+    /**
+     * 只执行整句阶段中的规范化分词，供只需要分词结果的调用方使用
+     */
+    fun tokenize(input: String): ParseState {
+        val state = states.get()!!
+        state.reset(input, false)
+        ParseStages.Normalize.process(state)
+        return state
+    }
+
+    private fun timed(stage: Stage, state: ParseState): Boolean {
+        val startedAt = System.nanoTime()
+        val result = stage.process(state)
+        ParseMetrics.record(stage.name, System.nanoTime() - startedAt)
+        return result
+    }
+
+    companion object {
+        /**
+         * 默认流水线
+         */
+        val DEFAULT = ParsePipeline(
+            inputStages = listOf(ParseStages.Normalize, ParseStages.Segment),
+            segmentStages = listOf(
+                ParseStages.Amount,
+                ParseStages.Type,
+                ParseStages.DateTime,
+                ParseStages.Description,
+                ParseStages.Category
+            )
+        )
+    }
+}
+
+/**
+ * 流水线各阶段共享的解析状态
+ * 整句字段由整句阶段写入；单笔字段在每一笔开始时重置，由单笔阶段依次填写
+ */
+class ParseState {
+
+    // ===== 整句 =====
+    var input = ""
+        internal set
+    val tokens = InputTokenizer.Tokens()
+    var split = false
+        internal set
+    val segments = ArrayList<IntRange>()
+
+    // 多笔记录之间传递的日期时间，只有切分出多笔时才有
+    var dateTimeContext: DateTimeContext? = null
+
+    // ===== 当前这一笔，分词下标区间 [from, to) =====
+    var from = 0
+        internal set
+    var to = 0
+        internal set
+    var amountIndex = -1
+    var amountCertainty = 0.0
+    var type = TransactionType.EXPENSE
+    var dateTime = 0L
+    var description: String? = null
+    var category = CategoryClassifier.DEFAULT_CATEGORY
+
+    // 分类本身的确定程度和描述被识别的比例（0~1）
+    var categoryCertainty = 0.0
+    var coverage = 1.0
+
+    internal val descriptionBuilder = StringBuilder()
+
+    /**
+     * 多笔记录之间传递的日期时间：后一笔没写时沿用前一笔
+     */
+    class DateTimeContext {
+        var dayOffset = 0
+        var hour = -1
+        var minute = 0
+        var afternoon = false
+    }
+
+    internal fun reset(input: String, split: Boolean) {
+        this.input = input
+        this.split = split
+        tokens.clear()
+        segments.clear()
+        dateTimeContext = null
+    }
+
+    internal fun beginSegment(from: Int, to: Int) {
+        this.from = from
+        this.to = to
+        amountIndex = -1
+        amountCertainty = 0.0
+        type = TransactionType.EXPENSE
+        dateTime = 0L
+        description = null
+        category = CategoryClassifier.DEFAULT_CATEGORY
+        categoryCertainty = 0.0
+        coverage = 1.0
+    }
+
+    /**
+     * 当前这一笔的原文
+     */
+    fun segmentText(): String {
+        return if (from == 0 && to == tokens.size) input else input.substring(tokens.start(from), tokens.end(to - 1))
+    }
+
+    fun isAmount(index: Int): Boolean {
+        return tokens.kind(index) == InputTokenizer.NUMBER && tokens.value(index) > 0 && !tokens.isQuantity(index)
+    }
+
+    fun isBlank(start: Int, end: Int): Boolean {
+        for (i in start until end) {
+            if (!input[i].isWhitespace()) return false
+        }
+        return true
+    }
+
+    internal fun toScoredTransaction(): AIParser.ScoredTransaction {
+        val transaction = Transaction(
+            amount = tokens.value(amountIndex),
+            type = type,
+            category = category,
+            description = description ?: category,
+            date = dateTime,
+            aiParsed = true
+        )
+        val confidence = amountCertainty *
+                (CATEGORY_WEIGHT * categoryCertainty + (1 - CATEGORY_WEIGHT) * coverage)
+        return AIParser.ScoredTransaction(transaction, confidence, segmentText())
+    }
+
+    companion object {
+        // 置信度中分类确定程度所占的权重，其余为描述被识别的比例
+        private const val CATEGORY_WEIGHT = 0.6
+    }
+}
@@ -0,0 +1,355 @@
+package com.ai.bookkeeping.util
+
+import com.ai.bookkeeping.model.TransactionType
+import com.ai.bookkeeping.util.InputTokenizer.WordKind
+import java.util.Calendar
+
+/**
+ * 默认解析流水线的各个阶段，见 [ParsePipeline.DEFAULT]
+ */
+object ParseStages {
+
+    private const val MAX_DESCRIPTION_LENGTH = 30
+
+    // 本地模型的后验概率达到此值时，优先于关键词分类
+    private const val MODEL_CONFIDENCE = 0.6
+
+    /**
+     * 规范化：去掉首尾空白，经 [InputTokenizer] 一次扫描切分为片段
+     * 后续阶段都从同一组分词结果中读取，不再对输入反复做正则匹配和字符串替换
+     */
+    object Normalize : ParsePipeline.Stage {
+        override val name = "normalize"
+
+        override fun process(state: ParseState): Boolean {
+            state.input = state.input.trim()
+            if (state.input.isEmpty()) return false
+            InputTokenizer.tokenize(state.input, state.tokens)
+            return true
+        }
+    }
+
+    /**
+     * 按金额把分词结果切分为多笔记录
+     *
+     * - 金额之后到下一个分隔符之间没有其他金额时，后面的文字仍属于这一笔（"花了30买咖啡"）
+     * - 同一分句里有多个金额时，按第一笔的写法切分：描述在前（"早餐15午饭30"）则在金额之后切，
+     *   金额在前（"15块早餐 30块午饭"）则在下一个金额之前切
+     * - 最后一个金额所在分句之后、不含金额的文字丢弃
+     *
+     * 不切分或只切出一笔时，整句作为一笔
+     */
+    object Segment : ParsePipeline.Stage {
+        override val name = "segment"
+
+        override fun process(state: ParseState): Boolean {
+            if (state.split) split(state)
+            if (state.segments.size <= 1) {
+                state.segments.clear()
+                state.segments.add(0 until state.tokens.size)
+            } else {
+                state.dateTimeContext = ParseState.DateTimeContext()
+            }
+            return true
+        }
+
+        private fun split(state: ParseState) {
+            val tokens = state.tokens
+            var amountFirst: Boolean? = null
+            var segmentStart = 0
+            var i = 0
+
+            while (i < tokens.size) {
+                if (!state.isAmount(i)) {
+                    i++
+                    continue
+                }
+                if (amountFirst == null) {
+                    amountFirst = !hasDescriptionBefore(state, segmentStart, i)
+                }
+
+                var next = i + 1
+                while (next < tokens.size && tokens.kind(next) != InputTokenizer.SEPARATOR && !state.isAmount(next)) {
+                    next++
+                }
+                val end = when {
+                    next == tokens.size || tokens.kind(next) == InputTokenizer.SEPARATOR -> next
+                    amountFirst == true -> next
+                    else -> i + 1
+                }
+
+                state.segments.add(segmentStart until end)
+                segmentStart = end
+                i = end
+            }
+        }
+
+        /**
+         * 片段中金额之前是否已有描述文字（普通文本或描述性关键词）
+         */
+        private fun hasDescriptionBefore(state: ParseState, from: Int, amountIndex: Int): Boolean {
+            val tokens = state.tokens
+            for (i in from until amountIndex) {
+                when (tokens.kind(i)) {
+                    InputTokenizer.TEXT -> if (!state.isBlank(tokens.start(i), tokens.end(i))) return true
+                    InputTokenizer.WORD -> if (tokens.word(i).describable) return true
+                }
+            }
+            return false
+        }
+    }
+
+    /**
+     * 提取金额及其确定程度，没有金额时放弃这一笔
+     * 优先取带单位或紧挨"花了"、"收到"等动词的数字，其次取第一个不是数量的正数；时刻不算金额
+     */
+    object Amount : ParsePipeline.Stage {
+        override val name = "amount"
+
+        override fun process(state: ParseState): Boolean {
+            val tokens = state.tokens
+            var firstAmount = -1
+            var firstPositive = -1
+            for (i in state.from until state.to) {
+                if (tokens.kind(i) != InputTokenizer.NUMBER || tokens.value(i) <= 0) continue
+                if (tokens.hasUnit(i) || isNextToAmountVerb(state, i)) {
+                    state.amountIndex = i
+                    state.amountCertainty = 1.0
+                    return true
+                }
+                if (firstAmount < 0 && !tokens.isQuantity(i)) firstAmount = i
+                if (firstPositive < 0) firstPositive = i
+            }
+
+            state.amountIndex = if (firstAmount >= 0) firstAmount else firstPositive
+            if (state.amountIndex < 0) return false
+            state.amountCertainty = certainty(state)
+            return true
+        }
+
+        /**
+         * 没有单位和动词时的确定程度：唯一的数字较确定，多个数字中取第一个或只有数量时较低
+         */
+        private fun certainty(state: ParseState): Double {
+            if (state.tokens.isQuantity(state.amountIndex)) return 0.3
+
+            var candidates = 0
+            for (i in state.from until state.to) {
+                if (state.isAmount(i)) candidates++
+            }
+            return if (candidates <= 1) 0.9 else 0.6
+        }
+
+        private fun isNextToAmountVerb(state: ParseState, index: Int): Boolean {
+            return isAmountVerb(state, neighbour(state, index, -1)) ||
+                    isAmountVerb(state, neighbour(state, index, 1))
+        }
+
+        private fun isAmountVerb(state: ParseState, index: Int): Boolean {
+            return index >= 0 && state.tokens.kind(index) == InputTokenizer.WORD &&
+                    state.tokens.word(index).kind == WordKind.AMOUNT_VERB
+        }
+
+        /**
+         * 当前这一笔内的相邻片段（跳过只含空白的文本），没有时返回-1
+         */
+        private fun neighbour(state: ParseState, index: Int, direction: Int): Int {
+            val tokens = state.tokens
+            var i = index + direction
+            while (i in state.from until state.to) {
+                if (tokens.kind(i) != InputTokenizer.TEXT || !state.isBlank(tokens.start(i), tokens.end(i))) {
+                    return i
+                }
+                i += direction
+            }
+            return -1
+        }
+    }
+
+    /**
+     * 判断交易类型（收入/支出）
+     */
+    object Type : ParsePipeline.Stage {
+        override val name = "type"
+
+        override fun process(state: ParseState): Boolean {
+            val tokens = state.tokens
+            for (i in state.from until state.to) {
+                if (tokens.kind(i) == InputTokenizer.WORD && tokens.word(i).income) {
+                    state.type = TransactionType.INCOME
+                    return true
+                }
+            }
+            state.type = TransactionType.EXPENSE
+            return true
+        }
+    }
+
+    /**
+     * 解析日期和时间
+     * 具体时刻优先于时间段；"下午3点"、"晚上8点"按下午时间理解
+     */
+    object DateTime : ParsePipeline.Stage {
+        override val name = "datetime"
+
+        override fun process(state: ParseState): Boolean {
+            state.dateTime = resolve(state.tokens, state.from, state.to, state.dateTimeContext)
+            return true
+        }
+
+        fun resolve(
+            tokens: InputTokenizer.Tokens,
+            from: Int,
+            to: Int,
+            context: ParseState.DateTimeContext?
+        ): Long {
+            var dayOffset = context?.dayOffset ?: 0
+            var foundDate = false
+            var timeWord: InputTokenizer.Word? = null
+            var clock = -1
+            var afternoon = false
+
+            for (i in from until to) {
+                when (tokens.kind(i)) {
+                    InputTokenizer.CLOCK -> if (clock < 0) clock = i
+                    InputTokenizer.WORD -> {
+                        val word = tokens.word(i)
+                        if (word.kind == WordKind.DATE && !foundDate) {
+                            dayOffset = word.dayOffset
+                            foundDate = true
+                        } else if (word.kind == WordKind.TIME_OF_DAY) {
+                            if (timeWord == null) timeWord = word
+                            if (word.afternoon) afternoon = true
+                        }
+                    }
+                }
+            }
+
+            // 本片段没有时间段词时，"5点"沿用前一笔的上午/下午
+            if (timeWord == null && context != null) afternoon = context.afternoon
+
+            // 具体时间或时间段，本片段都没有时沿用前一笔
+            var hour = -1
+            var minute = 0
+            if (clock >= 0) {
+                hour = tokens.value(clock).toInt()
+                if (afternoon && hour < 12) hour += 12
+                minute = tokens.minute(clock)
+            } else if (timeWord != null) {
+                hour = timeWord.hour
+                minute = timeWord.minute
+            } else if (context != null) {
+                hour = context.hour
+                minute = context.minute
+            }
+
+            context?.let {
+                it.dayOffset = dayOffset
+                it.hour = hour
+                it.minute = minute
+                it.afternoon = afternoon
+            }
+
+            val calendar = Calendar.getInstance()
+
+            // 1. 应用日期偏移
+            if (dayOffset != 0) {
+                calendar.add(Calendar.DAY_OF_YEAR, dayOffset)
+            }
+
+            // 2. 设置时间
+            if (hour >= 0) {
+                calendar.set(Calendar.HOUR_OF_DAY, hour)
+                calendar.set(Calendar.MINUTE, minute)
+                calendar.set(Calendar.SECOND, 0)
+                calendar.set(Calendar.MILLISECOND, 0)
+            }
+
+            return calendar.timeInMillis
+        }
+    }
+
+    /**
+     * 提取描述
+     * 保留普通文本和餐次、收入名目等描述性关键词，去掉金额、时刻、日期时间词和金额动词；
+     * 去掉这些内容后为空时描述为null，交易描述取分类名
+     */
+    object Description : ParsePipeline.Stage {
+        override val name = "description"
+
+        override fun process(state: ParseState): Boolean {
+            val tokens = state.tokens
+            val desc = state.descriptionBuilder
+            desc.setLength(0)
+            for (i in state.from until state.to) {
+                val keep = when (tokens.kind(i)) {
+                    InputTokenizer.TEXT, InputTokenizer.SEPARATOR -> true
+                    InputTokenizer.WORD -> tokens.word(i).describable
+                    else -> false
+                }
+                if (keep) desc.append(state.input, tokens.start(i), tokens.end(i))
+            }
+
+            // 去掉首尾空白和分隔符
+            var start = 0
+            var end = desc.length
+            while (start < end && isTrimmable(desc[start])) start++
+            while (end > start && isTrimmable(desc[end - 1])) end--
+
+            state.description = if (start == end) null else desc.substring(start, minOf(end, start + MAX_DESCRIPTION_LENGTH))
+            return true
+        }
+
+        private fun isTrimmable(c: Char): Boolean = c.isWhitespace() || InputTokenizer.isSeparator(c)
+    }
+
+    /**
+     * 确定分类
+     * 用户历史训练的本地模型足够确信时优先采用，其次是关键词分类，都没有结果时取模型的最佳猜测
+     * 依赖描述阶段的结果
+     */
+    object Category : ParsePipeline.Stage {
+        override val name = "category"
+
+        override fun process(state: ParseState): Boolean {
+            val description = state.description
+            val prediction = description?.let { NaiveBayesClassifier.predict(it, state.type) }
+            if (prediction != null && prediction.probability >= MODEL_CONFIDENCE) {
+                state.category = prediction.category
+                state.categoryCertainty = prediction.probability
+                state.coverage = 1.0
+                return true
+            }
+
+            val match = CategoryClassifier.match(state.segmentText(), state.type)
+            state.coverage = coverageOf(description, match.coveredLength)
+            when {
+                match.category != null -> {
+                    state.category = match.category
+                    state.categoryCertainty = 0.5 + 0.5 * match.margin
+                }
+                prediction != null -> {
+                    state.category = prediction.category
+                    state.categoryCertainty = prediction.probability
+                }
+                else -> {
+                    state.category = CategoryClassifier.DEFAULT_CATEGORY
+                    state.categoryCertainty = 0.0
+                }
+            }
+            return true
+        }
+
+        /**
+         * 描述中被关键词覆盖的比例；没有描述时视为全部识别
+         */
+        private fun coverageOf(description: String?, coveredLength: Int): Double {
+            if (description == null) return 1.0
+            var length = 0
+            for (c in description) {
+                if (!c.isWhitespace()) length++
+            }
+            return if (length == 0) 1.0 else minOf(1.0, coveredLength.toDouble() / length)
+        }
+    }
+}
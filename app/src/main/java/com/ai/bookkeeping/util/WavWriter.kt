@@ -0,0 +1,123 @@
+package com.ai.bookkeeping.util
+
+import android.media.AudioRecord
+import java.io.Closeable
+import java.io.File
+import java.io.FileOutputStream
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.channels.FileChannel
+import kotlin.math.sqrt
+
+/**
+ * 边录边写的 WAV 文件（16位 PCM）
+ *
+ * 录音器直接读入一块可复用的直接缓冲区，再经 [FileChannel] 写入文件，音量也在这块缓冲区上计算；
+ * 不在内存中累积整段录音，占用内存只与缓冲区大小有关，与录音时长无关。
+ * 文件头先以长度0写入，[close] 时回填 RIFF 和 data 块的长度。
+ *
+ * @param bufferSize 每次从录音器读取的字节数，通常取 [AudioRecord.getMinBufferSize]
+ */
+class WavWriter(
+    file: File,
+    private val sampleRate: Int,
+    private val channels: Int,
+    bufferSize: Int
+) : Closeable {
+
+    private val channel: FileChannel = FileOutputStream(file).channel
+    private val buffer: ByteBuffer = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN)
+
+    // 最近一次读到缓冲区的字节数
+    private var lastRead = 0
+
+    /**
+     * 已写入的音频数据字节数（不含文件头）
+     */
+    var dataLength = 0L
+        private set
+
+    init {
+        write(header(0))
+    }
+
+    /**
+     * 从录音器读取一段数据并写入文件
+     * @return 读到的字节数，出错时为录音器返回的错误码
+     */
+    fun record(audioRecord: AudioRecord): Int {
+        buffer.clear()
+        val read = audioRecord.read(buffer, buffer.capacity())
+        if (read <= 0) {
+            lastRead = 0
+            return read
+        }
+
+        // read(ByteBuffer) 不移动 position 和 limit
+        lastRead = read
+        buffer.limit(read)
+        write(buffer)
+        dataLength += read
+        return read
+    }
+
+    /**
+     * 最近一段数据的音量（均方根），直接在缓冲区上按绝对位置读取样本
+     */
+    fun amplitude(): Int {
+        val samples = lastRead / 2
+        if (samples == 0) return 0
+        var sum = 0L
+        for (i in 0 until samples) {
+            val sample = buffer.getShort(i * 2).toInt()
+            sum += sample * sample
+        }
+        return sqrt(sum.toDouble() / samples).toInt()
+    }
+
+    /**
+     * 回填文件头中的长度并关闭文件
+     */
+    override fun close() {
+        channel.use {
+            val riffSize = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN)
+            riffSize.putInt(0, (dataLength + HEADER_SIZE - 8).toInt())
+            it.write(riffSize, RIFF_SIZE_OFFSET)
+
+            val dataSize = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN)
+            dataSize.putInt(0, dataLength.toInt())
+            it.write(dataSize, DATA_SIZE_OFFSET)
+        }
+    }
+
+    private fun write(source: ByteBuffer) {
+        while (source.hasRemaining()) channel.write(source)
+    }
+
+    private fun header(dataLength: Int): ByteBuffer {
+        val blockAlign = channels * BITS_PER_SAMPLE / 8
+        return ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN).apply {
+            put("RIFF".toByteArray(Charsets.US_ASCII))
+            putInt(dataLength + HEADER_SIZE - 8)
+            put("WAVE".toByteArray(Charsets.US_ASCII))
+            put("fmt ".toByteArray(Charsets.US_ASCII))
+            putInt(16)                          // fmt 块长度（PCM 为16）
+            putShort(1)                         // 格式：PCM
+            putShort(channels.toShort())
+            putInt(sampleRate)
+            putInt(sampleRate * blockAlign)     // 每秒字节数
+            putShort(blockAlign.toShort())
+            putShort(BITS_PER_SAMPLE.toShort())
+            put("data".toByteArray(Charsets.US_ASCII))
+            putInt(dataLength)
+            flip()
+        }
+    }
+
+    companion object {
+        private const val HEADER_SIZE = 44
+        private const val BITS_PER_SAMPLE = 16
+        private const val RIFF_SIZE_OFFSET = 4L
+        private const val DATA_SIZE_OFFSET = 40L
+    }
+}
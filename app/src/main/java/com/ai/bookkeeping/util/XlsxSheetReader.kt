@@ -0,0 +1,280 @@
+package com.ai.bookkeeping.util
+
+import android.util.Xml
+import org.xmlpull.v1.XmlPullParser
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.Closeable
+import java.io.File
+import java.io.FileOutputStream
+import java.io.InputStream
+import java.io.RandomAccessFile
+import java.util.zip.ZipInputStream
+
+/**
+ * XLSX 工作表流式读取器
+ *
+ * XLSX 是由若干 XML 组成的 zip 包，这里不构建工作簿 DOM，而是用 [XmlPullParser] 逐事件读取：
+ * 1. 第一遍读取共享字符串表（xl/sharedStrings.xml），写入缓存目录的临时文件，
+ *    内存中只保留每个字符串的偏移量
+ * 2. 第二遍逐行读取第一个工作表，按需从临时文件取回共享字符串
+ *
+ * 内存占用只与单行宽度有关，与工作表行数无关。
+ *
+ * @param openStream 每次调用返回一个新的文件输入流（需要读两遍）
+ */
+class XlsxSheetReader(
+    private val openStream: () -> InputStream,
+    tempDir: File
+) : Closeable {
+
+    private val sharedStrings = SharedStringStore(File.createTempFile("xlsx_strings", ".bin", tempDir))
+    private var sheetStream: ZipInputStream? = null
+    private val cellText = StringBuilder()
+
+    /**
+     * 逐行读取第一个工作表，每个读取器只能读取一次
+     * @param afterRow 行号不大于它的行直接跳过，不解码单元格
+     */
+    fun rows(afterRow: Int = 0): Sequence<BillParser.BillRow> {
+        val sheetName = loadSharedStrings() ?: return emptySequence()
+
+        return sequence {
+            val zip = ZipInputStream(BufferedInputStream(openStream())).also { sheetStream = it }
+            if (!seekEntry(zip, sheetName)) return@sequence
+
+            val parser = newParser(zip)
+            var rowNumber = 0
+
+            while (true) {
+                val event = parser.next()
+                if (event == XmlPullParser.END_DOCUMENT) break
+                if (event != XmlPullParser.START_TAG || localName(parser) != "row") continue
+
+                rowNumber = parser.getAttributeValue(null, "r")?.toIntOrNull() ?: (rowNumber + 1)
+                if (rowNumber <= afterRow) {
+                    skipElement(parser)
+                    continue
+                }
+                yield(BillParser.BillRow(rowNumber, readRow(parser)))
+            }
+        }
+    }
+
+    /**
+     * 第一遍：读取共享字符串并确定要读取的工作表
+     * @return 工作表在 zip 中的条目名，不是有效的 XLSX 时返回null
+     */
+    private fun loadSharedStrings(): String? {
+        var sheetName: String? = null
+
+        ZipInputStream(BufferedInputStream(openStream())).use { zip ->
+            while (true) {
+                val entry = zip.nextEntry ?: break
+                val name = entry.name
+                when {
+                    name == SHARED_STRINGS_ENTRY -> readSharedStrings(newParser(zip))
+                    name == FIRST_SHEET_ENTRY -> sheetName = name
+                    sheetName == null && name.startsWith(SHEET_ENTRY_PREFIX) && name.endsWith(".xml") ->
+                        sheetName = name
+                }
+            }
+        }
+        sharedStrings.finishWriting()
+        return sheetName
+    }
+
+    private fun readSharedStrings(parser: XmlPullParser) {
+        while (true) {
+            val event = parser.next()
+            if (event == XmlPullParser.END_DOCUMENT) break
+            if (event == XmlPullParser.START_TAG && localName(parser) == "si") {
+                sharedStrings.add(readText(parser, "si"))
+            }
+        }
+    }
+
+    /**
+     * 读取一行的所有单元格，缺失的单元格补空字符串
+     */
+    private fun readRow(parser: XmlPullParser): List<String> {
+        val columns = ArrayList<String>()
+        var cellIndex = -1
+
+        while (true) {
+            when (parser.next()) {
+                XmlPullParser.START_TAG -> if (localName(parser) == "c") {
+                    cellIndex = parser.getAttributeValue(null, "r")
+                        ?.let { columnIndex(it) }
+                        ?.takeIf { it >= 0 }
+                        ?: (cellIndex + 1)
+                    val type = parser.getAttributeValue(null, "t")
+                    val value = readCell(parser, type)
+
+                    if (cellIndex < columns.size) {
+                        columns[cellIndex] = value
+                    } else {
+                        while (columns.size < cellIndex) columns.add("")
+                        columns.add(value)
+                    }
+                }
+                XmlPullParser.END_TAG -> if (localName(parser) == "row") return columns
+                XmlPullParser.END_DOCUMENT -> return columns
+            }
+        }
+    }
+
+    /**
+     * 读取单元格的值
+     * t="s" 为共享字符串索引，t="inlineStr" 为内联字符串，其余直接取 <v> 的文本
+     */
+    private fun readCell(parser: XmlPullParser, type: String?): String {
+        val text = readText(parser, "c")
+        return if (type == "s") {
+            text.trim().toIntOrNull()?.let { sharedStrings.get(it) } ?: ""
+        } else {
+            text
+        }
+    }
+
+    /**
+     * 拼接元素内 <v> / <t> 的文本，忽略注音 <rPh>
+     */
+    private fun readText(parser: XmlPullParser, endTag: String): String {
+        cellText.setLength(0)
+        var inText = false
+
+        while (true) {
+            when (parser.next()) {
+                XmlPullParser.START_TAG -> when (localName(parser)) {
+                    "v", "t" -> inText = true
+                    "rPh" -> skipElement(parser)
+                }
+                XmlPullParser.TEXT -> if (inText) cellText.append(parser.text)
+                XmlPullParser.END_TAG -> when (localName(parser)) {
+                    "v", "t" -> inText = false
+                    endTag -> return cellText.toString()
+                }
+                XmlPullParser.END_DOCUMENT -> return cellText.toString()
+            }
+        }
+    }
+
+    override fun close() {
+        sheetStream?.close()
+        sheetStream = null
+        sharedStrings.close()
+    }
+
+    /**
+     * 共享字符串存储
+     * 字符串以UTF-8顺序写入临时文件，内存中只保留偏移量和一个小的LRU缓存
+     */
+    private class SharedStringStore(private val file: File) : Closeable {
+
+        private var output: BufferedOutputStream? = BufferedOutputStream(FileOutputStream(file))
+        private var input: RandomAccessFile? = null
+        private var offsets = IntArray(1024)
+        private var count = 0
+        private var length = 0
+        private var readBuffer = ByteArray(256)
+
+        private val cache = object : LinkedHashMap<Int, String>(CACHE_SIZE, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Int, String>?): Boolean {
+                return size > CACHE_SIZE
+            }
+        }
+
+        fun add(value: String) {
+            val bytes = value.toByteArray(Charsets.UTF_8)
+            if (count == offsets.size) {
+                offsets = offsets.copyOf(count * 2)
+            }
+            offsets[count++] = length
+            output?.write(bytes)
+            length += bytes.size
+        }
+
+        fun finishWriting() {
+            output?.close()
+            output = null
+            input = RandomAccessFile(file, "r")
+        }
+
+        fun get(index: Int): String? {
+            if (index !in 0 until count) return null
+            cache[index]?.let { return it }
+
+            val start = offsets[index]
+            val end = if (index + 1 < count) offsets[index + 1] else length
+            val size = end - start
+            if (readBuffer.size < size) {
+                readBuffer = ByteArray(size)
+            }
+            val raf = input ?: return null
+            raf.seek(start.toLong())
+            raf.readFully(readBuffer, 0, size)
+
+            val value = String(readBuffer, 0, size, Charsets.UTF_8)
+            cache[index] = value
+            return value
+        }
+
+        override fun close() {
+            output?.close()
+            input?.close()
+            file.delete()
+        }
+    }
+
+    companion object {
+        private const val SHARED_STRINGS_ENTRY = "xl/sharedStrings.xml"
+        private const val FIRST_SHEET_ENTRY = "xl/worksheets/sheet1.xml"
+        private const val SHEET_ENTRY_PREFIX = "xl/worksheets/sheet"
+        private const val CACHE_SIZE = 256
+
+        private fun newParser(input: InputStream): XmlPullParser {
+            return Xml.newPullParser().apply {
+                setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false)
+                setInput(input, "UTF-8")
+            }
+        }
+
+        private fun seekEntry(zip: ZipInputStream, name: String): Boolean {
+            while (true) {
+                val entry = zip.nextEntry ?: return false
+                if (entry.name == name) return true
+            }
+        }
+
+        /**
+         * 去掉命名空间前缀，如 x:row -> row
+         */
+        private fun localName(parser: XmlPullParser): String {
+            return parser.name.substringAfter(':')
+        }
+
+        private fun skipElement(parser: XmlPullParser) {
+            var depth = 1
+            while (depth > 0) {
+                when (parser.next()) {
+                    XmlPullParser.START_TAG -> depth++
+                    XmlPullParser.END_TAG -> depth--
+                    XmlPullParser.END_DOCUMENT -> return
+                }
+            }
+        }
+
+        /**
+         * 单元格引用转列下标，如 A1 -> 0，AB12 -> 27
+         */
+        private fun columnIndex(reference: String): Int {
+            var index = 0
+            for (char in reference) {
+                if (char !in 'A'..'Z') break
+                index = index * 26 + (char - 'A' + 1)
+            }
+            return index - 1
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.ai.bookkeeping.util.export
+
+import com.ai.bookkeeping.data.CategoryTotal
+import com.ai.bookkeeping.model.Transaction
+import com.ai.bookkeeping.model.TransactionType
+import java.io.Writer
+import java.text.NumberFormat
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
+
+/**
+ * CSV导出，带BOM头以便Excel正确识别中文
+ * 明细在前，汇总在后
+ */
+class CsvExporter : TextExporter() {
+
+    override val fileExtension = "csv"
+    override val mimeType = "text/csv"
+
+    private val currencyFormat = NumberFormat.getCurrencyInstance(Locale.CHINA)
+    private val dateFormat = SimpleDateFormat("yyyy-MM-dd HH:mm", Locale.getDefault())
+    private val rowDate = Date()
+
+    override fun writeHeader(period: ExportPeriod) {
+        // 添加BOM头支持中文
+        writer.write('\uFEFF'.code)
+        writer.append("统计周期,").appendCsvField(period.name).append("\n\n")
+        writer.append("交易明细\n")
+        writer.append("日期,类型,分类,金额,描述,备注\n")
+    }
+
+    override fun writeRow(transaction: Transaction) {
+        rowDate.time = transaction.date
+        writer.append(dateFormat.format(rowDate)).append(',')
+        writer.append(if (transaction.type == TransactionType.EXPENSE) "支出" else "收入").append(',')
+        writer.appendCsvField(transaction.category).append(',')
+        writer.appendCsvField(currencyFormat.format(transaction.amount)).append(',')
+        writer.appendCsvField(transaction.description).append(',')
+        writer.appendCsvField(transaction.note).append('\n')
+    }
+
+    override fun writeSummary(summary: ExportSummary) {
+        writer.append('\n')
+        writer.append("总收入,").appendCsvField(currencyFormat.format(summary.totalIncome)).append('\n')
+        writer.append("总支出,").appendCsvField(currencyFormat.format(summary.totalExpense)).append('\n')
+        writer.append("结余,").appendCsvField(currencyFormat.format(summary.totalIncome - summary.totalExpense)).append('\n')
+        writer.append("交易笔数,").append(summary.transactionCount.toString()).append("\n\n")
+
+        writeCategorySection("支出分类统计", summary.expenseCategories)
+        writeCategorySection("收入分类统计", summary.incomeCategories)
+    }
+
+    private fun writeCategorySection(title: String, categories: List<CategoryTotal>) {
+        if (categories.isEmpty()) return
+
+        writer.append(title).append('\n')
+        writer.append("分类,金额,占比\n")
+        val total = categories.sumOf { it.total }
+        categories.forEach { cat ->
+            val percent = if (total > 0) cat.total / total * 100 else 0.0
+            writer.appendCsvField(cat.category).append(',')
+            writer.appendCsvField(currencyFormat.format(cat.total)).append(',')
+            writer.append(String.format("%.1f%%", percent)).append('\n')
+        }
+        writer.append('\n')
+    }
+
+    /**
+     * 写入一个CSV字段，含逗号、引号或换行时加引号并转义
+     */
+    private fun Writer.appendCsvField(value: String): Writer {
+        if (value.none { it == ',' || it == '"' || it == '\n' || it == '\r' }) {
+            return append(value)
+        }
+        append('"')
+        for (char in value) {
+            if (char == '"') append('"')
+            append(char)
+        }
+        return append('"')
+    }
+}
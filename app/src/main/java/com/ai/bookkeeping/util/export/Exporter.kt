@@ -0,0 +1,98 @@
+package com.ai.bookkeeping.util.export
+
+import com.ai.bookkeeping.data.CategoryTotal
+import com.ai.bookkeeping.model.Transaction
+import java.io.OutputStream
+
+/**
+ * 流式导出器
+ *
+ * 调用顺序固定为：[begin] -> [writeRow]（零到多次）-> [writeSummary] -> [end]。
+ * 导出器逐条把交易编码写入输出流，不持有整个数据集；
+ * 输出流由调用方负责关闭，[end] 只写入结尾并刷新缓冲。
+ */
+interface Exporter {
+
+    /** 文件扩展名（不含点） */
+    val fileExtension: String
+
+    /** 写入 MediaStore 时使用的 MIME 类型 */
+    val mimeType: String
+
+    /**
+     * 开始导出，写入文件头
+     */
+    fun begin(output: OutputStream, period: ExportPeriod)
+
+    /**
+     * 写入一条交易
+     */
+    fun writeRow(transaction: Transaction)
+
+    /**
+     * 写入汇总信息，不支持汇总的格式可忽略
+     */
+    fun writeSummary(summary: ExportSummary)
+
+    /**
+     * 写入结尾并刷新缓冲
+     */
+    fun end()
+}
+
+/**
+ * 导出的时间范围
+ */
+data class ExportPeriod(
+    val name: String,
+    val startDate: Long,
+    val endDate: Long
+)
+
+/**
+ * 导出汇总，在写出明细时逐行累加得到，与文件中实际写出的行一致
+ * 导出分页读取、不在事务中进行，导出期间新增的记录是否包含取决于它所在的位置
+ */
+data class ExportSummary(
+    val totalIncome: Double,
+    val totalExpense: Double,
+    val transactionCount: Int,
+    val expenseCategories: List<CategoryTotal>,
+    val incomeCategories: List<CategoryTotal>
+)
+
+/**
+ * 支持的导出格式
+ */
+enum class ExportFormat(val displayName: String) {
+    CSV("CSV表格"),
+    XLSX("Excel (xlsx)"),
+    OFX("OFX (财务软件)"),
+    QIF("QIF (财务软件)"),
+    JSON_LINES("JSON Lines");
+
+    fun createExporter(): Exporter = when (this) {
+        CSV -> CsvExporter()
+        XLSX -> XlsxExporter()
+        OFX -> OfxExporter()
+        QIF -> QifExporter()
+        JSON_LINES -> JsonLinesExporter()
+    }
+}
+
+/**
+ * 写入转义后的XML文本，并丢弃XML不允许的控制字符
+ */
+internal fun Appendable.appendXmlEscaped(value: String): Appendable {
+    for (char in value) {
+        when {
+            char == '&' -> append("&amp;")
+            char == '<' -> append("&lt;")
+            char == '>' -> append("&gt;")
+            char == '"' -> append("&quot;")
+            char < ' ' && char != '\t' && char != '\n' && char != '\r' -> Unit
+            else -> append(char)
+        }
+    }
+    return this
+}
@@ -0,0 +1,64 @@
+package com.ai.bookkeeping.util.export
+
+import com.ai.bookkeeping.model.Transaction
+import com.ai.bookkeeping.model.TransactionType
+import com.google.gson.stream.JsonWriter
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
+
+/**
+ * JSON Lines 导出：每行一个独立的JSON对象，便于脚本逐行处理
+ * 交易行 "record" 为 "transaction"，最后一行 "record" 为 "summary"
+ */
+class JsonLinesExporter : TextExporter() {
+
+    override val fileExtension = "jsonl"
+    override val mimeType = "application/x-ndjson"
+
+    private val dateFormat = SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX", Locale.US)
+    private val rowDate = Date()
+    private lateinit var json: JsonWriter
+
+    override fun writeHeader(period: ExportPeriod) {
+        // 宽松模式允许连续写多个顶层对象；JsonWriter无内部缓冲，换行可直接写入底层writer
+        json = JsonWriter(writer).apply { isLenient = true }
+    }
+
+    override fun writeRow(transaction: Transaction) {
+        rowDate.time = transaction.date
+
+        json.beginObject()
+        json.name("record").value("transaction")
+        json.name("id").value(transaction.id)
+        json.name("date").value(dateFormat.format(rowDate))
+        json.name("timestamp").value(transaction.date)
+        json.name("type").value(if (transaction.type == TransactionType.EXPENSE) "expense" else "income")
+        json.name("amount").value(transaction.amount)
+        json.name("category").value(transaction.category)
+        json.name("description").value(transaction.description)
+        json.name("note").value(transaction.note)
+        json.name("accountId").value(transaction.accountId)
+        json.name("notebookId").value(transaction.notebookId)
+        json.name("aiParsed").value(transaction.aiParsed)
+        json.endObject()
+        writer.append('\n')
+    }
+
+    override fun writeSummary(summary: ExportSummary) {
+        json.beginObject()
+        json.name("record").value("summary")
+        json.name("totalIncome").value(summary.totalIncome)
+        json.name("totalExpense").value(summary.totalExpense)
+        json.name("balance").value(summary.totalIncome - summary.totalExpense)
+        json.name("transactionCount").value(summary.transactionCount.toLong())
+        json.name("expenseCategories").beginObject()
+        summary.expenseCategories.forEach { json.name(it.category).value(it.total) }
+        json.endObject()
+        json.name("incomeCategories").beginObject()
+        summary.incomeCategories.forEach { json.name(it.category).value(it.total) }
+        json.endObject()
+        json.endObject()
+        writer.append('\n')
+    }
+}
@@ -0,0 +1,98 @@
+package com.ai.bookkeeping.util.export
+
+import com.ai.bookkeeping.model.Transaction
+import com.ai.bookkeeping.model.TransactionType
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
+import java.util.TimeZone
+
+/**
+ * OFX 2.2 导出（XML格式的银行对账单），可导入 GnuCash、Quicken、Moneydance 等财务软件
+ * 所有交易作为一个人民币现金账户的流水，汇总写为账户余额
+ */
+class OfxExporter : TextExporter() {
+
+    override val fileExtension = "ofx"
+    override val mimeType = "application/x-ofx"
+
+    // OFX时间统一用UTC表示
+    private val dateFormat = SimpleDateFormat("yyyyMMddHHmmss.SSS'[0:GMT]'", Locale.US).apply {
+        timeZone = TimeZone.getTimeZone("UTC")
+    }
+    private val rowDate = Date()
+    private var period: ExportPeriod? = null
+    private var transactionListClosed = false
+
+    override fun writeHeader(period: ExportPeriod) {
+        this.period = period
+
+        writer.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n")
+        writer.append("<?OFX OFXHEADER=\"200\" VERSION=\"220\" SECURITY=\"NONE\" OLDFILEUID=\"NONE\" NEWFILEUID=\"NONE\"?>\n")
+        writer.append("<OFX>\n")
+        writer.append("<SIGNONMSGSRSV1><SONRS>\n")
+        writer.append("<STATUS><CODE>0</CODE><SEVERITY>INFO</SEVERITY></STATUS>\n")
+        writer.append("<DTSERVER>").append(formatDate(System.currentTimeMillis())).append("</DTSERVER>\n")
+        writer.append("<LANGUAGE>CHI</LANGUAGE>\n")
+        writer.append("</SONRS></SIGNONMSGSRSV1>\n")
+        writer.append("<BANKMSGSRSV1><STMTTRNRS>\n")
+        writer.append("<TRNUID>0</TRNUID>\n")
+        writer.append("<STATUS><CODE>0</CODE><SEVERITY>INFO</SEVERITY></STATUS>\n")
+        writer.append("<STMTRS>\n")
+        writer.append("<CURDEF>CNY</CURDEF>\n")
+        writer.append("<BANKACCTFROM><BANKID>AIBOOKKEEPING</BANKID><ACCTID>DEFAULT</ACCTID><ACCTTYPE>CHECKING</ACCTTYPE></BANKACCTFROM>\n")
+        writer.append("<BANKTRANLIST>\n")
+        writer.append("<DTSTART>").append(formatDate(period.startDate)).append("</DTSTART>\n")
+        writer.append("<DTEND>").append(formatDate(period.endDate)).append("</DTEND>\n")
+    }
+
+    override fun writeRow(transaction: Transaction) {
+        val isExpense = transaction.type == TransactionType.EXPENSE
+        val signedAmount = if (isExpense) -transaction.amount else transaction.amount
+        val name = transaction.description.ifBlank { transaction.category }
+        val memo = if (transaction.note.isBlank()) transaction.category else "${transaction.category} - ${transaction.note}"
+
+        writer.append("<STMTTRN>")
+        writer.append("<TRNTYPE>").append(if (isExpense) "DEBIT" else "CREDIT").append("</TRNTYPE>")
+        writer.append("<DTPOSTED>").append(formatDate(transaction.date)).append("</DTPOSTED>")
+        writer.append("<TRNAMT>").append(String.format(Locale.US, "%.2f", signedAmount)).append("</TRNAMT>")
+        writer.append("<FITID>").append(transaction.id.toString()).append("</FITID>")
+        // OFX规定NAME最长32个字符
+        writer.append("<NAME>").appendXmlEscaped(name.take(MAX_NAME_LENGTH)).append("</NAME>")
+        writer.append("<MEMO>").appendXmlEscaped(memo.take(MAX_MEMO_LENGTH)).append("</MEMO>")
+        writer.append("</STMTTRN>\n")
+    }
+
+    override fun writeSummary(summary: ExportSummary) {
+        val asOf = period?.endDate?.coerceAtMost(System.currentTimeMillis()) ?: System.currentTimeMillis()
+
+        closeTransactionList()
+        writer.append("<LEDGERBAL>")
+        writer.append("<BALAMT>").append(String.format(Locale.US, "%.2f", summary.totalIncome - summary.totalExpense)).append("</BALAMT>")
+        writer.append("<DTASOF>").append(formatDate(asOf)).append("</DTASOF>")
+        writer.append("</LEDGERBAL>\n")
+    }
+
+    override fun writeFooter() {
+        closeTransactionList()
+        writer.append("</STMTRS>\n")
+        writer.append("</STMTTRNRS></BANKMSGSRSV1>\n")
+        writer.append("</OFX>\n")
+    }
+
+    private fun closeTransactionList() {
+        if (transactionListClosed) return
+        writer.append("</BANKTRANLIST>\n")
+        transactionListClosed = true
+    }
+
+    private fun formatDate(millis: Long): String {
+        rowDate.time = millis
+        return dateFormat.format(rowDate)
+    }
+
+    companion object {
+        private const val MAX_NAME_LENGTH = 32
+        private const val MAX_MEMO_LENGTH = 255
+    }
+}
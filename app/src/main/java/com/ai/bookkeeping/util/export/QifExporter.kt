@@ -0,0 +1,55 @@
+package com.ai.bookkeeping.util.export
+
+import com.ai.bookkeeping.model.Transaction
+import com.ai.bookkeeping.model.TransactionType
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
+
+/**
+ * QIF导出（Quicken Interchange Format），可导入 GnuCash、Quicken 等桌面财务软件
+ * 每条交易为若干以字段代码开头的行，以 ^ 结束；QIF没有汇总记录
+ */
+class QifExporter : TextExporter() {
+
+    override val fileExtension = "qif"
+    override val mimeType = "application/qif"
+
+    private val dateFormat = SimpleDateFormat("MM/dd/yyyy", Locale.US)
+    private val rowDate = Date()
+
+    override fun writeHeader(period: ExportPeriod) {
+        writer.append("!Type:Cash\n")
+    }
+
+    override fun writeRow(transaction: Transaction) {
+        rowDate.time = transaction.date
+        val signedAmount = if (transaction.type == TransactionType.EXPENSE) -transaction.amount else transaction.amount
+
+        writer.append('D').append(dateFormat.format(rowDate)).append('\n')
+        writer.append('T').append(String.format(Locale.US, "%.2f", signedAmount)).append('\n')
+        if (transaction.description.isNotBlank()) {
+            writer.append('P').append(singleLine(transaction.description)).append('\n')
+        }
+        writer.append('L').append(singleLine(transaction.category)).append('\n')
+        if (transaction.note.isNotBlank()) {
+            writer.append('M').append(singleLine(transaction.note)).append('\n')
+        }
+        writer.append("^\n")
+    }
+
+    override fun writeSummary(summary: ExportSummary) {
+        // QIF没有汇总记录
+    }
+
+    /**
+     * QIF按行分隔字段，字段内的换行替换为空格
+     */
+    private fun singleLine(value: String): String {
+        return if (value.contains('\n') || value.contains('\r')) {
+            value.replace("\r\n", " ").replace('\n', ' ').replace('\r', ' ')
+        } else {
+            value
+        }
+    }
+}
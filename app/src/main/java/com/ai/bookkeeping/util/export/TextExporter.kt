@@ -0,0 +1,36 @@
+package com.ai.bookkeeping.util.export
+
+import java.io.BufferedWriter
+import java.io.OutputStream
+import java.io.OutputStreamWriter
+import java.io.Writer
+import java.nio.charset.Charset
+
+/**
+ * 文本格式导出器基类，统一缓冲写入
+ */
+abstract class TextExporter(
+    private val charset: Charset = Charsets.UTF_8
+) : Exporter {
+
+    protected lateinit var writer: Writer
+        private set
+
+    override fun begin(output: OutputStream, period: ExportPeriod) {
+        writer = BufferedWriter(OutputStreamWriter(output, charset), BUFFER_SIZE)
+        writeHeader(period)
+    }
+
+    override fun end() {
+        writeFooter()
+        writer.flush()
+    }
+
+    protected open fun writeHeader(period: ExportPeriod) {}
+
+    protected open fun writeFooter() {}
+
+    companion object {
+        private const val BUFFER_SIZE = 64 * 1024
+    }
+}
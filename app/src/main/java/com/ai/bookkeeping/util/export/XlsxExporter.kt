@@ -0,0 +1,244 @@
+package com.ai.bookkeeping.util.export
+
+import com.ai.bookkeeping.data.CategoryTotal
+import com.ai.bookkeeping.model.Transaction
+import com.ai.bookkeeping.model.TransactionType
+import java.io.BufferedWriter
+import java.io.OutputStream
+import java.io.OutputStreamWriter
+import java.io.Writer
+import java.util.Locale
+import java.util.TimeZone
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+/**
+ * 最小化的流式XLSX导出
+ *
+ * XLSX是若干XML组成的zip包。明细工作表在写入交易时逐行追加到zip条目中，
+ * 单元格使用内联字符串（inlineStr），不需要先收集共享字符串表，
+ * 因此内存占用与行数无关。工作簿、样式等固定部分在 [end] 时写入。
+ */
+class XlsxExporter : Exporter {
+
+    override val fileExtension = "xlsx"
+    override val mimeType = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"
+
+    private lateinit var zip: ZipOutputStream
+    private lateinit var writer: Writer
+    private val timeZone = TimeZone.getDefault()
+    private val sheetNames = mutableListOf<String>()
+    private var sheetOpen = false
+    private var rowNumber = 0
+
+    override fun begin(output: OutputStream, period: ExportPeriod) {
+        zip = ZipOutputStream(output)
+        writer = BufferedWriter(OutputStreamWriter(zip, Charsets.UTF_8), BUFFER_SIZE)
+
+        openSheet("明细", DETAIL_COLUMN_WIDTHS)
+        writeRowStart()
+        HEADER.forEachIndexed { column, title -> writeTextCell(column, title, STYLE_BOLD) }
+        writeRowEnd()
+    }
+
+    override fun writeRow(transaction: Transaction) {
+        writeRowStart()
+        writeNumberCell(0, toExcelDate(transaction.date), STYLE_DATE)
+        writeTextCell(1, if (transaction.type == TransactionType.EXPENSE) "支出" else "收入")
+        writeTextCell(2, transaction.category)
+        writeNumberCell(3, transaction.amount, STYLE_AMOUNT)
+        writeTextCell(4, transaction.description)
+        writeTextCell(5, transaction.note)
+        writeRowEnd()
+    }
+
+    override fun writeSummary(summary: ExportSummary) {
+        closeSheet()
+        openSheet("汇总", SUMMARY_COLUMN_WIDTHS)
+
+        writeLabelRow("总收入", summary.totalIncome)
+        writeLabelRow("总支出", summary.totalExpense)
+        writeLabelRow("结余", summary.totalIncome - summary.totalExpense)
+        writeRowStart()
+        writeTextCell(0, "交易笔数")
+        writeNumberCell(1, summary.transactionCount.toDouble(), STYLE_DEFAULT)
+        writeRowEnd()
+
+        writeCategorySection("支出分类统计", summary.expenseCategories)
+        writeCategorySection("收入分类统计", summary.incomeCategories)
+    }
+
+    override fun end() {
+        closeSheet()
+
+        writeEntry("[Content_Types].xml") {
+            append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n")
+            append("<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">")
+            append("<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>")
+            append("<Default Extension=\"xml\" ContentType=\"application/xml\"/>")
+            append("<Override PartName=\"/xl/workbook.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>")
+            append("<Override PartName=\"/xl/styles.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.styles+xml\"/>")
+            for (index in sheetNames.indices) {
+                append("<Override PartName=\"/xl/worksheets/sheet${index + 1}.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>")
+            }
+            append("</Types>")
+        }
+
+        writeEntry("_rels/.rels") {
+            append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n")
+            append("<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">")
+            append("<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument\" Target=\"xl/workbook.xml\"/>")
+            append("</Relationships>")
+        }
+
+        writeEntry("xl/workbook.xml") {
+            append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n")
+            append("<workbook xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\"><sheets>")
+            sheetNames.forEachIndexed { index, name ->
+                append("<sheet name=\"").appendXmlEscaped(name).append("\" sheetId=\"${index + 1}\" r:id=\"rId${index + 1}\"/>")
+            }
+            append("</sheets></workbook>")
+        }
+
+        writeEntry("xl/_rels/workbook.xml.rels") {
+            append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n")
+            append("<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">")
+            for (index in sheetNames.indices) {
+                append("<Relationship Id=\"rId${index + 1}\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/worksheet\" Target=\"worksheets/sheet${index + 1}.xml\"/>")
+            }
+            append("<Relationship Id=\"rId${sheetNames.size + 1}\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/styles\" Target=\"styles.xml\"/>")
+            append("</Relationships>")
+        }
+
+        writeEntry("xl/styles.xml") { append(STYLES_XML) }
+
+        // 只结束zip，不关闭调用方的输出流
+        zip.finish()
+    }
+
+    private fun writeLabelRow(label: String, amount: Double) {
+        writeRowStart()
+        writeTextCell(0, label)
+        writeNumberCell(1, amount, STYLE_AMOUNT)
+        writeRowEnd()
+    }
+
+    private fun writeCategorySection(title: String, categories: List<CategoryTotal>) {
+        if (categories.isEmpty()) return
+
+        rowNumber++ // 空一行
+        writeRowStart()
+        writeTextCell(0, title, STYLE_BOLD)
+        writeRowEnd()
+
+        val total = categories.sumOf { it.total }
+        categories.forEach { cat ->
+            writeRowStart()
+            writeTextCell(0, cat.category)
+            writeNumberCell(1, cat.total, STYLE_AMOUNT)
+            writeNumberCell(2, if (total > 0) cat.total / total else 0.0, STYLE_PERCENT)
+            writeRowEnd()
+        }
+    }
+
+    private fun openSheet(name: String, columnWidths: IntArray) {
+        sheetNames.add(name)
+        zip.putNextEntry(ZipEntry("xl/worksheets/sheet${sheetNames.size}.xml"))
+        sheetOpen = true
+        rowNumber = 0
+
+        writer.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n")
+        writer.append("<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"><cols>")
+        columnWidths.forEachIndexed { index, width ->
+            writer.append("<col min=\"${index + 1}\" max=\"${index + 1}\" width=\"$width\" customWidth=\"1\"/>")
+        }
+        writer.append("</cols><sheetData>")
+    }
+
+    private fun closeSheet() {
+        if (!sheetOpen) return
+        writer.append("</sheetData></worksheet>")
+        writer.flush()
+        zip.closeEntry()
+        sheetOpen = false
+    }
+
+    private inline fun writeEntry(name: String, content: Writer.() -> Unit) {
+        zip.putNextEntry(ZipEntry(name))
+        writer.content()
+        writer.flush()
+        zip.closeEntry()
+    }
+
+    private fun writeRowStart() {
+        rowNumber++
+        writer.append("<row r=\"").append(rowNumber.toString()).append("\">")
+    }
+
+    private fun writeRowEnd() {
+        writer.append("</row>")
+    }
+
+    private fun writeTextCell(column: Int, value: String, style: Int = STYLE_DEFAULT) {
+        if (value.isEmpty()) return
+        writer.append("<c r=\"").append(COLUMN_NAMES[column]).append(rowNumber.toString()).append('"')
+        if (style != STYLE_DEFAULT) writer.append(" s=\"").append(style.toString()).append('"')
+        writer.append(" t=\"inlineStr\"><is><t xml:space=\"preserve\">")
+        writer.appendXmlEscaped(value)
+        writer.append("</t></is></c>")
+    }
+
+    private fun writeNumberCell(column: Int, value: Double, style: Int) {
+        writer.append("<c r=\"").append(COLUMN_NAMES[column]).append(rowNumber.toString()).append('"')
+        if (style != STYLE_DEFAULT) writer.append(" s=\"").append(style.toString()).append('"')
+        writer.append("><v>").append(String.format(Locale.US, "%.6f", value).trimEnd('0').trimEnd('.')).append("</v></c>")
+    }
+
+    /**
+     * 时间戳转Excel序列值（自1899-12-30起的天数，按本地时区显示）
+     */
+    private fun toExcelDate(millis: Long): Double {
+        val localMillis = millis + timeZone.getOffset(millis)
+        return localMillis.toDouble() / MILLIS_PER_DAY + EXCEL_EPOCH_OFFSET_DAYS
+    }
+
+    companion object {
+        private const val BUFFER_SIZE = 64 * 1024
+
+        // Excel序列值0对应1899-12-30，与Unix纪元相差25569天
+        private const val EXCEL_EPOCH_OFFSET_DAYS = 25569
+        private const val MILLIS_PER_DAY = 86_400_000.0
+
+        // 对应 STYLES_XML 中 cellXfs 的下标
+        private const val STYLE_DEFAULT = 0
+        private const val STYLE_DATE = 1
+        private const val STYLE_AMOUNT = 2
+        private const val STYLE_BOLD = 3
+        private const val STYLE_PERCENT = 4
+
+        private val HEADER = listOf("日期", "类型", "分类", "金额", "描述", "备注")
+        private val COLUMN_NAMES = arrayOf("A", "B", "C", "D", "E", "F")
+        private val DETAIL_COLUMN_WIDTHS = intArrayOf(18, 8, 12, 12, 30, 40)
+        private val SUMMARY_COLUMN_WIDTHS = intArrayOf(16, 14, 10)
+
+        private const val STYLES_XML =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n" +
+            "<styleSheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">" +
+            "<numFmts count=\"1\"><numFmt numFmtId=\"164\" formatCode=\"yyyy-mm-dd hh:mm\"/></numFmts>" +
+            "<fonts count=\"2\"><font><sz val=\"11\"/><name val=\"Calibri\"/></font>" +
+            "<font><b/><sz val=\"11\"/><name val=\"Calibri\"/></font></fonts>" +
+            "<fills count=\"2\"><fill><patternFill patternType=\"none\"/></fill>" +
+            "<fill><patternFill patternType=\"gray125\"/></fill></fills>" +
+            "<borders count=\"1\"><border><left/><right/><top/><bottom/><diagonal/></border></borders>" +
+            "<cellStyleXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/></cellStyleXfs>" +
+            "<cellXfs count=\"5\">" +
+            "<xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\"/>" +
+            "<xf numFmtId=\"164\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\" applyNumberFormat=\"1\"/>" +
+            "<xf numFmtId=\"2\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\" applyNumberFormat=\"1\"/>" +
+            "<xf numFmtId=\"0\" fontId=\"1\" fillId=\"0\" borderId=\"0\" xfId=\"0\" applyFont=\"1\"/>" +
+            "<xf numFmtId=\"10\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\" applyNumberFormat=\"1\"/>" +
+            "</cellXfs>" +
+            "<cellStyles count=\"1\"><cellStyle name=\"Normal\" xfId=\"0\" builtinId=\"0\"/></cellStyles>" +
+            "</styleSheet>"
+    }
+}
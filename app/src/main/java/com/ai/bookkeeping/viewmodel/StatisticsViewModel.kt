@@ -7,6 +7,7 @@ import androidx.lifecycle.LiveData
 import androidx.lifecycle.MutableLiveData
 import androidx.lifecycle.viewModelScope
 import com.ai.bookkeeping.ai.AIService
+import com.ai.bookkeeping.ai.AnalysisFeatures
 import com.ai.bookkeeping.data.AppDatabase
 import com.ai.bookkeeping.data.CategoryTotal
 import com.ai.bookkeeping.data.DailyTotal
@@ -14,11 +15,16 @@ import com.ai.bookkeeping.data.MonthlyTotal
 import com.ai.bookkeeping.data.TransactionRepository
 import com.ai.bookkeeping.model.Transaction
 import com.ai.bookkeeping.model.TransactionType
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.flow.catch
+import kotlinx.coroutines.flow.onCompletion
 import kotlinx.coroutines.launch
 import java.util.Calendar
 
 class StatisticsViewModel(application: Application) : AndroidViewModel(application) {
 
+    private val database = AppDatabase.getDatabase(application)
     private val repository: TransactionRepository
 
     // 统计周期
@@ -78,8 +84,10 @@ class StatisticsViewModel(application: Application) : AndroidViewModel(applicati
     private val _analysisError = MutableLiveData<String?>()
     val analysisError: LiveData<String?> = _analysisError
 
+    private var analysisJob: Job? = null
+
     init {
-        val transactionDao = AppDatabase.getDatabase(application).transactionDao()
+        val transactionDao = database.transactionDao()
         repository = TransactionRepository.getInstance(transactionDao)
 
         // 初始化为本月
@@ -196,7 +204,7 @@ class StatisticsViewModel(application: Application) : AndroidViewModel(applicati
         _analysisError.value = null
         _aiAnalysis.value = null
 
-        viewModelScope.launch {
+        analysisJob = viewModelScope.launch {
             val income = _totalIncome.value ?: 0.0
             val expense = _totalExpense.value ?: 0.0
             val categories = _expenseCategories.value ?: emptyList()
@@ -213,29 +221,49 @@ class StatisticsViewModel(application: Application) : AndroidViewModel(applicati
 
             val categoryBreakdown = categories.map { it.category to it.total }
 
-            val result = AIService.analyzeFinancialData(
+            // 特征摘要计算失败时只发送基本统计
+            val start = _startDate.value
+            val end = _endDate.value
+            val features = if (start != null && end != null) {
+                try {
+                    AnalysisFeatures.summarize(database, start, end)
+                } catch (e: CancellationException) {
+                    throw e
+                } catch (e: Exception) {
+                    ""
+                }
+            } else ""
+
+            // 边生成边显示，已收到的文本逐段追加
+            val analysis = StringBuilder()
+            AIService.analyzeFinancialData(
                 context = context,
                 totalIncome = income,
                 totalExpense = expense,
                 categoryBreakdown = categoryBreakdown,
                 period = periodName,
-                transactionCount = count
+                transactionCount = count,
+                features = features
             )
-
-            result.fold(
-                onSuccess = { analysis ->
-                    _aiAnalysis.postValue(analysis)
-                    _isAnalyzing.postValue(false)
-                },
-                onFailure = { error ->
-                    _analysisError.postValue(error.message ?: "分析失败")
-                    _isAnalyzing.postValue(false)
+                .onCompletion { _isAnalyzing.value = false }
+                .catch { error -> _analysisError.value = error.message ?: "分析失败" }
+                .collect { delta ->
+                    analysis.append(delta)
+                    _aiAnalysis.value = analysis.toString()
                 }
-            )
         }
     }
 
+    /**
+     * 中途停止分析，已显示的内容保留
+     */
+    fun cancelAnalysis() {
+        analysisJob?.cancel()
+        analysisJob = null
+    }
+
     fun clearAnalysis() {
+        cancelAnalysis()
         _aiAnalysis.value = null
         _analysisError.value = null
     }
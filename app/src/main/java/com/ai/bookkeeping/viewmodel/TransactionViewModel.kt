@@ -37,6 +37,14 @@ class TransactionViewModel(application: Application) : AndroidViewModel(applicat
         loadCurrentMonthSummary()
     }
 
+    /**
+     * 批量插入（一次事务）
+     */
+    fun insertAll(transactions: List<Transaction>) = viewModelScope.launch {
+        repository.insertAll(transactions)
+        loadCurrentMonthSummary()
+    }
+
     fun update(transaction: Transaction) = viewModelScope.launch {
         repository.update(transaction)
         loadCurrentMonthSummary()
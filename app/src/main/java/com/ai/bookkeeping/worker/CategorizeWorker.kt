@@ -0,0 +1,82 @@
+package com.ai.bookkeeping.worker
+
+import android.content.Context
+import android.util.Log
+import androidx.work.Constraints
+import androidx.work.CoroutineWorker
+import androidx.work.ExistingWorkPolicy
+import androidx.work.NetworkType
+import androidx.work.OneTimeWorkRequestBuilder
+import androidx.work.WorkManager
+import androidx.work.WorkerParameters
+import androidx.work.workDataOf
+import com.ai.bookkeeping.ai.AIService
+import com.ai.bookkeeping.ai.BatchCategorizer
+import com.ai.bookkeeping.data.AppDatabase
+import com.ai.bookkeeping.util.CategoryClassifier
+
+/**
+ * 批量重新分类后台任务
+ *
+ * 把分类为"其他"的交易每 [BatchCategorizer.BATCH_SIZE] 条合成一个请求交给大模型（见 [BatchCategorizer]）。
+ * 2000 条导入记录约 40 次请求即可处理完，而不是逐条请求。
+ */
+class CategorizeWorker(
+    context: Context,
+    params: WorkerParameters
+) : CoroutineWorker(context, params) {
+
+    private val database = AppDatabase.getDatabase(context)
+
+    override suspend fun doWork(): Result {
+        if (!AIService.hasApiKey(applicationContext)) return Result.success()
+
+        var afterId = 0L
+        var updated = 0
+        while (true) {
+            val batch = database.transactionDao()
+                .getByCategoryPage(CategoryClassifier.DEFAULT_CATEGORY, afterId, BatchCategorizer.BATCH_SIZE)
+            if (batch.isEmpty()) break
+            afterId = batch.last().id
+
+            updated += BatchCategorizer.categorize(applicationContext, database, batch, REQUEST_ATTEMPTS)
+                .getOrElse { e ->
+                    Log.e(TAG, "批量分类请求失败", e)
+                    return if (runAttemptCount < MAX_RETRIES) Result.retry() else Result.failure()
+                }
+            setProgress(workDataOf(KEY_UPDATED to updated))
+        }
+
+        Log.d(TAG, "批量分类完成：更新 $updated 条")
+        return Result.success(workDataOf(KEY_UPDATED to updated))
+    }
+
+    companion object {
+        private const val TAG = "CategorizeWorker"
+        private const val MAX_RETRIES = 3
+
+        // 分类请求可以安全重试
+        private const val REQUEST_ATTEMPTS = 3
+
+        const val UNIQUE_WORK_NAME = "categorize_transactions"
+        const val KEY_UPDATED = "updated"
+
+        /**
+         * 提交批量分类任务，有网络时执行
+         * 已有任务在进行时排在其后：进行中的任务可能已扫过新导入的记录，
+         * 后面这次会把它们补上，没有待分类记录时立即结束
+         */
+        fun enqueue(context: Context) {
+            val request = OneTimeWorkRequestBuilder<CategorizeWorker>()
+                .setConstraints(
+                    Constraints.Builder()
+                        .setRequiredNetworkType(NetworkType.CONNECTED)
+                        .build()
+                )
+                .build()
+
+            WorkManager.getInstance(context)
+                .enqueueUniqueWork(UNIQUE_WORK_NAME, ExistingWorkPolicy.APPEND_OR_REPLACE, request)
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.ai.bookkeeping.worker
+
+import android.content.Context
+import android.util.Log
+import androidx.work.BackoffPolicy
+import androidx.work.Constraints
+import androidx.work.CoroutineWorker
+import androidx.work.ExistingWorkPolicy
+import androidx.work.NetworkType
+import androidx.work.OneTimeWorkRequestBuilder
+import androidx.work.WorkManager
+import androidx.work.WorkerParameters
+import androidx.work.workDataOf
+import com.ai.bookkeeping.ai.AIService
+import com.ai.bookkeeping.ai.BatchCategorizer
+import com.ai.bookkeeping.data.AppDatabase
+import java.util.concurrent.TimeUnit
+
+/**
+ * 离线补全任务
+ *
+ * 按入队顺序每次取 [BatchCategorizer.BATCH_SIZE] 条待补全任务，一个请求重新分类并原地更新交易。
+ * 请求失败时任务留在队列中等待重试，多次失败后放弃。
+ */
+class EnrichmentWorker(
+    context: Context,
+    params: WorkerParameters
+) : CoroutineWorker(context, params) {
+
+    private val database = AppDatabase.getDatabase(context)
+
+    override suspend fun doWork(): Result {
+        val dao = database.enrichmentTaskDao()
+        if (!AIService.hasApiKey(applicationContext)) return Result.success()
+
+        var updated = 0
+        while (true) {
+            dao.deleteExhausted(MAX_TASK_ATTEMPTS)
+            val tasks = dao.getBatch(BatchCategorizer.BATCH_SIZE)
+            if (tasks.isEmpty()) break
+            val ids = tasks.map { it.transactionId }
+
+            val result = BatchCategorizer.categorize(
+                applicationContext, database, dao.getTransactions(ids), REQUEST_ATTEMPTS
+            )
+            result.onSuccess { count ->
+                updated += count
+                dao.deleteByIds(ids)
+                setProgress(workDataOf(KEY_UPDATED to updated))
+            }.onFailure { e ->
+                Log.e(TAG, "补全请求失败，稍后重试", e)
+                dao.incrementAttempts(ids)
+                return Result.retry()
+            }
+        }
+
+        Log.d(TAG, "补全完成：更新 $updated 条")
+        return Result.success(workDataOf(KEY_UPDATED to updated))
+    }
+
+    companion object {
+        private const val TAG = "EnrichmentWorker"
+
+        // 单个任务最多失败的次数
+        private const val MAX_TASK_ATTEMPTS = 5
+
+        private const val REQUEST_ATTEMPTS = 2
+
+        const val UNIQUE_WORK_NAME = "enrich_transactions"
+        const val KEY_UPDATED = "updated"
+
+        /**
+         * 提交补全任务：联网且电量不低时执行
+         * 已有任务在执行时排在它之后：它可能已经取过最后一批、即将结束，新入队的记录要靠下一个任务处理；
+         * 排在后面的任务开始时队列已空就直接结束
+         */
+        fun enqueue(context: Context) {
+            val request = OneTimeWorkRequestBuilder<EnrichmentWorker>()
+                .setConstraints(
+                    Constraints.Builder()
+                        .setRequiredNetworkType(NetworkType.CONNECTED)
+                        .setRequiresBatteryNotLow(true)
+                        .build()
+                )
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, 1, TimeUnit.MINUTES)
+                .build()
+
+            WorkManager.getInstance(context)
+                .enqueueUniqueWork(UNIQUE_WORK_NAME, ExistingWorkPolicy.APPEND_OR_REPLACE, request)
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.ai.bookkeeping.worker
+
+import android.app.NotificationChannel
+import android.app.NotificationManager
+import android.content.Context
+import android.content.pm.ServiceInfo
+import android.os.Build
+import androidx.core.app.NotificationCompat
+import androidx.work.CoroutineWorker
+import androidx.work.ExistingWorkPolicy
+import androidx.work.ForegroundInfo
+import androidx.work.OneTimeWorkRequestBuilder
+import androidx.work.WorkManager
+import androidx.work.WorkerParameters
+import androidx.work.workDataOf
+import com.ai.bookkeeping.R
+import com.ai.bookkeeping.util.ExportUtil
+import com.ai.bookkeeping.util.export.ExportFormat
+import java.util.UUID
+
+/**
+ * 交易导出后台任务
+ *
+ * 以前台任务形式调用 [ExportUtil.exportTransactions] 流式写出文件，
+ * 每写完一页更新进度和通知，界面退出后导出也会继续。
+ */
+class ExportWorker(
+    context: Context,
+    params: WorkerParameters
+) : CoroutineWorker(context, params) {
+
+    override suspend fun doWork(): Result {
+        val format = inputData.getString(KEY_FORMAT)
+            ?.let { name -> ExportFormat.values().firstOrNull { it.name == name } }
+            ?: return Result.failure()
+        val startDate = inputData.getLong(KEY_START_DATE, NO_DATE).takeIf { it != NO_DATE }
+        val endDate = inputData.getLong(KEY_END_DATE, NO_DATE).takeIf { it != NO_DATE }
+
+        setForeground(createForegroundInfo(format, 0, 0))
+
+        val result = ExportUtil.exportTransactions(applicationContext, format, startDate, endDate) { written, total ->
+            setProgress(workDataOf(KEY_WRITTEN to written, KEY_TOTAL to total))
+            setForeground(createForegroundInfo(format, written, total))
+        }
+
+        return result.fold(
+            onSuccess = { path -> Result.success(workDataOf(KEY_PATH to path)) },
+            onFailure = { error -> Result.failure(workDataOf(KEY_ERROR to (error.message ?: "导出失败"))) }
+        )
+    }
+
+    private fun createForegroundInfo(format: ExportFormat, written: Int, total: Int): ForegroundInfo {
+        val notificationManager =
+            applicationContext.getSystemService(Context.NOTIFICATION_SERVICE) as NotificationManager
+        notificationManager.createNotificationChannel(
+            NotificationChannel(CHANNEL_ID, "账单导出", NotificationManager.IMPORTANCE_LOW)
+        )
+
+        val notification = NotificationCompat.Builder(applicationContext, CHANNEL_ID)
+            .setSmallIcon(R.drawable.ic_export)
+            .setContentTitle("正在导出${format.displayName}")
+            .setContentText(if (total > 0) "已导出 $written/$total 条" else "正在准备…")
+            .setProgress(total, written.coerceAtMost(total), total <= 0)
+            .setOngoing(true)
+            .setOnlyAlertOnce(true)
+            .build()
+
+        return if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            ForegroundInfo(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_DATA_SYNC)
+        } else {
+            ForegroundInfo(NOTIFICATION_ID, notification)
+        }
+    }
+
+    companion object {
+        private const val CHANNEL_ID = "export_bill"
+        private const val NOTIFICATION_ID = 2002
+        private const val NO_DATE = Long.MIN_VALUE
+
+        const val UNIQUE_WORK_NAME = "export_bill"
+
+        const val KEY_FORMAT = "format"
+        const val KEY_START_DATE = "start_date"
+        const val KEY_END_DATE = "end_date"
+        const val KEY_WRITTEN = "written"
+        const val KEY_TOTAL = "total"
+        const val KEY_PATH = "path"
+        const val KEY_ERROR = "error"
+
+        /**
+         * 提交导出任务，起止时间都为null时导出全部历史
+         * 已有导出在进行时排在其后依次执行，不会丢弃
+         *
+         * @return 本次任务的ID，用于查询它自己的结果
+         */
+        fun enqueue(context: Context, format: ExportFormat, startDate: Long? = null, endDate: Long? = null): UUID {
+            val request = OneTimeWorkRequestBuilder<ExportWorker>()
+                .setInputData(
+                    workDataOf(
+                        KEY_FORMAT to format.name,
+                        KEY_START_DATE to (startDate ?: NO_DATE),
+                        KEY_END_DATE to (endDate ?: NO_DATE)
+                    )
+                )
+                .build()
+
+            WorkManager.getInstance(context)
+                .enqueueUniqueWork(UNIQUE_WORK_NAME, ExistingWorkPolicy.APPEND_OR_REPLACE, request)
+            return request.id
+        }
+    }
+}
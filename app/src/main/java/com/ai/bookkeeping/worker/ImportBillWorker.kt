@@ -0,0 +1,257 @@
+package com.ai.bookkeeping.worker
+
+import android.app.NotificationChannel
+import android.app.NotificationManager
+import android.content.Context
+import android.content.pm.ServiceInfo
+import android.net.Uri
+import android.os.Build
+import android.provider.DocumentsContract
+import android.provider.OpenableColumns
+import android.util.Log
+import androidx.core.app.NotificationCompat
+import androidx.room.withTransaction
+import androidx.work.CoroutineWorker
+import androidx.work.Data
+import androidx.work.ExistingWorkPolicy
+import androidx.work.ForegroundInfo
+import androidx.work.OneTimeWorkRequestBuilder
+import androidx.work.WorkManager
+import androidx.work.WorkerParameters
+import androidx.work.workDataOf
+import com.ai.bookkeeping.R
+import com.ai.bookkeeping.ai.AIService
+import com.ai.bookkeeping.data.AppDatabase
+import com.ai.bookkeeping.model.ImportCheckpoint
+import com.ai.bookkeeping.model.Transaction
+import com.ai.bookkeeping.util.BillParser
+import com.ai.bookkeeping.util.NaiveBayesClassifier
+import org.xmlpull.v1.XmlPullParserException
+import java.io.IOException
+import java.security.MessageDigest
+
+/**
+ * 账单导入后台任务
+ *
+ * 以前台任务形式流式读取账单文件（CSV或XLSX），每 [CHUNK_SIZE] 条在同一个数据库事务中
+ * 写入交易记录并推进断点。进程被杀或任务被系统重启后，从断点行继续，
+ * 已提交的行既不会重新解析也不会重复插入。
+ * 多次提交的导入依次执行，后提交的不会被丢弃。
+ */
+class ImportBillWorker(
+    context: Context,
+    params: WorkerParameters
+) : CoroutineWorker(context, params) {
+
+    private val database = AppDatabase.getDatabase(context)
+
+    override suspend fun doWork(): Result {
+        val uriString = inputData.getString(KEY_URI) ?: return Result.failure()
+        val sourceName = inputData.getString(KEY_SOURCE) ?: return Result.failure()
+        val source = BillParser.BillSource.values().firstOrNull { it.name == sourceName }
+            ?: return Result.failure(workDataOf(KEY_ERROR to "未知的账单来源: $sourceName"))
+        val total = inputData.getInt(KEY_TOTAL, 0)
+        val uri = Uri.parse(uriString)
+        val uriHash = hashOf(uriString, source, fileVersionOf(uri))
+
+        val checkpointDao = database.importCheckpointDao()
+        var checkpoint = checkpointDao.getCheckpoint(uriHash)
+            ?: ImportCheckpoint(uriHash = uriHash, uri = uriString, source = sourceName)
+
+        // 该文件已完整导入过，避免重复记账
+        if (checkpoint.completed) {
+            return Result.success(outputOf(checkpoint, alreadyImported = true))
+        }
+
+        setForeground(createForegroundInfo(checkpoint.importedCount, total))
+
+        return try {
+            val finished = BillParser.useRows(applicationContext, uri, source, checkpoint.lastRow) { rows ->
+                val chunk = ArrayList<Transaction>(CHUNK_SIZE)
+                var lastRow = checkpoint.lastRow
+                var failedInChunk = 0
+
+                for (row in rows) {
+                    try {
+                        BillParser.toTransaction(row, source)?.let { chunk.add(it) }
+                    } catch (e: Exception) {
+                        failedInChunk++
+                    }
+                    lastRow = row.lineNumber
+
+                    if (chunk.size >= CHUNK_SIZE) {
+                        checkpoint = commitChunk(checkpoint, chunk, lastRow, failedInChunk)
+                        chunk.clear()
+                        failedInChunk = 0
+                        reportProgress(checkpoint, total)
+                    }
+                }
+
+                // 提交最后一批并标记完成
+                checkpoint = commitChunk(checkpoint, chunk, lastRow, failedInChunk, completed = true)
+            }
+            if (finished == null) {
+                return Result.failure(workDataOf(KEY_ERROR to "无法读取文件"))
+            }
+
+            // 导入的记录中未能识别分类的，交给大模型批量补全
+            if (AIService.hasApiKey(applicationContext)) CategorizeWorker.enqueue(applicationContext)
+
+            Result.success(outputOf(checkpoint, alreadyImported = false))
+        } catch (e: IOException) {
+            Log.e(TAG, "读取账单失败，将从断点重试", e)
+            if (runAttemptCount < MAX_RETRIES) {
+                Result.retry()
+            } else {
+                Result.failure(workDataOf(KEY_ERROR to (e.message ?: "读取账单失败")))
+            }
+        } catch (e: SecurityException) {
+            // 文件访问授权已失效，重试无意义
+            Result.failure(workDataOf(KEY_ERROR to "没有文件访问权限，请重新选择文件"))
+        } catch (e: XmlPullParserException) {
+            // XLSX 内容损坏，重试无意义
+            Log.e(TAG, "解析表格失败", e)
+            Result.failure(workDataOf(KEY_ERROR to "表格文件已损坏: ${e.message}"))
+        } catch (e: IllegalArgumentException) {
+            Log.e(TAG, "账单格式不正确", e)
+            Result.failure(workDataOf(KEY_ERROR to "账单格式不正确: ${e.message}"))
+        }
+    }
+
+    /**
+     * 文件的大小和修改时间，用于区分同一URI下内容不同的文件（如重新导出到同一位置）
+     * 提供方不给出时为空串，此时只按URI区分
+     */
+    private fun fileVersionOf(uri: Uri): String {
+        return try {
+            applicationContext.contentResolver.query(uri, null, null, null, null)?.use { cursor ->
+                if (!cursor.moveToFirst()) return ""
+                val sizeIndex = cursor.getColumnIndex(OpenableColumns.SIZE)
+                val modifiedIndex = cursor.getColumnIndex(DocumentsContract.Document.COLUMN_LAST_MODIFIED)
+                val size = if (sizeIndex >= 0 && !cursor.isNull(sizeIndex)) cursor.getLong(sizeIndex) else -1L
+                val modified = if (modifiedIndex >= 0 && !cursor.isNull(modifiedIndex)) cursor.getLong(modifiedIndex) else -1L
+                "$size|$modified"
+            } ?: ""
+        } catch (e: Exception) {
+            // 查询失败不影响导入，读取文件时再报告权限等问题
+            ""
+        }
+    }
+
+    /**
+     * 在同一个事务中插入一批交易并推进断点
+     */
+    private suspend fun commitChunk(
+        checkpoint: ImportCheckpoint,
+        chunk: List<Transaction>,
+        lastRow: Int,
+        failedCount: Int,
+        completed: Boolean = false
+    ): ImportCheckpoint {
+        val updated = checkpoint.copy(
+            lastRow = lastRow,
+            importedCount = checkpoint.importedCount + chunk.size,
+            failedCount = checkpoint.failedCount + failedCount,
+            completed = completed,
+            updatedAt = System.currentTimeMillis()
+        )
+        database.withTransaction {
+            if (chunk.isNotEmpty()) {
+                database.transactionDao().insertAll(chunk)
+            }
+            database.importCheckpointDao().upsert(updated)
+        }
+        NaiveBayesClassifier.learn(chunk)
+        return updated
+    }
+
+    private suspend fun reportProgress(checkpoint: ImportCheckpoint, total: Int) {
+        setProgress(
+            workDataOf(
+                KEY_IMPORTED to checkpoint.importedCount,
+                KEY_FAILED to checkpoint.failedCount,
+                KEY_TOTAL to total
+            )
+        )
+        setForeground(createForegroundInfo(checkpoint.importedCount, total))
+    }
+
+    private fun createForegroundInfo(imported: Int, total: Int): ForegroundInfo {
+        val notificationManager =
+            applicationContext.getSystemService(Context.NOTIFICATION_SERVICE) as NotificationManager
+        notificationManager.createNotificationChannel(
+            NotificationChannel(CHANNEL_ID, "账单导入", NotificationManager.IMPORTANCE_LOW)
+        )
+
+        val notification = NotificationCompat.Builder(applicationContext, CHANNEL_ID)
+            .setSmallIcon(R.drawable.ic_import)
+            .setContentTitle("正在导入账单")
+            .setContentText(if (total > 0) "已导入 $imported/$total 条" else "已导入 $imported 条")
+            .setProgress(total, imported.coerceAtMost(total), total <= 0)
+            .setOngoing(true)
+            .setOnlyAlertOnce(true)
+            .build()
+
+        return if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            ForegroundInfo(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_DATA_SYNC)
+        } else {
+            ForegroundInfo(NOTIFICATION_ID, notification)
+        }
+    }
+
+    private fun outputOf(checkpoint: ImportCheckpoint, alreadyImported: Boolean): Data {
+        return workDataOf(
+            KEY_IMPORTED to checkpoint.importedCount,
+            KEY_FAILED to checkpoint.failedCount,
+            KEY_ALREADY_IMPORTED to alreadyImported
+        )
+    }
+
+    companion object {
+        private const val TAG = "ImportBillWorker"
+        private const val CHANNEL_ID = "import_bill"
+        private const val NOTIFICATION_ID = 2001
+        private const val CHUNK_SIZE = 200
+        private const val MAX_RETRIES = 3
+
+        const val UNIQUE_WORK_NAME = "import_bill"
+
+        const val KEY_URI = "uri"
+        const val KEY_SOURCE = "source"
+        const val KEY_TOTAL = "total"
+        const val KEY_IMPORTED = "imported"
+        const val KEY_FAILED = "failed"
+        const val KEY_ALREADY_IMPORTED = "already_imported"
+        const val KEY_ERROR = "error"
+
+        /**
+         * 提交导入任务
+         * @param total 预览时解析到的条数，仅用于显示进度
+         */
+        fun enqueue(context: Context, uri: Uri, source: BillParser.BillSource, total: Int) {
+            val request = OneTimeWorkRequestBuilder<ImportBillWorker>()
+                .setInputData(
+                    workDataOf(
+                        KEY_URI to uri.toString(),
+                        KEY_SOURCE to source.name,
+                        KEY_TOTAL to total
+                    )
+                )
+                .build()
+
+            // 正在导入时再提交的导入排在其后执行；前一个已失败或取消时直接替换
+            WorkManager.getInstance(context)
+                .enqueueUniqueWork(UNIQUE_WORK_NAME, ExistingWorkPolicy.APPEND_OR_REPLACE, request)
+        }
+
+        /**
+         * 断点键：同一文件以不同来源解析视为不同的导入；
+         * 同一URI下大小或修改时间变了视为新文件，不会被误判为已导入
+         */
+        private fun hashOf(uri: String, source: BillParser.BillSource, version: String): String {
+            val digest = MessageDigest.getInstance("SHA-256")
+                .digest("${source.name}|$uri|$version".toByteArray(Charsets.UTF_8))
+            return digest.joinToString("") { "%02x".format(it) }
+        }
+    }
+}
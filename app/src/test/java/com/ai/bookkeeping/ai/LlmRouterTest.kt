@@ -0,0 +1,114 @@
+package com.ai.bookkeeping.ai
+
+import com.ai.bookkeeping.network.CircuitBreaker
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+
+class LlmRouterTest {
+
+    private var now = 0L
+
+    private val a = provider("a")
+    private val b = provider("b")
+    private val c = provider("c")
+
+    @Before
+    fun setUp() {
+        LlmRouter.clock = { now }
+        LlmRouter.reset()
+    }
+
+    @Test
+    fun unknownProvidersKeepConfiguredOrder() {
+        assertEquals(listOf(a, b, c), LlmRouter.rank(listOf(a, b, c)))
+    }
+
+    @Test
+    fun measuredProvidersRankByMedianLatency() {
+        succeed(a, 800)
+        succeed(b, 200)
+        succeed(c, 500)
+
+        assertEquals(listOf(b, c, a), LlmRouter.rank(listOf(a, b, c)))
+    }
+
+    @Test
+    fun unknownProvidersRankAfterMeasuredHealthyOnes() {
+        succeed(c, 900)
+        // 样本不足，不能当作延迟为0
+        LlmRouter.record(b, success = true, latencyMillis = 10)
+
+        assertEquals(listOf(c, a, b), LlmRouter.rank(listOf(a, b, c)))
+    }
+
+    @Test
+    fun firstFailureDemotesProvider() {
+        succeed(a, 100)
+        succeed(b, 300)
+        LlmRouter.record(a, success = false)
+
+        assertEquals(listOf(b, c, a), LlmRouter.rank(listOf(a, b, c)))
+
+        // 成功一次后恢复
+        LlmRouter.record(a, success = true, latencyMillis = 100)
+        assertEquals(listOf(a, b, c), LlmRouter.rank(listOf(a, b, c)))
+    }
+
+    @Test
+    fun highErrorRateDemotesProvider() {
+        succeed(b, 300)
+        // 每次都在连续失败达到熔断阈值之前成功一次，最后一次成功
+        repeat(3) {
+            LlmRouter.record(a, success = false)
+            LlmRouter.record(a, success = false)
+            LlmRouter.record(a, success = true, latencyMillis = 100)
+        }
+
+        assertEquals(listOf(b, a), LlmRouter.rank(listOf(a, b)))
+    }
+
+    @Test
+    fun openProviderRanksLastWithoutBlockingOthers() {
+        succeed(a, 100)
+        succeed(b, 300)
+        repeat(3) { LlmRouter.record(a, success = false) }
+
+        assertEquals(listOf(b, c, a), LlmRouter.rank(listOf(a, b, c)))
+        assertFalse(LlmRouter.tryAcquire(a))
+        assertTrue(LlmRouter.tryAcquire(b))
+        assertEquals(CircuitBreaker.State.CLOSED, LlmRouter.circuitState.value)
+    }
+
+    @Test
+    fun allOpenProvidersOpenAggregateCircuit() {
+        LlmRouter.rank(listOf(a, b))
+        repeat(3) {
+            LlmRouter.record(a, success = false)
+            LlmRouter.record(b, success = false)
+        }
+
+        assertEquals(CircuitBreaker.State.OPEN, LlmRouter.circuitState.value)
+        assertTrue(LlmRouter.circuitCooldownMillis() > 0)
+
+        // 冷却结束后每家只放行一个探测请求
+        now += 30_000L
+        assertTrue(LlmRouter.tryAcquire(a))
+        assertFalse(LlmRouter.tryAcquire(a))
+        assertEquals(CircuitBreaker.State.HALF_OPEN, LlmRouter.circuitState.value)
+
+        LlmRouter.record(a, success = true, latencyMillis = 100)
+        assertEquals(CircuitBreaker.State.CLOSED, LlmRouter.circuitState.value)
+        assertEquals(listOf(a, b), LlmRouter.rank(listOf(b, a)))
+    }
+
+    private fun succeed(provider: LlmProvider, latencyMillis: Long) {
+        repeat(3) { LlmRouter.record(provider, success = true, latencyMillis = latencyMillis) }
+    }
+
+    private fun provider(id: String): LlmProvider {
+        return OpenAiCompatibleProvider(id, id, "http://localhost/$id/chat/completions", "model", "")
+    }
+}
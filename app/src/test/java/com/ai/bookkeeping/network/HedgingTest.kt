@@ -0,0 +1,116 @@
+package com.ai.bookkeeping.network
+
+import kotlinx.coroutines.runBlocking
+import okhttp3.Call
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.IOException
+import java.util.concurrent.TimeUnit
+
+class HedgingTest {
+
+    private val client = OkHttpClient()
+    private val primary = MockWebServer()
+    private val secondary = MockWebServer()
+
+    private var primaryCall: Call? = null
+    private var secondaryCall: Call? = null
+
+    @Before
+    fun setUp() {
+        primary.start()
+        secondary.start()
+    }
+
+    @After
+    fun tearDown() {
+        primary.shutdown()
+        secondary.shutdown()
+        client.dispatcher.executorService.shutdown()
+    }
+
+    @Test
+    fun fastPrimaryDoesNotHedge() = runBlocking {
+        primary.enqueue(MockResponse().setBody("primary"))
+
+        val result = hedged(HEDGE_DELAY_MS, { fetch(primary) { primaryCall = it } }, { fetch(secondary) { secondaryCall = it } })
+
+        assertEquals("primary", result.getOrNull())
+        assertEquals(0, secondary.requestCount)
+        assertEquals(null, secondaryCall)
+    }
+
+    @Test
+    fun slowPrimaryIsHedgedAfterDelayAndCancelled() = runBlocking {
+        primary.enqueue(MockResponse().setBody("primary").setHeadersDelay(5, TimeUnit.SECONDS))
+        secondary.enqueue(MockResponse().setBody("secondary"))
+
+        val startedAt = System.nanoTime()
+        var hedgedAfterMillis = -1L
+        val result = hedged(
+            HEDGE_DELAY_MS,
+            primary = { fetch(primary) { primaryCall = it } },
+            secondary = {
+                hedgedAfterMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt)
+                fetch(secondary) { secondaryCall = it }
+            }
+        )
+        val elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt)
+
+        assertEquals("secondary", result.getOrNull())
+        assertTrue("hedged after ${hedgedAfterMillis}ms", hedgedAfterMillis >= HEDGE_DELAY_MS)
+        assertTrue("finished after ${elapsed}ms", elapsed < 5_000)
+        assertEquals(1, primary.requestCount)
+        assertEquals(1, secondary.requestCount)
+        // 落后的主请求被取消，不再等它的响应
+        assertTrue(primaryCall!!.isCanceled())
+    }
+
+    @Test
+    fun slowSecondaryIsCancelledWhenPrimaryWins() = runBlocking {
+        primary.enqueue(MockResponse().setBody("primary").setHeadersDelay(HEDGE_DELAY_MS * 2, TimeUnit.MILLISECONDS))
+        secondary.enqueue(MockResponse().setBody("secondary").setHeadersDelay(5, TimeUnit.SECONDS))
+
+        val result = hedged(HEDGE_DELAY_MS, { fetch(primary) { primaryCall = it } }, { fetch(secondary) { secondaryCall = it } })
+
+        assertEquals("primary", result.getOrNull())
+        assertTrue(secondaryCall!!.isCanceled())
+    }
+
+    @Test
+    fun secondarySuccessWinsOverPrimaryFailure() = runBlocking {
+        primary.enqueue(MockResponse().setResponseCode(503).setHeadersDelay(HEDGE_DELAY_MS * 2, TimeUnit.MILLISECONDS))
+        secondary.enqueue(MockResponse().setBody("secondary").setHeadersDelay(HEDGE_DELAY_MS * 3, TimeUnit.MILLISECONDS))
+
+        val result = hedged(HEDGE_DELAY_MS, { fetch(primary) { primaryCall = it } }, { fetch(secondary) { secondaryCall = it } })
+
+        assertEquals("secondary", result.getOrNull())
+    }
+
+    private suspend fun fetch(server: MockWebServer, onCall: (Call) -> Unit): Result<String> {
+        val call = client.newCall(Request.Builder().url(server.url("/chat/completions")).build())
+        onCall(call)
+        return try {
+            call.await().use { response ->
+                if (response.isSuccessful) {
+                    Result.success(response.body!!.string())
+                } else {
+                    Result.failure(IOException("HTTP ${response.code}"))
+                }
+            }
+        } catch (e: IOException) {
+            Result.failure(e)
+        }
+    }
+
+    companion object {
+        private const val HEDGE_DELAY_MS = 200L
+    }
+}
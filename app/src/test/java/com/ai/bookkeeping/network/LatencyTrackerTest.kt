@@ -0,0 +1,91 @@
+package com.ai.bookkeeping.network
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class LatencyTrackerTest {
+
+    private var now = 0L
+    private val tracker = LatencyTracker(capacity = 20, maxAgeMillis = 60_000L, clock = { now })
+
+    @Test
+    fun emptyTrackerHasNoLatency() {
+        val snapshot = tracker.snapshot()
+        assertEquals(0, snapshot.samples)
+        assertEquals(-1L, snapshot.p50)
+        assertEquals(-1L, snapshot.p95)
+        assertEquals(0.0, snapshot.errorRate, 0.0)
+    }
+
+    @Test
+    fun percentilesOfSuccessfulRequests() {
+        for (latency in 1..20) {
+            tracker.record(success = true, latencyMillis = latency * 10L)
+        }
+
+        val snapshot = tracker.snapshot()
+        assertEquals(20, snapshot.samples)
+        assertEquals(110L, snapshot.p50)
+        assertEquals(190L, snapshot.p95)
+        assertEquals(0.0, snapshot.errorRate, 0.0)
+    }
+
+    @Test
+    fun failuresCountTowardErrorRateOnly() {
+        tracker.record(success = true, latencyMillis = 100)
+        tracker.record(success = true, latencyMillis = 300)
+        tracker.record(success = false, latencyMillis = 5_000)
+        tracker.record(success = false)
+
+        val snapshot = tracker.snapshot()
+        assertEquals(4, snapshot.samples)
+        assertEquals(0.5, snapshot.errorRate, 1e-9)
+        // 失败请求的耗时不计入延迟
+        assertEquals(300L, snapshot.p95)
+    }
+
+    @Test
+    fun successWithoutLatencyCountsAsSampleOnly() {
+        tracker.record(success = true)
+        tracker.record(success = true)
+
+        val snapshot = tracker.snapshot()
+        assertEquals(2, snapshot.samples)
+        assertEquals(-1L, snapshot.p50)
+        assertEquals(0.0, snapshot.errorRate, 0.0)
+    }
+
+    @Test
+    fun expiredSamplesAreIgnored() {
+        tracker.record(success = false)
+        tracker.record(success = true, latencyMillis = 900)
+        now = 30_000L
+        tracker.record(success = true, latencyMillis = 100)
+
+        now = 60_000L
+        assertEquals(3, tracker.snapshot().samples)
+
+        // 前两个样本超过60秒
+        now = 60_001L
+        val snapshot = tracker.snapshot()
+        assertEquals(1, snapshot.samples)
+        assertEquals(100L, snapshot.p50)
+        assertEquals(100L, snapshot.p95)
+        assertEquals(0.0, snapshot.errorRate, 0.0)
+
+        now = 90_001L
+        assertEquals(0, tracker.snapshot().samples)
+        assertEquals(-1L, tracker.snapshot().p50)
+    }
+
+    @Test
+    fun oldestSamplesAreOverwrittenAtCapacity() {
+        repeat(20) { tracker.record(success = false) }
+        repeat(20) { tracker.record(success = true, latencyMillis = 50) }
+
+        val snapshot = tracker.snapshot()
+        assertEquals(20, snapshot.samples)
+        assertEquals(0.0, snapshot.errorRate, 0.0)
+        assertEquals(50L, snapshot.p50)
+    }
+}